@@ -0,0 +1,87 @@
+package com.pivottech.booking.benchmark;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.repository.AvailabilityRepository;
+import com.pivottech.booking.service.BookingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A week of free slots out of a calendar of {@code calendarSize} 15 minute slots, through
+ * {@link BookingService#findAvailabilitiesBetween} (the in-memory index) and straight from the
+ * database with {@link AvailabilityRepository#findAvailableBetween} for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AvailabilityQueryBenchmark {
+
+	static final LocalDateTime FROM = BenchmarkContext.nextMonday();
+
+	static final Duration WINDOW = Duration.ofDays(7);
+
+	@Param({ "1000", "100000" })
+	int calendarSize;
+
+	ConfigurableApplicationContext context;
+
+	BookingService bookingService;
+
+	AvailabilityRepository availabilityRepository;
+
+	Instructor instructor;
+
+	long calendarMinutes;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = BenchmarkContext.start();
+		bookingService = context.getBean(BookingService.class);
+		availabilityRepository = context.getBean(AvailabilityRepository.class);
+		instructor = BenchmarkContext.newInstructor(context);
+		calendarMinutes = 15L * calendarSize;
+		bookingService.createAvailability(instructor, FROM, FROM.plusMinutes(calendarMinutes),
+				Duration.ofMinutes(15));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public List<Availability> index() {
+		LocalDateTime from = randomStart();
+		return bookingService.findAvailabilitiesBetween(instructor, from, from.plus(WINDOW));
+	}
+
+	@Benchmark
+	public List<Availability> database() {
+		LocalDateTime from = randomStart();
+		return availabilityRepository.findAvailableBetween(instructor, from, from.plus(WINDOW),
+				LocalDateTime.now(ZoneOffset.UTC));
+	}
+
+	LocalDateTime randomStart() {
+		long latest = Math.max(1, calendarMinutes - WINDOW.toMinutes());
+		return FROM.plusMinutes(ThreadLocalRandom.current().nextLong(latest) / 15 * 15);
+	}
+
+}
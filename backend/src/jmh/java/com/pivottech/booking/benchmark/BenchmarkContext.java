@@ -0,0 +1,66 @@
+package com.pivottech.booking.benchmark;
+
+import com.pivottech.booking.BookingApplication;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.service.UserService;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Starts the whole backend against an in-memory H2 in PostgreSQL mode, so benchmarks measure
+ * the same beans, transactions and SQL as production without needing a database. Absolute
+ * numbers are not comparable with Postgres, but the same benchmark run before and after a change
+ * is.
+ * <p>Logging, the access log and session storage are turned down so they don't dominate. The
+ * settings are passed as command line arguments, which (unlike default properties) take precedence
+ * over application.properties, so nothing reaches the Postgres configured there.
+ */
+final class BenchmarkContext {
+
+	private static final AtomicLong USERS = new AtomicLong();
+
+	private BenchmarkContext() {
+	}
+
+	static ConfigurableApplicationContext start() {
+		return new SpringApplicationBuilder(BookingApplication.class).run(
+				"--spring.datasource.url=jdbc:h2:mem:benchmark-" + System.nanoTime()
+						+ ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+				"--spring.datasource.username=sa", "--spring.datasource.password=",
+				"--spring.jpa.hibernate.ddl-auto=create-drop", "--spring.session.store-type=none",
+				"--server.port=0", "--management.server.port=0", "--logging.level.root=WARN",
+				"--booking.access-log.sample-rate=0", "--booking.security.bcrypt-strength=4",
+				"--booking.reactive.enabled=false");
+	}
+
+	/**
+	 * Midnight (UTC) of the coming Monday: calendars start there, so they are in the future
+	 * whenever the benchmarks run and the index holds all of them.
+	 */
+	static LocalDateTime nextMonday() {
+		return LocalDate.now(ZoneOffset.UTC).with(TemporalAdjusters.next(DayOfWeek.MONDAY)).atStartOfDay();
+	}
+
+	static Instructor newInstructor(ConfigurableApplicationContext context) {
+		UserService userService = context.getBean(UserService.class);
+		String username = "instructor-" + USERS.incrementAndGet();
+		userService.createUser(username, "secret");
+		return userService.updateUserProfile(username, new Instructor());
+	}
+
+	static Student newStudent(ConfigurableApplicationContext context) {
+		UserService userService = context.getBean(UserService.class);
+		String username = "student-" + USERS.incrementAndGet();
+		userService.createUser(username, "secret");
+		return userService.updateUserProfile(username, new Student());
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.pivottech.booking.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pivottech.booking.BookingApplication;
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationView;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing what the list endpoints return, with the application's ObjectMapper and the
+ * {@code @JsonFormat("yyyy-MM-dd HH:mm")} date patterns: a week of {@link Availability}, the
+ * {@link Reservation} entities as they used to be returned, and {@link ReservationView}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonSerializationBenchmark {
+
+	static final LocalDateTime FROM = BenchmarkContext.nextMonday().plusHours(9);
+
+	@Param({ "10", "500" })
+	int size;
+
+	ObjectMapper objectMapper;
+
+	List<Availability> availabilities;
+
+	List<Reservation> reservations;
+
+	List<ReservationView> views;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		objectMapper = new BookingApplication().new CustomObjectMapper();
+		Instructor instructor = new Instructor();
+		instructor.setUser(user("bob"));
+		instructor.setIntroduction("Piano and music theory");
+		Student student = new Student();
+		student.setUser(user("alice"));
+		student.setGrade("5");
+
+		availabilities = new ArrayList<>(size);
+		reservations = new ArrayList<>(size);
+		views = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			LocalDateTime start = FROM.plusMinutes(30L * i);
+			Availability availability = Availability.builder().id((long) i).instructor(instructor)
+					.utcStartTime(start).utcEndTime(start.plusMinutes(30)).version(0).build();
+			availabilities.add(availability);
+			reservations.add(Reservation.builder().id((long) i).description("lesson " + i).student(student)
+					.utcStartTime(start).utcEndTime(start.plusMinutes(30)).availabilities(List.of(availability))
+					.build());
+			views.add(new ReservationView((long) i, "lesson " + i, start, start.plusMinutes(30), "alice", "bob"));
+		}
+	}
+
+	@Benchmark
+	public byte[] availabilities() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(availabilities);
+	}
+
+	@Benchmark
+	public byte[] reservationEntities() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(reservations);
+	}
+
+	@Benchmark
+	public byte[] reservationViews() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(views);
+	}
+
+	static User user(String username) {
+		User user = new User();
+		user.setUsername(username);
+		return user;
+	}
+
+}
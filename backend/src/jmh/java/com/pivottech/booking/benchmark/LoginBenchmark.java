@@ -0,0 +1,95 @@
+package com.pivottech.booking.benchmark;
+
+import com.pivottech.booking.handler.BoundedPasswordEncoder;
+import com.pivottech.booking.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Logins per second through {@link DaoAuthenticationProvider}, the same path {@code formLogin}
+ * and HTTP basic take, with 8 clients logging in at once:
+ * <ul>
+ * <li>{@code bcrypt}: the previous plain {@link BCryptPasswordEncoder}, one core per client</li>
+ * <li>{@code bounded}: {@link BoundedPasswordEncoder} on 1 hashing thread without the
+ * credential cache, i.e. what a login burst costs now</li>
+ * <li>{@code cached}: {@link BoundedPasswordEncoder} with the credential cache, i.e. a basic auth
+ * client calling repeatedly</li>
+ * </ul>
+ * Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class LoginBenchmark {
+
+	static final String USERNAME = "alice";
+
+	static final String PASSWORD = "correct horse battery staple";
+
+	@Param({ "bcrypt", "bounded", "cached" })
+	String encoder;
+
+	@Param({ "10" })
+	int strength;
+
+	PasswordEncoder passwordEncoder;
+
+	AuthenticationProvider provider;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		switch (encoder) {
+		case "bcrypt":
+			passwordEncoder = new BCryptPasswordEncoder(strength);
+			break;
+		case "bounded":
+			passwordEncoder = new BoundedPasswordEncoder(strength, 1, 64, Duration.ofMinutes(1), Duration.ZERO, 0);
+			break;
+		case "cached":
+			passwordEncoder = new BoundedPasswordEncoder(strength, 1, 64, Duration.ofMinutes(1),
+					Duration.ofMinutes(1), 1000);
+			break;
+		default:
+			throw new IllegalArgumentException(encoder);
+		}
+		User user = new User();
+		user.setUsername(USERNAME);
+		user.setPassword(new BCryptPasswordEncoder(strength).encode(PASSWORD));
+		DaoAuthenticationProvider daoProvider = new DaoAuthenticationProvider();
+		daoProvider.setPasswordEncoder(passwordEncoder);
+		daoProvider.setUserDetailsService(username -> user);
+		provider = daoProvider;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (passwordEncoder instanceof BoundedPasswordEncoder) {
+			((BoundedPasswordEncoder) passwordEncoder).shutdown();
+		}
+	}
+
+	@Benchmark
+	public Authentication login() {
+		return provider.authenticate(new UsernamePasswordAuthenticationToken(USERNAME, PASSWORD));
+	}
+
+}
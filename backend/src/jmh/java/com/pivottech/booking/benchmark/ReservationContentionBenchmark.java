@@ -0,0 +1,104 @@
+package com.pivottech.booking.benchmark;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.service.BookingEngine;
+import com.pivottech.booking.service.BookingService;
+import com.pivottech.booking.service.SlotUnavailableException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Reservation attempts per second through {@link BookingEngine#reserve} with 16 students at
+ * once. Consecutive attempts are handed the same slot {@link #CONTENDERS} times, so for each slot
+ * one student wins (a database round trip) and the others race and lose.
+ * <p>Every iteration starts from a freshly published calendar of {@link #SLOTS} slots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(16)
+public class ReservationContentionBenchmark {
+
+	static final int SLOTS = 20_000;
+
+	static final int CONTENDERS = 4;
+
+	ConfigurableApplicationContext context;
+
+	BookingService bookingService;
+
+	BookingEngine bookingEngine;
+
+	List<Availability> slots;
+
+	final AtomicInteger attempts = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = BenchmarkContext.start();
+		bookingService = context.getBean(BookingService.class);
+		bookingEngine = context.getBean(BookingEngine.class);
+	}
+
+	@Setup(Level.Iteration)
+	public void publishCalendar() {
+		LocalDateTime from = BenchmarkContext.nextMonday();
+		slots = new ArrayList<>(SLOTS);
+		bookingService.createAvailability(BenchmarkContext.newInstructor(context), from,
+				from.plusMinutes(15L * SLOTS), Duration.ofMinutes(15)).forEach(slots::add);
+		attempts.set(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	/** One student per benchmark thread. */
+	@State(Scope.Thread)
+	public static class StudentState {
+
+		Student student;
+
+		@Setup(Level.Trial)
+		public void setUp(ReservationContentionBenchmark benchmark) {
+			student = BenchmarkContext.newStudent(benchmark.context);
+		}
+
+	}
+
+	/**
+	 * @return whether this attempt won its slot
+	 */
+	@Benchmark
+	public boolean reserve(StudentState state) {
+		int attempt = attempts.getAndIncrement();
+		// once the calendar is used up every attempt is a conflict answered from memory
+		Availability availability = slots.get((attempt / CONTENDERS) % slots.size());
+		try {
+			bookingEngine.reserve(state.student, availability, "benchmark");
+			return true;
+		}
+		catch (SlotUnavailableException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.pivottech.booking.benchmark;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.service.BookingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for an instructor to publish {@code days} of availability through
+ * {@link BookingService#createAvailability}: slot generation, the batched INSERT and the index
+ * update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SlotPublishingBenchmark {
+
+	static final LocalDateTime FROM = BenchmarkContext.nextMonday();
+
+	@Param({ "15", "60" })
+	int durationMinutes;
+
+	@Param({ "7", "90" })
+	int days;
+
+	ConfigurableApplicationContext context;
+
+	BookingService bookingService;
+
+	Instructor instructor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		context = BenchmarkContext.start();
+		bookingService = context.getBean(BookingService.class);
+	}
+
+	/** Publishing the same slots twice violates the unique index, so every call gets its own instructor. */
+	@Setup(Level.Invocation)
+	public void newInstructor() {
+		instructor = BenchmarkContext.newInstructor(context);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Iterable<Availability> createAvailability() {
+		return bookingService.createAvailability(instructor, FROM, FROM.plusDays(days),
+				Duration.ofMinutes(durationMinutes));
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.pivottech.booking.loadtest;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * <p>One virtual user: the endpoints the UI calls, with the user's own cookies (the login cookie
+ * or session id). Every call is recorded in the {@link LatencyReport} under a templated endpoint
+ * name such as {@code GET /{instructor}/availabilities}.
+ * <p>Requests are asynchronous on a shared {@link HttpClient}, so a slow backend doesn't tie up
+ * load generator threads.
+ */
+class BookingClient {
+
+	static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+	static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+	final String username;
+
+	private final HttpClient http;
+
+	private final String baseUrl;
+
+	private volatile LatencyReport report;
+
+	private final Map<String, String> cookies = new ConcurrentHashMap<>();
+
+	BookingClient(HttpClient http, String baseUrl, String username) {
+		this.http = http;
+		this.baseUrl = baseUrl;
+		this.username = username;
+	}
+
+	/** Record the following requests in {@code report}, e.g. when going from warmup to load. */
+	void reportTo(LatencyReport report) {
+		this.report = report;
+	}
+
+	CompletableFuture<HttpResponse<String>> signUp(String password, long intendedNanos) {
+		return send("POST /users", json("/users"), "{\"username\":\"" + username + "\",\"password\":\"" + password
+				+ "\"}", intendedNanos);
+	}
+
+	CompletableFuture<HttpResponse<String>> login(String password, long intendedNanos) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri("/login?username=" + encode(username)
+				+ "&password=" + encode(password))).header("Content-Type", "application/x-www-form-urlencoded");
+		return send("POST /login", request.POST(HttpRequest.BodyPublishers.noBody()), intendedNanos);
+	}
+
+	CompletableFuture<HttpResponse<String>> becomeInstructor(long intendedNanos) {
+		return send("POST /instructors/{username}", json("/instructors/" + username),
+				"{\"introduction\":\"load test\"}", intendedNanos);
+	}
+
+	CompletableFuture<HttpResponse<String>> becomeStudent(long intendedNanos) {
+		return send("POST /students/{username}", json("/students/" + username), "{\"grade\":\"load test\"}",
+				intendedNanos);
+	}
+
+	CompletableFuture<HttpResponse<String>> publish(LocalDateTime from, LocalDateTime to, int durationMinutes,
+			long intendedNanos) {
+		return send("POST /{instructor}/availabilities", json("/" + username + "/availabilities"),
+				"{\"fromUtc\":\"" + FORMAT.format(from) + "\",\"toUtc\":\"" + FORMAT.format(to)
+						+ "\",\"durationMinutes\":" + durationMinutes + "}",
+				intendedNanos);
+	}
+
+	CompletableFuture<HttpResponse<String>> listAvailabilities(String instructor, LocalDateTime from,
+			LocalDateTime to, long intendedNanos) {
+		return send("GET /{instructor}/availabilities", HttpRequest.newBuilder(uri("/" + instructor
+				+ "/availabilities?from=" + encode(FORMAT.format(from)) + "&to=" + encode(FORMAT.format(to)))).GET(),
+				intendedNanos);
+	}
+
+	CompletableFuture<HttpResponse<String>> reserve(long availabilityId, long intendedNanos) {
+		return send("POST /{student}/reservations", json("/" + username + "/reservations"),
+				"{\"availabilityId\":" + availabilityId + ",\"description\":\"load test\"}", intendedNanos);
+	}
+
+	private HttpRequest.Builder json(String path) {
+		return HttpRequest.newBuilder(uri(path)).header("Content-Type", "application/json");
+	}
+
+	private CompletableFuture<HttpResponse<String>> send(String endpoint, HttpRequest.Builder request, String body,
+			long intendedNanos) {
+		return send(endpoint, request.POST(HttpRequest.BodyPublishers.ofString(body)), intendedNanos);
+	}
+
+	private CompletableFuture<HttpResponse<String>> send(String endpoint, HttpRequest.Builder request,
+			long intendedNanos) {
+		if (!cookies.isEmpty()) {
+			request.header("Cookie", cookies.entrySet().stream().map(c -> c.getKey() + "=" + c.getValue())
+					.collect(Collectors.joining("; ")));
+		}
+		long sent = System.nanoTime();
+		return http.sendAsync(request.timeout(TIMEOUT).build(), HttpResponse.BodyHandlers.ofString())
+				.whenComplete((response, failure) -> {
+					LatencyReport report = this.report;
+					if (response == null) {
+						report.recordFailure(endpoint);
+						return;
+					}
+					report.record(endpoint, response.statusCode(), intendedNanos, sent, System.nanoTime());
+					for (String setCookie : response.headers().allValues("Set-Cookie")) {
+						String pair = setCookie.split(";", 2)[0];
+						int eq = pair.indexOf('=');
+						if (eq > 0) {
+							cookies.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+						}
+					}
+				});
+	}
+
+	private URI uri(String path) {
+		return URI.create(baseUrl + path);
+	}
+
+	private static String encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.pivottech.booking.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Per-endpoint latency histograms and status counts. Recording is wait-free
+ * ({@link Recorder}), so the load generator itself doesn't become the bottleneck.
+ * <p>Two latencies are kept per request: <b>response time</b>, measured from when the request
+ * was <i>supposed</i> to be sent according to the arrival schedule, and <b>service time</b>,
+ * measured from when it actually was. When the backend (or the in-flight limit) falls behind,
+ * requests queue up; service time hides that wait (coordinated omission), response time
+ * includes it and is what users see.
+ */
+class LatencyReport {
+
+	/** Up to one hour in microseconds, 3 significant digits. */
+	static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	void record(String endpoint, int status, long intendedNanos, long sentNanos, long doneNanos) {
+		Endpoint stats = endpoints.computeIfAbsent(endpoint, e -> new Endpoint());
+		stats.responseTime.recordValue(micros(doneNanos - intendedNanos));
+		stats.serviceTime.recordValue(micros(doneNanos - sentNanos));
+		stats.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+	}
+
+	/** A request that never got a response, e.g. a refused connection or a timeout. */
+	void recordFailure(String endpoint) {
+		endpoints.computeIfAbsent(endpoint, e -> new Endpoint()).statuses.computeIfAbsent(0, s -> new LongAdder())
+				.increment();
+	}
+
+	/**
+	 * Print one line per endpoint with throughput over {@code elapsedNanos} and percentiles, and
+	 * write each endpoint's full response time distribution to {@code output} as {@code .hgrm}
+	 * (plottable with HdrHistogram's plotter).
+	 */
+	void print(String title, long elapsedNanos, PrintStream out, Path output) throws IOException {
+		double seconds = elapsedNanos / 1e9;
+		out.printf("%n== %s, %.0f s ==%n", title, seconds);
+		out.printf("%-44s %8s %8s %9s %9s %9s %9s %12s  %s%n", "endpoint", "count", "req/s", "p50 ms", "p99 ms",
+				"p99.9 ms", "max ms", "p99 svc ms", "statuses (0 = no response)");
+		Files.createDirectories(output);
+		for (Map.Entry<String, Endpoint> entry : new TreeMap<>(endpoints).entrySet()) {
+			Histogram response = entry.getValue().responseTime.getIntervalHistogram();
+			Histogram service = entry.getValue().serviceTime.getIntervalHistogram();
+			Map<Integer, Long> statuses = new TreeMap<>();
+			entry.getValue().statuses.forEach((status, count) -> statuses.put(status, count.sum()));
+			long count = statuses.values().stream().mapToLong(Long::longValue).sum();
+			out.printf("%-44s %8d %8.1f %9.2f %9.2f %9.2f %9.2f %12.2f  %s%n", entry.getKey(), count, count / seconds,
+					millis(response, 50), millis(response, 99), millis(response, 99.9),
+					response.getMaxValue() / 1000.0, millis(service, 99), statuses);
+			Path file = output.resolve(title.replaceAll("\\W+", "-") + "_" + entry.getKey().replaceAll("\\W+", "-")
+					+ ".hgrm");
+			try (PrintStream hgrm = new PrintStream(Files.newOutputStream(file))) {
+				response.outputPercentileDistribution(hgrm, 1000.0);
+			}
+		}
+		out.printf("percentile distributions (ms) written to %s%n", output.toAbsolutePath());
+	}
+
+	private static long micros(long nanos) {
+		return Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+
+	private static double millis(Histogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	static class Endpoint {
+
+		final Recorder responseTime = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+
+		final Recorder serviceTime = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+
+		final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+	}
+
+}
@@ -0,0 +1,233 @@
+package com.pivottech.booking.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Drives a running backend the way the UI does, to size {@code replicas} and CPU limits in
+ * gke/backend-deployment.yaml from measurements. Run with
+ * {@code ./gradlew loadTest -PloadTestArgs="--base-url=http://localhost:8081/api --rate=200"},
+ * see {@link LoadTestOptions} for every option.
+ * <ol>
+ * <li>Setup: instructors sign up, log in, create their profile and publish
+ * {@code calendar-days} of 30 minute slots; students sign up, log in and create their
+ * profile.</li>
+ * <li>Load: student sessions arrive at {@code rate} per second (open model: the schedule doesn't
+ * wait for responses). A session lists a week of a random instructor's free slots; a
+ * {@code reserve-ratio} share of sessions then tries to book one of the first few, so students
+ * race for the same slots.</li>
+ * </ol>
+ * Latency is reported per endpoint, measured from each session's scheduled arrival so queueing
+ * behind a slow backend is included (see {@link LatencyReport}). The warmup is run but not
+ * reported. With {@code --clients} sessions are driven by a fixed number of clients instead
+ * (closed model), which measures the throughput the backend sustains at that concurrency.
+ */
+public class LoadTest {
+
+	static final String PASSWORD = "load-test-secret";
+
+	/** Booking attempts pick among this many of the earliest free slots, so they collide. */
+	static final int HOT_SLOTS = 5;
+
+	final LoadTestOptions options;
+
+	final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(10)).build();
+
+	final ObjectMapper objectMapper = new ObjectMapper();
+
+	final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+	final List<BookingClient> instructors = new ArrayList<>();
+
+	final List<BookingClient> students = new ArrayList<>();
+
+	/** Sessions completed in the current phase. */
+	final AtomicLong sessions = new AtomicLong();
+
+	LoadTest(LoadTestOptions options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new LoadTest(LoadTestOptions.parse(args)).run();
+	}
+
+	void run() throws Exception {
+		run("load");
+	}
+
+	/**
+	 * Set up the users, warm up and measure, printing reports named after {@code title}.
+	 * @return completed sessions per second while measuring
+	 */
+	double run(String title) throws Exception {
+		LatencyReport setupReport = new LatencyReport();
+		long begin = System.nanoTime();
+		setUp(setupReport);
+		setupReport.print(title + " setup", System.nanoTime() - begin, System.out, options.output);
+
+		String load = options.clients > 0 ? options.clients + " clients" : options.rate + " sessions/s";
+		System.out.printf("%nwarming up for %d s with %s%n", options.warmup.getSeconds(), load);
+		drive(new LatencyReport(), options.warmup);
+
+		LatencyReport loadReport = new LatencyReport();
+		System.out.printf("measuring for %d s with %s%n", options.duration.getSeconds(), load);
+		sessions.set(0);
+		long elapsed = drive(loadReport, options.duration);
+		loadReport.print(title, elapsed, System.out, options.output);
+		double throughput = sessions.get() / (elapsed / 1e9);
+		System.out.printf("%s: %d sessions, %.1f sessions/s%n", title, sessions.get(), throughput);
+		return throughput;
+	}
+
+	void setUp(LatencyReport report) {
+		LocalDateTime from = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).plusDays(1);
+		List<CompletableFuture<?>> pending = new ArrayList<>();
+		Semaphore inFlight = new Semaphore(options.maxInFlight);
+		for (int i = 0; i < options.instructors; i++) {
+			BookingClient instructor = new BookingClient(http, options.baseUrl, "lt-" + runId + "-instructor-" + i);
+			instructor.reportTo(report);
+			instructors.add(instructor);
+			inFlight.acquireUninterruptibly();
+			pending.add(instructor.signUp(PASSWORD, System.nanoTime())
+					.thenCompose(r -> instructor.login(PASSWORD, System.nanoTime()))
+					.thenCompose(r -> instructor.becomeInstructor(System.nanoTime()))
+					.thenCompose(r -> instructor.publish(from, from.plusDays(options.calendarDays), 30,
+							System.nanoTime()))
+					.whenComplete((r, e) -> inFlight.release()));
+		}
+		for (int i = 0; i < options.students; i++) {
+			BookingClient student = new BookingClient(http, options.baseUrl, "lt-" + runId + "-student-" + i);
+			student.reportTo(report);
+			students.add(student);
+			inFlight.acquireUninterruptibly();
+			pending.add(student.signUp(PASSWORD, System.nanoTime())
+					.thenCompose(r -> student.login(PASSWORD, System.nanoTime()))
+					.thenCompose(r -> student.becomeStudent(System.nanoTime()))
+					.whenComplete((r, e) -> inFlight.release()));
+		}
+		CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+	}
+
+	/**
+	 * Start sessions on the arrival schedule for {@code duration}, then wait for the ones still
+	 * in flight.
+	 * @return nanoseconds from the first arrival until the last session finished
+	 */
+	long drive(LatencyReport report, Duration duration) {
+		students.forEach(student -> student.reportTo(report));
+		if (options.clients > 0) {
+			return driveClosed(duration);
+		}
+		Semaphore inFlight = new Semaphore(options.maxInFlight);
+		AtomicLong lastDone = new AtomicLong();
+		double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / options.rate;
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		long intended = start;
+		while (intended < end) {
+			long wait = intended - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			// when the limit is reached the schedule falls behind, but latency is still measured
+			// from the intended arrival
+			inFlight.acquireUninterruptibly();
+			long arrival = intended;
+			session(arrival).whenComplete((r, e) -> {
+				sessions.incrementAndGet();
+				lastDone.accumulateAndGet(System.nanoTime(), Math::max);
+				inFlight.release();
+			});
+			intended += options.poisson
+					? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanGapNanos)
+					: (long) meanGapNanos;
+		}
+		inFlight.acquireUninterruptibly(options.maxInFlight);
+		return Math.max(lastDone.get(), end) - start;
+	}
+
+	/**
+	 * Closed model: {@code clients} loops that each start the next session when the previous one
+	 * completes, until {@code duration} is over.
+	 * @return nanoseconds until the last client finished its last session
+	 */
+	long driveClosed(Duration duration) {
+		long start = System.nanoTime();
+		long end = start + duration.toNanos();
+		List<CompletableFuture<Void>> clients = new ArrayList<>();
+		for (int i = 0; i < options.clients; i++) {
+			CompletableFuture<Void> done = new CompletableFuture<>();
+			loop(end, done);
+			clients.add(done);
+		}
+		CompletableFuture.allOf(clients.toArray(new CompletableFuture<?>[0])).join();
+		return System.nanoTime() - start;
+	}
+
+	private void loop(long end, CompletableFuture<Void> done) {
+		if (System.nanoTime() >= end) {
+			done.complete(null);
+			return;
+		}
+		// async, so sessions that fail immediately don't recurse on the same stack
+		session(System.nanoTime()).whenCompleteAsync((r, e) -> {
+			sessions.incrementAndGet();
+			loop(end, done);
+		});
+	}
+
+	CompletableFuture<?> session(long arrival) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		BookingClient student = students.get(random.nextInt(students.size()));
+		BookingClient instructor = instructors.get(random.nextInt(instructors.size()));
+		boolean reserve = random.nextDouble() < options.reserveRatio;
+		LocalDateTime from = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).plusDays(1);
+		CompletableFuture<HttpResponse<String>> list = student.listAvailabilities(instructor.username, from,
+				from.plusDays(7), arrival);
+		if (!reserve) {
+			return list;
+		}
+		return list.thenCompose(response -> {
+			List<Long> free = freeSlotIds(response);
+			if (free.isEmpty()) {
+				return CompletableFuture.completedFuture(null);
+			}
+			long id = free.get(ThreadLocalRandom.current().nextInt(Math.min(HOT_SLOTS, free.size())));
+			return student.reserve(id, System.nanoTime());
+		});
+	}
+
+	List<Long> freeSlotIds(HttpResponse<String> response) {
+		List<Long> ids = new ArrayList<>();
+		if (response.statusCode() != 200) {
+			return ids;
+		}
+		try {
+			for (JsonNode availability : objectMapper.readTree(response.body())) {
+				ids.add(availability.get("id").asLong());
+			}
+		}
+		catch (Exception e) {
+			// not a list of availabilities, nothing to book
+		}
+		return ids;
+	}
+
+}
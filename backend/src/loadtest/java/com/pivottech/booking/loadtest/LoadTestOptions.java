@@ -0,0 +1,83 @@
+package com.pivottech.booking.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Command line options of {@link LoadTest}, given as {@code --name=value}. Unset options keep the
+ * defaults below.
+ */
+class LoadTestOptions {
+
+	static final Set<String> NAMES = Set.of("base-url", "instructors", "students", "calendar-days", "rate",
+			"poisson", "reserve-ratio", "max-in-flight", "warmup-seconds", "duration-seconds", "output", "clients");
+
+	/** Backend including the context path. */
+	String baseUrl = "http://localhost:8081/api";
+
+	int instructors = 5;
+
+	int students = 200;
+
+	/** Days of 30 minute slots each instructor publishes. */
+	int calendarDays = 14;
+
+	/** Student sessions started per second, independent of how fast the backend answers. */
+	double rate = 100;
+
+	/** Exponentially distributed gaps between arrivals instead of a fixed interval. */
+	boolean poisson = true;
+
+	/** Share of sessions that try to book one of the first free slots after listing them. */
+	double reserveRatio = 0.1;
+
+	/**
+	 * When set, a closed model instead: this many clients each start their next session as soon as
+	 * the previous one finished, and {@code rate} is ignored.
+	 */
+	int clients = 0;
+
+	/** Most sessions in flight at once; arrivals beyond that wait, and the wait is measured. */
+	int maxInFlight = 256;
+
+	Duration warmup = Duration.ofSeconds(10);
+
+	Duration duration = Duration.ofSeconds(60);
+
+	/** Where the .hgrm percentile distributions are written. */
+	Path output = Path.of("build", "loadtest");
+
+	static LoadTestOptions parse(String[] args) {
+		Map<String, String> values = new HashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				throw new IllegalArgumentException("expected --name=value, got " + arg);
+			}
+			String name = arg.substring(2, arg.indexOf('='));
+			if (!NAMES.contains(name)) {
+				throw new IllegalArgumentException("unknown option --" + name + ", known are " + NAMES);
+			}
+			values.put(name, arg.substring(arg.indexOf('=') + 1));
+		}
+		LoadTestOptions options = new LoadTestOptions();
+		options.baseUrl = values.getOrDefault("base-url", options.baseUrl).replaceAll("/+$", "");
+		options.instructors = Integer.parseInt(values.getOrDefault("instructors", "" + options.instructors));
+		options.students = Integer.parseInt(values.getOrDefault("students", "" + options.students));
+		options.calendarDays = Integer.parseInt(values.getOrDefault("calendar-days", "" + options.calendarDays));
+		options.rate = Double.parseDouble(values.getOrDefault("rate", "" + options.rate));
+		options.poisson = Boolean.parseBoolean(values.getOrDefault("poisson", "" + options.poisson));
+		options.reserveRatio = Double.parseDouble(values.getOrDefault("reserve-ratio", "" + options.reserveRatio));
+		options.clients = Integer.parseInt(values.getOrDefault("clients", "" + options.clients));
+		options.maxInFlight = Integer.parseInt(values.getOrDefault("max-in-flight", "" + options.maxInFlight));
+		options.warmup = Duration.ofSeconds(Long.parseLong(values.getOrDefault("warmup-seconds",
+				"" + options.warmup.getSeconds())));
+		options.duration = Duration.ofSeconds(Long.parseLong(values.getOrDefault("duration-seconds",
+				"" + options.duration.getSeconds())));
+		options.output = Path.of(values.getOrDefault("output", options.output.toString()));
+		return options;
+	}
+
+}
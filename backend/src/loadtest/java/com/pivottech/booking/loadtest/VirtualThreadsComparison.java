@@ -0,0 +1,94 @@
+package com.pivottech.booking.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Starts the backend jar twice, with platform and with virtual request threads
+ * ({@code booking.virtual-threads.enabled}), and runs the same {@link LoadTest} against each,
+ * normally with 1000 closed-loop clients. Run it with {@code ./gradlew compareVirtualThreads}.
+ * <p>Takes {@code --jar=} and {@code --java=} (a Java 21 executable); every other option goes to
+ * {@link LoadTestOptions}. The backend uses the database from its own configuration.
+ */
+public class VirtualThreadsComparison {
+
+	static final int PORT = 18081;
+
+	static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+	public static void main(String[] args) throws Exception {
+		String jar = null;
+		String java = "java";
+		List<String> loadTestArgs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("--jar=")) {
+				jar = arg.substring("--jar=".length());
+			}
+			else if (arg.startsWith("--java=")) {
+				java = arg.substring("--java=".length());
+			}
+			else {
+				loadTestArgs.add(arg);
+			}
+		}
+		if (jar == null) {
+			throw new IllegalArgumentException("--jar=<backend boot jar> is required");
+		}
+		loadTestArgs.add("--base-url=http://localhost:" + PORT + "/api");
+		LoadTestOptions options = LoadTestOptions.parse(loadTestArgs.toArray(new String[0]));
+
+		Map<String, Double> throughput = new LinkedHashMap<>();
+		for (boolean virtual : new boolean[] { false, true }) {
+			String title = virtual ? "virtual threads" : "platform threads";
+			Process backend = start(java, jar, virtual, options.output);
+			try {
+				awaitReady(options.baseUrl + "/");
+				throughput.put(title, new LoadTest(options).run(title));
+			}
+			finally {
+				backend.destroy();
+				backend.waitFor();
+			}
+		}
+		System.out.println();
+		throughput.forEach((title, sessions) -> System.out.printf("%-17s %8.1f sessions/s%n", title, sessions));
+	}
+
+	static Process start(String java, String jar, boolean virtual, Path output) throws IOException {
+		Files.createDirectories(output);
+		Path log = output.resolve("backend-" + (virtual ? "virtual" : "platform") + ".log");
+		return new ProcessBuilder(java, "-jar", jar, "--server.port=" + PORT,
+				"--booking.virtual-threads.enabled=" + virtual).redirectErrorStream(true)
+				.redirectOutput(log.toFile()).start();
+	}
+
+	static void awaitReady(String url) throws InterruptedException {
+		HttpClient http = HttpClient.newHttpClient();
+		long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+		while (System.nanoTime() < deadline) {
+			try {
+				HttpResponse<Void> response = http.send(HttpRequest.newBuilder(URI.create(url)).build(),
+						HttpResponse.BodyHandlers.discarding());
+				if (response.statusCode() == 200) {
+					return;
+				}
+			}
+			catch (IOException e) {
+				// not listening yet
+			}
+			Thread.sleep(500);
+		}
+		throw new IllegalStateException("backend did not answer " + url + " within " + STARTUP_TIMEOUT);
+	}
+
+}
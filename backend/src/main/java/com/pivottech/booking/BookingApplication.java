@@ -3,33 +3,53 @@ package com.pivottech.booking;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.pivottech.booking.handler.BoundedPasswordEncoder;
+import com.pivottech.booking.handler.LoginFailureHandler;
 import com.pivottech.booking.handler.LoginSuccessHandler;
+import com.pivottech.booking.handler.SignedCookieSecurityContextRepository;
 import com.pivottech.booking.intercepter.LogInterceptor;
 import com.pivottech.booking.intercepter.TodaysDateArgumentResolver;
 import com.pivottech.booking.service.*;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcTransactionManagerAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
 import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.util.matcher.AndRequestMatcher;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-@SpringBootApplication
+// the reactive read API builds its own ConnectionFactory, only when enabled (see ReactiveReadConfig)
+@SpringBootApplication(exclude = { R2dbcAutoConfiguration.class, R2dbcTransactionManagerAutoConfiguration.class })
 public class BookingApplication {
 
 	/**
@@ -51,13 +71,17 @@ public class BookingApplication {
 	@EnableWebMvc
 	public class WebMVCConfig implements WebMvcConfigurer {
 
+		/** Share of successful requests written to the access log, failures are always logged. */
+		@Value("${booking.access-log.sample-rate:1.0}")
+		double accessLogSampleRate;
+
 		/**
 		 * Add Spring MVC lifecycle interceptors for pre- and post-processing of
 		 * controller method invocations and resource handler requests.
 		 */
 		@Override
 		public void addInterceptors(InterceptorRegistry registry) {
-			registry.addInterceptor(new LogInterceptor());
+			registry.addInterceptor(new LogInterceptor(accessLogSampleRate));
 		}
 
 		/**
@@ -71,6 +95,49 @@ public class BookingApplication {
 
 	}
 
+	/**
+	 * <p>With {@code booking.virtual-threads.enabled=true} every request (and with it every
+	 * {@link BookingService} call and JDBC wait) runs on its own virtual thread instead of one of
+	 * Tomcat's 200 worker threads, so a slow database no longer exhausts the thread pool. How many
+	 * requests use the database at once is then bounded by the Hikari pool
+	 * ({@code spring.datasource.hikari.maximum-pool-size}) alone.
+	 * <p>Needs a Java 21 runtime. The code is still compiled for Java 17, so the executor is
+	 * looked up reflectively.
+	 */
+	@Configuration
+	@ConditionalOnProperty(name = "booking.virtual-threads.enabled", havingValue = "true")
+	public class VirtualThreadConfig implements WebMvcConfigurer {
+
+		@Bean(destroyMethod = "shutdown")
+		public ExecutorService virtualThreadExecutor() {
+			try {
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}
+			catch (NoSuchMethodException e) {
+				throw new IllegalStateException("booking.virtual-threads.enabled needs Java 21 or newer, running on "
+						+ Runtime.version(), e);
+			}
+			catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Bean
+		public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer(
+				ExecutorService virtualThreadExecutor) {
+			return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+		}
+
+		/**
+		 * Streamed responses (e.g. reservations/stream) are written from the async executor.
+		 */
+		@Override
+		public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+			configurer.setTaskExecutor(new ConcurrentTaskExecutor(virtualThreadExecutor()));
+		}
+
+	}
+
 	/**
 	 * <p><code>@EnableWebSecurity</code> ({@link EnableWebSecurity}): 实现Application层面的security，规定谁可以登录。
 	 * will search for an implementation of UserDetailsService (UserService)
@@ -90,8 +157,33 @@ public class BookingApplication {
 	@EnableGlobalMethodSecurity(prePostEnabled = true, securedEnabled = true, jsr250Enabled = true)
 	public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
+		/**
+		 * Only present with {@code booking.session.store=token}. Otherwise the login is kept in the
+		 * HTTP session, which lives wherever {@code spring.session.store-type} says.
+		 */
+		@Autowired
+		ObjectProvider<SignedCookieSecurityContextRepository> signedCookieRepository;
+
+		/** Actuator endpoints are only served here, not on {@code server.port}. */
+		@Value("${management.server.port}")
+		int managementPort;
+
 		@Override
 		protected void configure(HttpSecurity http) throws Exception {
+			SignedCookieSecurityContextRepository tokenRepository = signedCookieRepository.getIfAvailable();
+			if (tokenRepository != null) {
+				// no HttpSession at all: the login is read from and written to a signed cookie
+				// @formatter:off
+				http.sessionManagement()
+						.sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+						.and()
+					.securityContext()
+						.securityContextRepository(tokenRepository)
+						.and()
+					.logout()
+						.deleteCookies(SignedCookieSecurityContextRepository.COOKIE_NAME);
+				// @formatter:on
+			}
 			// @formatter:off
 			http.csrf().disable()
 				.authorizeRequests()
@@ -99,6 +191,11 @@ public class BookingApplication {
 					.antMatchers("/").permitAll()
 					// 任何 request 都可以访问 “localhost:8081/api/users”
 					.antMatchers(HttpMethod.POST, "/users").permitAll()
+					// liveness and Prometheus scrapes come without credentials, the metrics only on the
+					// management port, which neither the Service nor the ingress exposes
+					.antMatchers("/actuator/health").permitAll()
+					.requestMatchers(new AndRequestMatcher(new AntPathRequestMatcher("/actuator/prometheus"),
+							request -> request.getLocalPort() == managementPort)).permitAll()
 					// 除以上两个 patterns 以外，其他 request 都需要 authentication (privilege)，包括 "localhost:8081/api/todaysDate"
 					.anyRequest().authenticated()
 					.and()
@@ -110,6 +207,11 @@ public class BookingApplication {
 				.formLogin()
 					.loginPage("/login").permitAll()
 					.successHandler(loginSuccessHandler())
+					.failureHandler(loginFailureHandler())
+					.and()
+				// scripted clients send credentials on every call, see BoundedPasswordEncoder
+				.httpBasic()
+					.authenticationEntryPoint(loginFailureHandler())
 					.and()
 				// React ./logout -> 自动跳转到 "/api/logout"
 				.logout().permitAll();
@@ -118,6 +220,14 @@ public class BookingApplication {
 
 	}
 
+	/**
+	 * Makes {@code @Timed} work on Spring beans, e.g. the {@link BookingService} methods.
+	 */
+	@Bean
+	public TimedAspect timedAspect(MeterRegistry registry) {
+		return new TimedAspect(registry);
+	}
+
 	@Bean
 	public javax.validation.Validator localValidatorFactoryBean() {
 		return new LocalValidatorFactoryBean();
@@ -125,12 +235,35 @@ public class BookingApplication {
 
 	/**
 	 *
-	 * @return A singleton instance of BCryptPasswordEncoder for use in {@link UserService} to
-	 * encode password for new user
+	 * @return A singleton BCrypt encoder for use in {@link UserService} to encode password for new
+	 * user, running on its own bounded pool (see {@link BoundedPasswordEncoder})
+	 */
+	@Bean
+	public BoundedPasswordEncoder passwordEncoder(@Value("${booking.security.bcrypt-strength:10}") int strength,
+			@Value("${booking.security.hash-threads:1}") int threads,
+			@Value("${booking.security.hash-queue-capacity:32}") int queueCapacity,
+			@Value("${booking.security.hash-timeout-millis:2000}") long timeoutMillis,
+			@Value("${booking.security.credential-cache.ttl-seconds:60}") long cacheTtlSeconds,
+			@Value("${booking.security.credential-cache.maximum-size:10000}") long cacheMaximumSize) {
+		return new BoundedPasswordEncoder(strength, threads, queueCapacity, Duration.ofMillis(timeoutMillis),
+				Duration.ofSeconds(cacheTtlSeconds), cacheMaximumSize);
+	}
+
+	@Bean
+	public LoginFailureHandler loginFailureHandler() {
+		return new LoginFailureHandler();
+	}
+
+	/**
+	 * Keeps logins in a signed cookie so that authenticated requests don't touch the session
+	 * tables. Set {@code booking.session.store=session} to go back to HTTP sessions.
 	 */
 	@Bean
-	public PasswordEncoder passwordEncoder() {
-		return new BCryptPasswordEncoder();
+	@ConditionalOnProperty(name = "booking.session.store", havingValue = "token", matchIfMissing = true)
+	public SignedCookieSecurityContextRepository signedCookieSecurityContextRepository(UserService userService,
+			@Value("${booking.session.secret:}") String secret,
+			@Value("${booking.session.ttl-minutes:30}") long ttlMinutes) {
+		return new SignedCookieSecurityContextRepository(userService, secret, Duration.ofMinutes(ttlMinutes));
 	}
 
 	@Bean
@@ -1,32 +1,49 @@
 package com.pivottech.booking.controller;
 
 import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.AvailabilityRule;
+import com.pivottech.booking.model.CreateAvailabilityRuleRequest;
+import com.pivottech.booking.model.FreeBusy;
 import com.pivottech.booking.model.CreateAvailabilityRequest;
 import com.pivottech.booking.model.User;
 import com.pivottech.booking.service.BookingService;
+import com.pivottech.booking.service.CalendarEventBus;
+import com.pivottech.booking.service.IdempotencyStore;
 import com.pivottech.booking.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.annotation.security.RolesAllowed;
 import javax.validation.Valid;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @RestController
 @RequestMapping("{username}/availabilities")
 public class AvailabilityController {
 
+	static final int MAX_FREEBUSY_DAYS = 92;
+
 	@Autowired
 	BookingService bookingService;
 
 	@Autowired
 	UserService userService;
 
+	@Autowired
+	CalendarEventBus calendarEventBus;
+
+	@Autowired
+	IdempotencyStore idempotencyStore;
+
 	@GetMapping("")
 	public Iterable<Availability> list(@PathVariable("username") String username,
 			// @DateTimeFormat: Declares that a field or method parameter should be formatted as a date or time
@@ -39,23 +56,93 @@ public class AvailabilityController {
 		return bookingService.findAvailabilitiesBetween(user.getInstructor(), from, to);
 	}
 
+	/**
+	 * Server-sent events for every change of the instructor's calendar ({@code created},
+	 * {@code reserved}, {@code released}), instead of polling {@link #list}.
+	 */
+	@GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter events(@PathVariable("username") String username) {
+		User user = userService.getUserByUsername(username);
+		if (user == null || user.getInstructor() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist");
+		}
+		return calendarEventBus.subscribe(user.getInstructor().getId());
+	}
+
+	/**
+	 * The calendar from {@code from} to {@code to} (inclusive, at most {@value #MAX_FREEBUSY_DAYS}
+	 * days) as free/busy bitmaps, much smaller than the list of slots.
+	 */
+	@GetMapping("/freebusy")
+	public FreeBusy freeBusy(@PathVariable("username") String username,
+			@RequestParam(name = "from") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate from,
+			@RequestParam(name = "to") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate to) {
+		User user = userService.getUserByUsername(username);
+		if (user == null || user.getInstructor() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist");
+		}
+		if (from.isAfter(to) || from.plusDays(MAX_FREEBUSY_DAYS).isBefore(to.plusDays(1))) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"to must be from or up to " + (MAX_FREEBUSY_DAYS - 1) + " days later");
+		}
+		return bookingService.getFreeBusy(user.getInstructor(), from, to);
+	}
+
 	@PostMapping("")
 	// response 403 Forbidden if rules not allowed
 	@RolesAllowed({ "Instructor" }) // from javax.annotation.security 限制 Authorities (roles)
 	// @Secured({ "Instructor" }) // from springframework.security.access.annotation
 	public Iterable<Availability> create(@PathVariable("username") String username,
-			@Valid @RequestBody CreateAvailabilityRequest request) {
+			@Valid @RequestBody CreateAvailabilityRequest request,
+			@RequestHeader(name = IdempotencyStore.HEADER, required = false) String idempotencyKey) {
+		// a retry with the same key gets the first attempt's slots back instead of creating them twice
+		return idempotencyStore.execute(username + " POST availabilities", idempotencyKey, request, () -> {
+			User user = userService.getUserByUsername(username);
+			if (user == null || user.getInstructor() == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist");
+			}
+			LocalDateTime from = request.getFromUtc();
+			LocalDateTime to = request.getToUtc();
+			if (from.isAfter(to)) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be earlier than to");
+			}
+			Duration duration = Duration.ofMinutes(request.getDurationMinutes());
+			return bookingService.createAvailability(user.getInstructor(), from, to, duration);
+		});
+	}
+
+	/**
+	 * Add a recurring block of slots, e.g. every Monday 09:00 to 17:00 UTC for a term. The slots
+	 * show up in {@link #list} and are only stored once they are reserved.
+	 */
+	@PostMapping("/rules")
+	@RolesAllowed({ "Instructor" })
+	public AvailabilityRule createRule(@PathVariable("username") String username,
+			@Valid @RequestBody CreateAvailabilityRuleRequest request) {
 		User user = userService.getUserByUsername(username);
 		if (user == null || user.getInstructor() == null) {
 			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist");
 		}
-		LocalDateTime from = request.getFromUtc();
-		LocalDateTime to = request.getToUtc();
-		if (from.isAfter(to)) {
-			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be earlier than to");
+		if (!request.getUtcStartTime().isBefore(request.getUtcEndTime())) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "utcStartTime must be earlier than utcEndTime");
+		}
+		if (request.getFirstDate().isAfter(request.getLastDate())) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "firstDate must not be after lastDate");
+		}
+		AvailabilityRule rule = AvailabilityRule.builder().daysOfWeek(request.getDaysOfWeek())
+				.utcStartTime(request.getUtcStartTime()).utcEndTime(request.getUtcEndTime())
+				.slotMinutes(request.getSlotMinutes()).firstDate(request.getFirstDate())
+				.lastDate(request.getLastDate()).build();
+		return bookingService.createAvailabilityRule(user.getInstructor(), rule);
+	}
+
+	@GetMapping("/rules")
+	public List<AvailabilityRule> listRules(@PathVariable("username") String username) {
+		User user = userService.getUserByUsername(username);
+		if (user == null || user.getInstructor() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist");
 		}
-		Duration duration = Duration.ofMinutes(request.getDurationMinutes());
-		return bookingService.createAvailability(user.getInstructor(), from, to, duration);
+		return bookingService.getAvailabilityRules(user.getInstructor());
 	}
 
 }
@@ -0,0 +1,132 @@
+package com.pivottech.booking.controller;
+
+import com.pivottech.booking.model.FreeBusy;
+import com.pivottech.booking.model.FreeSlot;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.User;
+import com.pivottech.booking.service.AvailabilitySearch;
+import com.pivottech.booking.service.BookingService;
+import com.pivottech.booking.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+@RestController
+@RequestMapping("availabilities")
+public class AvailabilitySearchController {
+
+	final static int DEFAULT_LIMIT = 20;
+
+	final static int MAX_LIMIT = 200;
+
+	final static int MAX_GROUP_SIZE = 50;
+
+	@Autowired
+	AvailabilitySearch availabilitySearch;
+
+	@Autowired
+	BookingService bookingService;
+
+	@Autowired
+	UserService userService;
+
+	/**
+	 * Free slots of several instructors in one round trip, instead of one
+	 * {@code GET {username}/availabilities} per instructor.
+	 * @param instructors usernames, comma separated; leave out (or {@code all}) to search every
+	 * instructor. At most {@value AvailabilitySearch#MAX_INSTRUCTORS} either way.
+	 * @param to at most {@value AvailabilitySearch#MAX_WINDOW_DAYS} days after {@code from}
+	 * @param order {@code earliest} or {@code best-fit} (shortest slot that is long enough)
+	 */
+	@GetMapping("/search")
+	public List<FreeSlot> search(@RequestParam(name = "instructors", required = false) List<String> instructors,
+			@RequestParam(name = "from") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime from,
+			@RequestParam(name = "to") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime to,
+			@RequestParam(name = "minMinutes", defaultValue = "1") int minMinutes,
+			@RequestParam(name = "order", defaultValue = "earliest") String order,
+			@RequestParam(name = "limit", defaultValue = "" + DEFAULT_LIMIT) int limit) {
+		if (from.isAfter(to)) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be earlier than to");
+		}
+		if (from.plusDays(AvailabilitySearch.MAX_WINDOW_DAYS).isBefore(to)) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"to must be at most " + AvailabilitySearch.MAX_WINDOW_DAYS + " days after from");
+		}
+		AvailabilitySearch.Order searchOrder;
+		try {
+			searchOrder = AvailabilitySearch.Order.valueOf(order.toUpperCase(Locale.ROOT).replace('-', '_'));
+		}
+		catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "order must be earliest or best-fit");
+		}
+		Map<String, Instructor> byUsername = new LinkedHashMap<>();
+		if (instructors == null || instructors.isEmpty() || instructors.equals(List.of("all"))) {
+			List<User> all = userService.getInstructors();
+			if (all.size() > AvailabilitySearch.MAX_INSTRUCTORS) {
+				throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "there are more than "
+						+ AvailabilitySearch.MAX_INSTRUCTORS + " instructors, name the ones to search");
+			}
+			for (User user : all) {
+				byUsername.put(user.getUsername(), user.getInstructor());
+			}
+		}
+		else if (instructors.size() > AvailabilitySearch.MAX_INSTRUCTORS) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"instructors must name at most " + AvailabilitySearch.MAX_INSTRUCTORS + " instructors");
+		}
+		else {
+			byUsername = instructorsByUsername(instructors);
+		}
+		return availabilitySearch.search(byUsername, from, to, Duration.ofMinutes(Math.max(minMinutes, 1)), searchOrder,
+				Math.min(Math.max(limit, 1), MAX_LIMIT));
+	}
+
+	/**
+	 * The combined calendar of a group of instructors as free/busy bitmaps, like
+	 * {@code GET {username}/availabilities/freebusy} for one.
+	 * @param instructors usernames, comma separated, at most {@value #MAX_GROUP_SIZE}
+	 * @param when {@code all}: free when every instructor is, {@code any}: when at least one is
+	 */
+	@GetMapping("/freebusy")
+	public FreeBusy freeBusy(@RequestParam(name = "instructors") List<String> instructors,
+			@RequestParam(name = "from") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate from,
+			@RequestParam(name = "to") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate to,
+			@RequestParam(name = "when", defaultValue = "all") String when) {
+		if (instructors.isEmpty() || instructors.size() > MAX_GROUP_SIZE) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"instructors must name 1 to " + MAX_GROUP_SIZE + " instructors");
+		}
+		if (!when.equals("all") && !when.equals("any")) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "when must be all or any");
+		}
+		if (from.isAfter(to) || from.plusDays(AvailabilityController.MAX_FREEBUSY_DAYS).isBefore(to.plusDays(1))) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					"to must be from or up to " + (AvailabilityController.MAX_FREEBUSY_DAYS - 1) + " days later");
+		}
+		return bookingService.getGroupFreeBusy(instructorsByUsername(instructors).values(), from, to,
+				when.equals("all"));
+	}
+
+	private Map<String, Instructor> instructorsByUsername(List<String> usernames) {
+		Map<String, Instructor> byUsername = new LinkedHashMap<>();
+		for (String username : usernames) {
+			User user = userService.getUserByUsername(username);
+			if (user == null || user.getInstructor() == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist: " + username);
+			}
+			byUsername.put(username, user.getInstructor());
+		}
+		return byUsername;
+	}
+
+}
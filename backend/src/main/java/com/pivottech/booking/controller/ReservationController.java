@@ -1,22 +1,47 @@
 package com.pivottech.booking.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pivottech.booking.handler.DataIntegrityViolationExceptionHandler;
 import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.BulkReservationRequest;
+import com.pivottech.booking.model.Hold;
+import com.pivottech.booking.model.HoldRequest;
+import com.pivottech.booking.model.MakeMultiSlotReservationRequest;
 import com.pivottech.booking.model.MakeReservationRequest;
 import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationCursor;
+import com.pivottech.booking.model.ReservationOutcome;
+import com.pivottech.booking.model.ReservationPage;
+import com.pivottech.booking.model.ReservationView;
+import com.pivottech.booking.model.Student;
 import com.pivottech.booking.model.User;
+import com.pivottech.booking.service.BookingEngine;
 import com.pivottech.booking.service.BookingService;
+import com.pivottech.booking.service.IdempotencyStore;
+import com.pivottech.booking.service.SlotUnavailableException;
 import com.pivottech.booking.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("{username}/reservations")
@@ -24,20 +49,34 @@ public class ReservationController {
 
 	final static int DEFAULT_PAGE_SIZE = 50;
 
+	final static int MAX_PAGE_SIZE = 500;
+
 	final BookingService bookingService;
 
+	final BookingEngine bookingEngine;
+
 	final UserService userService;
 
+	final IdempotencyStore idempotencyStore;
+
+	final ObjectWriter ndjsonWriter;
+
 	@Autowired
-	public ReservationController(BookingService bookingService, UserService userService) {
+	public ReservationController(BookingService bookingService, BookingEngine bookingEngine,
+			UserService userService, IdempotencyStore idempotencyStore, ObjectMapper objectMapper) {
 		this.bookingService = bookingService;
+		this.bookingEngine = bookingEngine;
 		this.userService = userService;
+		this.idempotencyStore = idempotencyStore;
+		// one JSON document per line, leave flushing and closing of the response to the container
+		this.ndjsonWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+				.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 	}
 
 	@GetMapping("")
 	// 能不能 redirect 到 "/login"? 能不能附带message？
 	@PreAuthorize("#username == authentication.principal.username")
-	public List<Reservation> list(@PathVariable("username") final String username,
+	public List<ReservationView> list(@PathVariable("username") final String username,
 			@RequestParam(name = "from") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime from,
 			@RequestParam(name = "to") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime to) {
 		final User user = userService.getUserByUsername(username);
@@ -57,6 +96,71 @@ public class ReservationController {
 		return new ArrayList<>();
 	}
 
+	/**
+	 * Keyset-paginated version of {@link #list}. Pass the returned {@code nextCursor} back as
+	 * {@code cursor} to get the following page.
+	 */
+	@GetMapping("/page")
+	@PreAuthorize("#username == authentication.principal.username")
+	public ReservationPage page(@PathVariable("username") final String username,
+			@RequestParam(name = "from") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime from,
+			@RequestParam(name = "to") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime to,
+			@RequestParam(name = "cursor", required = false) String cursor,
+			@RequestParam(name = "size", defaultValue = "" + DEFAULT_PAGE_SIZE) int size) {
+		final User user = userService.getUserByUsername(username);
+		if (user == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "student doesn't exist");
+		}
+		ReservationCursor after;
+		try {
+			after = cursor == null ? ReservationCursor.startingAt(from) : ReservationCursor.decode(cursor);
+		}
+		catch (IllegalArgumentException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+		}
+		int pageSize = Math.min(Math.max(size, 1), MAX_PAGE_SIZE);
+
+		if (user.getStudent() != null) {
+			return bookingService.getStudentReservationPage(user.getStudent(), from, to, after, pageSize);
+		}
+		if (user.getInstructor() != null) {
+			return bookingService.getInstructorReservationPage(user.getInstructor(), from, to, after, pageSize);
+		}
+		return new ReservationPage(new ArrayList<>(), null);
+	}
+
+	/**
+	 * Same rows as {@link #list}, written as newline-delimited JSON while they are read from a
+	 * database cursor, so memory use doesn't grow with the size of the window.
+	 */
+	@GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	@PreAuthorize("#username == authentication.principal.username")
+	public StreamingResponseBody stream(@PathVariable("username") final String username,
+			@RequestParam(name = "from") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime from,
+			@RequestParam(name = "to") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime to) {
+		final User user = userService.getUserByUsername(username);
+		if (user == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "student doesn't exist");
+		}
+		return out -> {
+			Consumer<ReservationView> writeLine = view -> {
+				try {
+					ndjsonWriter.writeValue(out, view);
+					out.write('\n');
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			};
+			if (user.getStudent() != null) {
+				bookingService.forEachStudentReservationBetween(user.getStudent(), from, to, writeLine);
+			}
+			else if (user.getInstructor() != null) {
+				bookingService.forEachInstructorReservationBetween(user.getInstructor(), from, to, writeLine);
+			}
+		};
+	}
+
 	@GetMapping("/{id}")
 	public Reservation getById(@PathVariable("id") long id) {
 		Reservation resv = this.bookingService.getReservationById(id);
@@ -66,27 +170,177 @@ public class ReservationController {
 		return resv;
 	}
 
+	/**
+	 * Cancel a reservation, by its student or by the instructor of its slots. The slots become
+	 * free right away.
+	 */
+	@DeleteMapping("/{id}")
+	@PreAuthorize("#username == authentication.principal.username")
+	@ResponseStatus(HttpStatus.NO_CONTENT)
+	public void cancel(@PathVariable("username") final String username, @PathVariable("id") long id) {
+		final User user = userService.getUserByUsername(username);
+		Reservation reservation = bookingService.getReservationById(id);
+		if (user == null || reservation == null || !isParticipant(user, reservation)) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+		}
+		bookingService.cancelReservations(List.of(id));
+	}
+
+	/**
+	 * Cancel all reservations on the instructor's slots starting in [from, to), e.g. "ill today",
+	 * in one batch.
+	 * @return how many reservations were cancelled
+	 */
+	@DeleteMapping("")
+	@PreAuthorize("#username == authentication.principal.username and hasRole('Instructor')")
+	public Map<String, Integer> cancelBetween(@PathVariable("username") final String username,
+			@RequestParam(name = "from") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime from,
+			@RequestParam(name = "to") @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm") LocalDateTime to) {
+		final User user = userService.getUserByUsername(username);
+		if (user == null || user.getInstructor() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist");
+		}
+		if (from.isAfter(to)) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be earlier than to");
+		}
+		return Map.of("cancelled", bookingService.cancelInstructorReservationsBetween(user.getInstructor(), from, to));
+	}
+
 	@PostMapping("")
 	// 能不能 redirect 到 "/login"? 能不能附带message？
 	@PreAuthorize("#username == authentication.principal.username")
 	public Reservation create(@PathVariable("username") final String username,
-			@Valid @RequestBody final MakeReservationRequest request) {
+			@Valid @RequestBody final MakeReservationRequest request,
+			@RequestHeader(name = IdempotencyStore.HEADER, required = false) final String idempotencyKey) {
+		// a retry with the same key gets the first attempt's reservation (or 409) back
+		return idempotencyStore.execute(username + " POST reservations", idempotencyKey, request, () -> {
+			final User user = userService.getUserByUsername(username);
+
+			// 能否改成instructor也可以make reservation？
+			if (user == null || user.getStudent() == null) {
+				throw new ResponseStatusException(HttpStatus.NOT_FOUND, "student doesn't exist");
+			}
 
+			final Availability availability = availabilityOf(request.getAvailabilityId());
+			// an already reserved Availability is rejected by the engine with 409 Conflict
+			return this.bookingEngine.reserve(user.getStudent(), availability, request.getDescription());
+		});
+	}
+
+	/**
+	 * Keep a slot for the student while they fill in the reservation, 409 if it is reserved or
+	 * held by someone else. Holding it again extends the hold. It is confirmed by {@link #create}
+	 * with the same availability, or runs out after the requested minutes.
+	 */
+	@PostMapping("/holds")
+	@PreAuthorize("#username == authentication.principal.username")
+	public Hold hold(@PathVariable("username") final String username,
+			@Valid @RequestBody final HoldRequest request) {
 		final User user = userService.getUserByUsername(username);
+		if (user == null || user.getStudent() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "student doesn't exist");
+		}
+		return bookingEngine.hold(user.getStudent(), availabilityOf(request.getAvailabilityId()),
+				request.getMinutes());
+	}
 
-		// 能否改成instructor也可以make reservation？
+	@DeleteMapping("/holds/{availabilityId}")
+	@PreAuthorize("#username == authentication.principal.username")
+	@ResponseStatus(HttpStatus.NO_CONTENT)
+	public void releaseHold(@PathVariable("username") final String username,
+			@PathVariable("availabilityId") long availabilityId) {
+		final User user = userService.getUserByUsername(username);
+		final Availability availability = bookingService.getAvailabilityById(availabilityId);
+		if (user == null || user.getStudent() == null || availability == null
+				|| !bookingEngine.release(user.getStudent(), availability)) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "no such hold");
+		}
+	}
+
+	/**
+	 * One reservation over several slots of the same instructor, all booked or none (409).
+	 */
+	@PostMapping("/multi-slot")
+	@PreAuthorize("#username == authentication.principal.username")
+	public Reservation createMultiSlot(@PathVariable("username") final String username,
+			@Valid @RequestBody final MakeMultiSlotReservationRequest request) {
+		final User user = userService.getUserByUsername(username);
 		if (user == null || user.getStudent() == null) {
 			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "student doesn't exist");
 		}
+		return book(user.getStudent(), request);
+	}
+
+	/**
+	 * Several independent reservations in one round trip, e.g. enrolling in a course. Each is
+	 * booked on its own; the response has one outcome per requested reservation, in order.
+	 */
+	@PostMapping("/bulk")
+	@PreAuthorize("#username == authentication.principal.username")
+	public List<ReservationOutcome> createBulk(@PathVariable("username") final String username,
+			@Valid @RequestBody final BulkReservationRequest request) {
+		final User user = userService.getUserByUsername(username);
+		if (user == null || user.getStudent() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "student doesn't exist");
+		}
+		List<ReservationOutcome> outcomes = new ArrayList<>();
+		for (MakeMultiSlotReservationRequest reservation : request.getReservations()) {
+			try {
+				Reservation saved = book(user.getStudent(), reservation);
+				outcomes.add(new ReservationOutcome(HttpStatus.OK.value(), saved, null));
+			}
+			catch (ResponseStatusException e) {
+				outcomes.add(new ReservationOutcome(e.getStatus().value(), null, e.getReason()));
+			}
+			catch (SlotUnavailableException e) {
+				outcomes.add(new ReservationOutcome(HttpStatus.CONFLICT.value(), null, e.getMessage()));
+			}
+			catch (DataIntegrityViolationException e) {
+				if (!DataIntegrityViolationExceptionHandler.isUniqueViolation(e)) {
+					throw e;
+				}
+				// the student already has a reservation at that time
+				outcomes.add(new ReservationOutcome(HttpStatus.CONFLICT.value(), null, e.getMessage()));
+			}
+		}
+		return outcomes;
+	}
+
+	private static boolean isParticipant(User user, Reservation reservation) {
+		if (user.getStudent() != null && user.getStudent().getId().equals(reservation.getStudent().getId())) {
+			return true;
+		}
+		return user.getInstructor() != null && reservation.getAvailabilities().stream()
+				.anyMatch(a -> a.getInstructor().getId().equals(user.getInstructor().getId()));
+	}
+
+	private Reservation book(Student student, MakeMultiSlotReservationRequest request) {
+		List<Long> ids = request.getAvailabilityIds();
+		if (new HashSet<>(ids).size() != ids.size()) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "availabilityIds must not repeat");
+		}
+		if (ids.size() == 1) {
+			return bookingEngine.reserve(student, availabilityOf(ids.get(0)), request.getDescription());
+		}
+		List<Availability> availabilities = new ArrayList<>();
+		for (Long id : ids) {
+			availabilities.add(availabilityOf(id));
+		}
+		Long instructorId = availabilities.get(0).getInstructor().getId();
+		if (availabilities.stream().anyMatch(a -> !a.getInstructor().getId().equals(instructorId))) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "availabilities must be of one instructor");
+		}
+		return bookingEngine.reserveAll(student, availabilities, request.getDescription());
+	}
 
-		// if provided with an already reserved Availability
-		final Availability availability = bookingService.getAvailabilityById(request.getAvailabilityId());
-		if (availability == null || availability.getReservation() != null) {
+	private Availability availabilityOf(long availabilityId) {
+		// negative ids are slots of a recurring availability rule, stored on first use
+		final Availability availability = availabilityId < 0 ? bookingService.materializeAvailability(availabilityId)
+				: bookingService.getAvailabilityById(availabilityId);
+		if (availability == null) {
 			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "not available");
 		}
-		Reservation saved = this.bookingService.createReservation(user.getStudent(), availability,
-				request.getDescription());
-		return saved;
+		return availability;
 	}
 
-}
\ No newline at end of file
+}
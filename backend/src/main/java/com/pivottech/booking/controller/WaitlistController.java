@@ -0,0 +1,87 @@
+package com.pivottech.booking.controller;
+
+import com.pivottech.booking.model.JoinWaitlistRequest;
+import com.pivottech.booking.model.User;
+import com.pivottech.booking.model.WaitlistEntry;
+import com.pivottech.booking.service.CalendarEventBus;
+import com.pivottech.booking.service.UserService;
+import com.pivottech.booking.service.WaitlistService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.validation.Valid;
+import java.util.List;
+
+/**
+ * A student's waitlist entries. When a slot in an entry's window frees up it is reserved for
+ * the student and the entry disappears; the reservation shows up under
+ * {@code {username}/reservations}, and is pushed to the student's open {@link #events} streams.
+ */
+@RestController
+@RequestMapping("{username}/waitlist")
+public class WaitlistController {
+
+	@Autowired
+	WaitlistService waitlistService;
+
+	@Autowired
+	UserService userService;
+
+	@Autowired
+	CalendarEventBus calendarEventBus;
+
+	@GetMapping("")
+	@PreAuthorize("#username == authentication.principal.username")
+	public List<WaitlistEntry> list(@PathVariable("username") final String username) {
+		return waitlistService.getEntries(studentOf(username).getStudent());
+	}
+
+	@PostMapping("")
+	@PreAuthorize("#username == authentication.principal.username")
+	public WaitlistEntry join(@PathVariable("username") final String username,
+			@Valid @RequestBody final JoinWaitlistRequest request) {
+		User student = studentOf(username);
+		User instructor = userService.getUserByUsername(request.getInstructor());
+		if (instructor == null || instructor.getInstructor() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "instructor doesn't exist");
+		}
+		if (!request.getUtcFrom().isBefore(request.getUtcTo())) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "utcFrom must be earlier than utcTo");
+		}
+		return waitlistService.join(student.getStudent(), instructor.getInstructor(), request.getUtcFrom(),
+				request.getUtcTo(), request.getDescription());
+	}
+
+	@DeleteMapping("/{id}")
+	@PreAuthorize("#username == authentication.principal.username")
+	@ResponseStatus(HttpStatus.NO_CONTENT)
+	public void leave(@PathVariable("username") final String username, @PathVariable("id") long id) {
+		if (!waitlistService.leave(studentOf(username).getStudent(), id)) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+		}
+	}
+
+	/**
+	 * Server-sent {@code fulfilled} events carrying each reservation made from one of the
+	 * student's entries.
+	 */
+	@GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@PreAuthorize("#username == authentication.principal.username")
+	public SseEmitter events(@PathVariable("username") final String username) {
+		return calendarEventBus.subscribeStudent(studentOf(username).getUsername());
+	}
+
+	private User studentOf(String username) {
+		User user = userService.getUserByUsername(username);
+		if (user == null || user.getStudent() == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "student doesn't exist");
+		}
+		return user;
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.pivottech.booking.handler;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>BCrypt on its own small thread pool, so a burst of logins can only use {@code threads}
+ * cores and the booking requests on the same pod keep running.
+ * <p>At most {@code queueCapacity} checks wait for a thread. Beyond that, or when a check waited
+ * longer than {@code timeout}, {@link #matches} throws {@link LoginThrottledException} and the
+ * client is told to retry later.
+ * <p>Successful checks are remembered for {@code cacheTtl}, keyed by an HMAC of the raw password
+ * and the stored hash under a per-process random key, so scripted HTTP basic clients don't pay a
+ * bcrypt on every call and no password is kept in memory. Changing the password changes the
+ * hash and so misses the cache.
+ * <p>{@link #upgradeEncoding} asks for a rehash whenever the stored cost differs from
+ * {@code strength}, in either direction.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+	static final String HMAC_ALGORITHM = "HmacSHA256";
+
+	static final Pattern BCRYPT_COST = Pattern.compile("\\A\\$2[aby]?\\$(\\d\\d)\\$");
+
+	private final int strength;
+
+	private final PasswordEncoder delegate;
+
+	private final ThreadPoolExecutor executor;
+
+	private final Duration timeout;
+
+	private final Cache<String, Boolean> verified;
+
+	private final SecretKeySpec cacheKey;
+
+	public BoundedPasswordEncoder(int strength, int threads, int queueCapacity, Duration timeout,
+			Duration cacheTtl, long cacheMaximumSize) {
+		this.strength = strength;
+		this.delegate = new BCryptPasswordEncoder(strength);
+		this.timeout = timeout;
+		AtomicInteger count = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "password-hash-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.verified = Caffeine.newBuilder().maximumSize(cacheMaximumSize).expireAfterWrite(cacheTtl).build();
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		this.cacheKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+	}
+
+	@Override
+	public String encode(CharSequence rawPassword) {
+		return call(() -> delegate.encode(rawPassword));
+	}
+
+	@Override
+	public boolean matches(CharSequence rawPassword, String encodedPassword) {
+		if (rawPassword == null || encodedPassword == null) {
+			return false;
+		}
+		String key = cacheKey(rawPassword, encodedPassword);
+		if (verified.getIfPresent(key) != null) {
+			return true;
+		}
+		boolean matches = call(() -> delegate.matches(rawPassword, encodedPassword));
+		if (matches) {
+			verified.put(key, Boolean.TRUE);
+		}
+		return matches;
+	}
+
+	@Override
+	public boolean upgradeEncoding(String encodedPassword) {
+		if (encodedPassword == null) {
+			return false;
+		}
+		Matcher cost = BCRYPT_COST.matcher(encodedPassword);
+		return cost.find() && Integer.parseInt(cost.group(1)) != strength;
+	}
+
+	/** Called by Spring when the context closes. */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private <T> T call(Callable<T> task) {
+		Future<T> future;
+		try {
+			future = executor.submit(task);
+		}
+		catch (RejectedExecutionException e) {
+			throw new LoginThrottledException("too many logins in progress, try again shortly");
+		}
+		try {
+			return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			future.cancel(true);
+			throw new LoginThrottledException("login took too long, try again shortly");
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AuthenticationServiceException("interrupted while checking the password", e);
+		}
+		catch (ExecutionException e) {
+			throw new AuthenticationServiceException("password check failed", e.getCause());
+		}
+	}
+
+	private String cacheKey(CharSequence rawPassword, String encodedPassword) {
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(cacheKey);
+			mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+			mac.update((byte) 0);
+			mac.update(rawPassword.toString().getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(mac.doFinal());
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.pivottech.booking.handler;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.sql.SQLException;
+
+import static org.springframework.http.HttpStatus.CONFLICT;
+
+/**
+ * Answers a unique index violation, e.g. a retried reservation of a student that already has one
+ * at that time ({@code reservation_student_start}), with 409 instead of 500. Other integrity
+ * violations (NOT NULL, foreign keys) are bugs and stay 500.
+ */
+@ControllerAdvice
+public class DataIntegrityViolationExceptionHandler {
+
+	/** SQLState of a unique violation, in Postgres and H2 alike. */
+	static final String UNIQUE_VIOLATION = "23505";
+
+	@ResponseStatus(CONFLICT)
+	@ResponseBody
+	@ExceptionHandler(DataIntegrityViolationException.class)
+	public String dataIntegrityViolation(DataIntegrityViolationException ex) {
+		if (!isUniqueViolation(ex)) {
+			// rethrowing the same exception leaves it to the default handling
+			throw ex;
+		}
+		return "conflicts with an existing record";
+	}
+
+	public static boolean isUniqueViolation(DataIntegrityViolationException ex) {
+		for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException) {
+				return UNIQUE_VIOLATION.equals(((SQLException) cause).getSQLState());
+			}
+		}
+		return false;
+	}
+
+}
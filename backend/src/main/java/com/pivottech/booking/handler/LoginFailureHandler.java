@@ -0,0 +1,56 @@
+package com.pivottech.booking.handler;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.AuthenticationEntryPoint;
+import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * <p>Answers a login that was turned away by {@link BoundedPasswordEncoder} with 503 and a
+ * {@code Retry-After} header, so clients back off instead of reading it as a wrong password.
+ * <p>Other failures keep their usual response: {@code formLogin} redirects to
+ * {@code /login?error}, HTTP basic gets 401.
+ */
+@Log4j2
+public class LoginFailureHandler implements AuthenticationFailureHandler, AuthenticationEntryPoint {
+
+	static final String RETRY_AFTER_SECONDS = "1";
+
+	private final AuthenticationFailureHandler formLoginFailureHandler = new SimpleUrlAuthenticationFailureHandler(
+			"/login?error");
+
+	@Override
+	public void onAuthenticationFailure(HttpServletRequest request, HttpServletResponse response,
+			AuthenticationException exception) throws IOException, ServletException {
+		if (exception instanceof LoginThrottledException) {
+			throttled(response, exception);
+			return;
+		}
+		formLoginFailureHandler.onAuthenticationFailure(request, response, exception);
+	}
+
+	@Override
+	public void commence(HttpServletRequest request, HttpServletResponse response,
+			AuthenticationException exception) {
+		if (exception instanceof LoginThrottledException) {
+			throttled(response, exception);
+			return;
+		}
+		response.setStatus(HttpStatus.UNAUTHORIZED.value());
+	}
+
+	private void throttled(HttpServletResponse response, AuthenticationException exception) {
+		log.warn("login rejected: {}", exception.getMessage());
+		response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+		response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+	}
+
+}
@@ -0,0 +1,21 @@
+package com.pivottech.booking.handler;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when {@link BoundedPasswordEncoder} has no room left for another password check.
+ * {@link LoginFailureHandler} turns it into 503 Service Unavailable with a {@code Retry-After}; when
+ * it escapes a controller (e.g. hashing the password of a new user) it is a plain 503.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class LoginThrottledException extends AuthenticationServiceException {
+
+	private static final long serialVersionUID = 1L;
+
+	public LoginThrottledException(String msg) {
+		super(msg);
+	}
+
+}
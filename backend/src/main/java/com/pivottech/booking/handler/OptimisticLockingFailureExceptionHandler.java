@@ -0,0 +1,42 @@
+package com.pivottech.booking.handler;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import static org.springframework.http.HttpStatus.CONFLICT;
+
+/**
+ * Answers a lost optimistic lock ({@code @Version} check) with 409 instead of 500, and counts it in
+ * {@code booking.optimistic.lock.failures}, tagged with the entity.
+ */
+@ControllerAdvice
+public class OptimisticLockingFailureExceptionHandler {
+
+	static final String FAILURES = "booking.optimistic.lock.failures";
+
+	private final MeterRegistry meterRegistry;
+
+	public OptimisticLockingFailureExceptionHandler(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@ResponseStatus(CONFLICT)
+	@ResponseBody
+	@ExceptionHandler(OptimisticLockingFailureException.class)
+	public String optimisticLockingFailure(OptimisticLockingFailureException ex) {
+		String entity = "unknown";
+		if (ex instanceof ObjectOptimisticLockingFailureException) {
+			entity = StringUtils.substringAfterLast(
+					((ObjectOptimisticLockingFailureException) ex).getPersistentClassName(), ".");
+		}
+		meterRegistry.counter(FAILURES, "entity", entity).increment();
+		return "modified concurrently, reload and try again";
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.pivottech.booking.handler;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+import org.springframework.security.web.context.SaveContextOnUpdateOrErrorResponseWrapper;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.web.util.WebUtils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * <p>Keeps the logged-in user in a signed cookie instead of a server-side session, so an
+ * authenticated request does no session SQL and any replica can serve it.
+ * <p>The cookie holds {@code base64(username).expiresAt.base64(HMAC-SHA256)}. On each request the
+ * signature and expiry are checked and the user is loaded through the {@link UserDetailsService}
+ * (which is cached). After a successful {@code formLogin} the cookie is issued the same way a
+ * session would be saved, and it is re-issued once less than half of its lifetime is left.
+ * Logging out deletes the cookie. A copied cookie stays valid until it expires, so keep
+ * {@code booking.session.ttl-minutes} short.
+ */
+@Log4j2
+public class SignedCookieSecurityContextRepository implements SecurityContextRepository {
+
+	public static final String COOKIE_NAME = "BOOKING_AUTH";
+
+	static final String ALGORITHM = "HmacSHA256";
+
+	/** Request attribute holding the expiry of a valid incoming cookie. */
+	static final String EXPIRES_AT_ATTRIBUTE = SignedCookieSecurityContextRepository.class.getName()
+			+ ".EXPIRES_AT";
+
+	private final UserDetailsService userDetailsService;
+
+	private final SecretKeySpec key;
+
+	private final Duration ttl;
+
+	public SignedCookieSecurityContextRepository(UserDetailsService userDetailsService, String secret,
+			Duration ttl) {
+		this.userDetailsService = userDetailsService;
+		this.ttl = ttl;
+		byte[] keyBytes;
+		if (StringUtils.isBlank(secret)) {
+			log.warn("booking.session.secret is not set, using a random key. Logins won't survive a restart "
+					+ "and won't be recognized by other replicas.");
+			keyBytes = new byte[32];
+			new SecureRandom().nextBytes(keyBytes);
+		}
+		else {
+			keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+		}
+		this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+	}
+
+	@Override
+	public SecurityContext loadContext(HttpRequestResponseHolder requestResponseHolder) {
+		HttpServletRequest request = requestResponseHolder.getRequest();
+		requestResponseHolder
+				.setResponse(new SaveToCookieResponseWrapper(requestResponseHolder.getResponse(), request));
+
+		SecurityContext context = SecurityContextHolder.createEmptyContext();
+		Cookie cookie = WebUtils.getCookie(request, COOKIE_NAME);
+		if (cookie == null) {
+			return context;
+		}
+		Token token = verify(cookie.getValue());
+		if (token == null) {
+			return context;
+		}
+		try {
+			UserDetails user = userDetailsService.loadUserByUsername(token.username);
+			context.setAuthentication(new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+			request.setAttribute(EXPIRES_AT_ATTRIBUTE, token.expiresAt);
+		}
+		catch (UsernameNotFoundException e) {
+			// account is gone, treat as logged out
+		}
+		return context;
+	}
+
+	@Override
+	public void saveContext(SecurityContext context, HttpServletRequest request, HttpServletResponse response) {
+		SaveToCookieResponseWrapper wrapper = WebUtils.getNativeResponse(response, SaveToCookieResponseWrapper.class);
+		if (wrapper != null && !wrapper.isContextSaved()) {
+			wrapper.saveContext(context);
+		}
+	}
+
+	@Override
+	public boolean containsContext(HttpServletRequest request) {
+		return WebUtils.getCookie(request, COOKIE_NAME) != null;
+	}
+
+	/**
+	 * Check a cookie value without loading the user, for servers that don't go through Spring
+	 * Security (e.g. the reactive read API).
+	 * @return the username if the value is correctly signed and not expired, else {@code null}
+	 */
+	public String verifiedUsername(String cookieValue) {
+		Token token = verify(cookieValue);
+		return token == null ? null : token.username;
+	}
+
+	private Token verify(String cookieValue) {
+		String[] parts = cookieValue.split("\\.");
+		if (parts.length != 3 || !isSigned(parts[0] + "." + parts[1], parts[2])) {
+			return null;
+		}
+		Token token;
+		try {
+			token = new Token(new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8),
+					Instant.ofEpochSecond(Long.parseLong(parts[1])));
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+		return token.expiresAt.isBefore(Instant.now()) ? null : token;
+	}
+
+	private boolean isSigned(String value, String signature) {
+		return MessageDigest.isEqual(sign(value).getBytes(StandardCharsets.UTF_8),
+				signature.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String sign(String value) {
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(key);
+			byte[] signature = mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+		}
+		catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Token {
+
+		final String username;
+
+		final Instant expiresAt;
+
+		Token(String username, Instant expiresAt) {
+			this.username = username;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+	/**
+	 * Writes the cookie before the response is committed, like the session-backed repository
+	 * saves the session.
+	 */
+	final class SaveToCookieResponseWrapper extends SaveContextOnUpdateOrErrorResponseWrapper {
+
+		private final HttpServletRequest request;
+
+		SaveToCookieResponseWrapper(HttpServletResponse response, HttpServletRequest request) {
+			super(response, true);
+			this.request = request;
+		}
+
+		@Override
+		protected void saveContext(SecurityContext context) {
+			Authentication authentication = context.getAuthentication();
+			if (authentication == null || !authentication.isAuthenticated()
+					|| !(authentication.getPrincipal() instanceof UserDetails)) {
+				return;
+			}
+			Instant now = Instant.now();
+			Instant current = (Instant) request.getAttribute(EXPIRES_AT_ATTRIBUTE);
+			if (current != null && Duration.between(now, current).compareTo(ttl.dividedBy(2)) > 0) {
+				return; // still fresh, don't re-issue on every request
+			}
+			String username = ((UserDetails) authentication.getPrincipal()).getUsername();
+			String payload = Base64.getUrlEncoder().withoutPadding()
+					.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + "."
+					+ now.plus(ttl).getEpochSecond();
+			// same path as CookieClearingLogoutHandler uses, so that logout deletes it
+			ResponseCookie cookie = ResponseCookie.from(COOKIE_NAME, payload + "." + sign(payload))
+					.path(request.getContextPath() + "/").maxAge(ttl).httpOnly(true).secure(request.isSecure())
+					.sameSite("Lax").build();
+			addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+		}
+
+	}
+
+}
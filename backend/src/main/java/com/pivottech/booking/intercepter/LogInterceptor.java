@@ -1,16 +1,38 @@
 package com.pivottech.booking.intercepter;
 
-import lombok.extern.log4j.Log4j2;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.web.method.HandlerMethod;
 import org.springframework.web.servlet.HandlerInterceptor;
-import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ThreadLocalRandom;
 
-@Log4j2
+import static org.apache.logging.log4j.util.Unbox.box;
+
+/**
+ * <p>Writes one access record per request to the {@code com.pivottech.booking.access} logger:
+ * method, path, status, handler and duration, e.g.
+ * {@code GET /api/alice/reservations 200 ReservationController#list 1843us}.
+ * <p>Only {@code sampleRate} of the successful requests are logged (1.0 logs everything);
+ * exceptions and 5xx responses are always logged. The record is passed as parameters with boxed
+ * primitives from {@code Unbox}, so together with the async, garbage-free configuration in
+ * log4j2-spring.xml logging does not allocate on the request thread.
+ */
 public class LogInterceptor implements HandlerInterceptor {
 
+	static final Logger ACCESS_LOG = LogManager.getLogger("com.pivottech.booking.access");
+
+	/** Request attribute holding {@link System#nanoTime()} at the start of the request. */
+	static final String START_ATTRIBUTE = LogInterceptor.class.getName() + ".START";
+
+	private final double sampleRate;
+
+	public LogInterceptor(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
 	/**
 	 * Interception point before the execution of a handler. (before the web request hits the APIs on controllers)
 	 * @param request current HTTP request
@@ -19,51 +41,16 @@ public class LogInterceptor implements HandlerInterceptor {
 	 * @return {@code true} if the execution chain should proceed with the
 	 * next interceptor or the handler itself. Else, DispatcherServlet assumes
 	 * that this interceptor has already dealt with the response itself.
-	 * @throws Exception
 	 */
 	@Override
-	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
-			throws Exception {
-
-		// log the type of HttpServletRequest (REQUEST / ERROR)
-		log.info("preHandle. request type: {}", request.getDispatcherType());
-
-		// If the given handler is an instance of HandlerMethod
-		if (handler instanceof HandlerMethod) {
-
-			// Convert it to the HandlerMethod class
-			HandlerMethod handlerMethod = (HandlerMethod) handler;
-
-			// Get the class name of the given handler (HelloWorldController)
-			String methodClass = handlerMethod.getMethod().getDeclaringClass().getName();
-
-			// Get the method name of the given handler (index, todaysDate, etc...)
-			String methodName = handlerMethod.getMethod().getName();
-
-			// log the class name and method name of the given handler
-			log.info("handler: {}, {}", methodClass, methodName);
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		// an async dispatch (e.g. a streamed response) goes through here again, keep the first start
+		if (request.getAttribute(START_ATTRIBUTE) == null) {
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
 		}
 		return true;
 	}
 
-	/**
-	 * Interception point after successful execution of a handler.
-	 * @param request current HTTP request
-	 * @param response current HTTP response
-	 * @param handler the handler (or {@link HandlerMethod}) that started asynchronous
-	 * execution, for type and/or instance examination
-	 * @param modelAndView the {@code ModelAndView} that the handler returned
-	 * (can also be {@code null})
-	 * @throws Exception
-	 */
-	@Override
-	public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
-			ModelAndView modelAndView) throws Exception {
-
-		//log info after successful execution of a handler.
-		log.info("postHandle");
-	}
-
 	/**
 	 * Callback after completion of request processing, that is, after rendering the view.
 	 * @param request current HTTP request
@@ -72,16 +59,39 @@ public class LogInterceptor implements HandlerInterceptor {
 	 * execution, for type and/or instance examination
 	 * @param ex any exception thrown on handler execution, if any; this does not
 	 * include exceptions that have been handled through an exception resolver
-	 * @throws Exception
 	 */
 	@Override
-	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
-			throws Exception {
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+		int status = response.getStatus();
+		boolean failed = ex != null || status >= 500;
+		if (!ACCESS_LOG.isInfoEnabled() || (!failed && !sampled())) {
+			return;
+		}
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		long micros = start == null ? -1 : (System.nanoTime() - (Long) start) / 1000;
+		String handlerClass;
+		String handlerMethod;
+		if (handler instanceof HandlerMethod) {
+			handlerClass = ((HandlerMethod) handler).getBeanType().getSimpleName();
+			handlerMethod = ((HandlerMethod) handler).getMethod().getName();
+		}
+		else {
+			handlerClass = handler.getClass().getSimpleName();
+			handlerMethod = "-";
+		}
+		if (ex == null) {
+			ACCESS_LOG.info("{} {} {} {}#{} {}us", request.getMethod(), request.getRequestURI(), box(status),
+					handlerClass, handlerMethod, box(micros));
+		}
+		else {
+			ACCESS_LOG.error("{} {} {} {}#{} {}us", request.getMethod(), request.getRequestURI(), box(status),
+					handlerClass, handlerMethod, box(micros), ex);
+		}
+	}
 
-		/**
-		 * log info after rendering the view
-		 */
-		log.info("afterCompletion");
+	private boolean sampled() {
+		return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
 	}
 
 }
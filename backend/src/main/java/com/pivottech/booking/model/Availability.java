@@ -2,6 +2,7 @@ package com.pivottech.booking.model;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.*;
 
 import javax.persistence.*;
@@ -9,8 +10,12 @@ import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 
 @Entity(name = "Availability")
-@Table(indexes = { @Index(name = "index_instructor_start_end", columnList = "utcStartTime, utcEndTime, instructor_id",
-		unique = true) })
+// instructor first: every query is per instructor, and the partition key (utcStartTime, see
+// db/partition-tables.sql) has to be part of a unique index on Postgres
+@Table(indexes = {
+		@Index(name = "availability_instructor_start", columnList = "instructor_id, utcStartTime, utcEndTime",
+				unique = true),
+		@Index(name = "availability_reservation", columnList = "reservation_id") })
 @Data // @Getter, @Setter, @RequiredArgsConstructor, @ToString, @EqualsAndHashCode, @Value
 @Builder
 @NoArgsConstructor
@@ -36,10 +41,27 @@ public class Availability {
 	Instructor instructor;
 
 	@ManyToOne
-	@JoinColumn(name = "reservation_id")
+	// no foreign key, a partitioned reservation table has no unique index on id alone
+	@JoinColumn(name = "reservation_id", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
 	@JsonBackReference // stop the object serialization recursion here, hide this field from JSON serialization
 	Reservation reservation;
 
+	/** Student holding the slot while filling in the reservation, see {@link #heldUntil}. */
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "held_by")
+	@JsonIgnore
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	Student heldBy;
+
+	/**
+	 * Until when nobody but {@link #heldBy} can reserve the slot. A hold that has run out counts
+	 * as no hold, whether or not it has been cleared yet. Only the holder sees it, in its
+	 * {@link Hold}.
+	 */
+	@JsonIgnore
+	LocalDateTime heldUntil;
+
 	@Version
 	@Setter(AccessLevel.NONE)
 	Integer version;
@@ -0,0 +1,141 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.*;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>A recurring block of availability stored as one row, e.g. "Mondays and Wednesdays 09:00 to
+ * 17:00 UTC in 30 minute slots, from 2021-09-01 to 2021-12-17".
+ * <p>Its slots are not stored. They are expanded for the requested window when availabilities are
+ * listed, with ids from {@link #virtualId} (always negative), and a slot only becomes an
+ * {@link Availability} row when a reservation claims it. A stored availability starting at the
+ * same time takes the place of the rule's slot.
+ */
+@Entity(name = "AvailabilityRule")
+@Table(indexes = { @Index(name = "availability_rule_instructor", columnList = "instructor_id") })
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AvailabilityRule {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Setter(AccessLevel.NONE)
+	Long id;
+
+	@ManyToOne
+	@JoinColumn(name = "instructor_id")
+	@NotNull
+	Instructor instructor;
+
+	@NotEmpty
+	@Convert(converter = DaysOfWeekConverter.class)
+	Set<DayOfWeek> daysOfWeek;
+
+	/** Start of the first slot of the day. */
+	@NotNull
+	@JsonFormat(pattern = "HH:mm")
+	LocalTime utcStartTime;
+
+	/** No slot ends after this. */
+	@NotNull
+	@JsonFormat(pattern = "HH:mm")
+	LocalTime utcEndTime;
+
+	@NotNull
+	Integer slotMinutes;
+
+	@NotNull
+	@JsonFormat(pattern = "yyyy-MM-dd")
+	LocalDate firstDate;
+
+	/** Inclusive. */
+	@NotNull
+	@JsonFormat(pattern = "yyyy-MM-dd")
+	LocalDate lastDate;
+
+	@Version
+	@Setter(AccessLevel.NONE)
+	Integer version;
+
+	/**
+	 * Start times of the rule's slots that start at or after {@code from} and end at or before
+	 * {@code to}, in order.
+	 */
+	public List<LocalDateTime> slotStartsBetween(LocalDateTime from, LocalDateTime to) {
+		List<LocalDateTime> starts = new ArrayList<>();
+		Duration slot = getSlotDuration();
+		LocalDate date = from.toLocalDate().isAfter(firstDate) ? from.toLocalDate() : firstDate;
+		LocalDate last = to.toLocalDate().isBefore(lastDate) ? to.toLocalDate() : lastDate;
+		for (; !date.isAfter(last); date = date.plusDays(1)) {
+			if (!daysOfWeek.contains(date.getDayOfWeek())) {
+				continue;
+			}
+			LocalDateTime start = date.atTime(utcStartTime);
+			LocalDateTime dayEnd = date.atTime(utcEndTime);
+			while (!start.plus(slot).isAfter(dayEnd)) {
+				if (!start.isBefore(from) && !start.plus(slot).isAfter(to)) {
+					starts.add(start);
+				}
+				start = start.plus(slot);
+			}
+		}
+		return starts;
+	}
+
+	/**
+	 * Whether {@code start} is the start of one of the rule's slots.
+	 */
+	public boolean generates(LocalDateTime start) {
+		LocalDate date = start.toLocalDate();
+		LocalTime time = start.toLocalTime();
+		long offset = Duration.between(utcStartTime, time).toMinutes();
+		return !date.isBefore(firstDate) && !date.isAfter(lastDate) && daysOfWeek.contains(date.getDayOfWeek())
+				&& offset >= 0 && offset % slotMinutes == 0 && !time.plusMinutes(slotMinutes).isAfter(utcEndTime)
+				&& !time.plusMinutes(slotMinutes).isBefore(time);
+	}
+
+	@JsonIgnore
+	public Duration getSlotDuration() {
+		return Duration.ofMinutes(slotMinutes);
+	}
+
+	/**
+	 * The slot of this rule starting at {@code start}, not stored.
+	 */
+	public Availability virtualSlot(LocalDateTime start) {
+		return Availability.builder().id(virtualId(id, start)).instructor(instructor).utcStartTime(start)
+				.utcEndTime(start.plus(getSlotDuration())).version(0).build();
+	}
+
+	/**
+	 * Id of a rule's slot: {@code -(ruleId << 32 | minutes since the epoch)}.
+	 */
+	public static long virtualId(long ruleId, LocalDateTime start) {
+		return -(ruleId << 32 | start.toEpochSecond(ZoneOffset.UTC) / 60);
+	}
+
+	public static long ruleIdOf(long virtualId) {
+		return -virtualId >>> 32;
+	}
+
+	public static LocalDateTime startOf(long virtualId) {
+		return LocalDateTime.ofEpochSecond((-virtualId & 0xffffffffL) * 60, 0, ZoneOffset.UTC);
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.pivottech.booking.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Closed projection of an {@link Availability} row. Only carries the columns the in-memory
+ * slot index needs, so loading an instructor's calendar doesn't pull in the reservation graph.
+ */
+public interface AvailabilitySlot {
+
+	Long getId();
+
+	LocalDateTime getUtcStartTime();
+
+	LocalDateTime getUtcEndTime();
+
+	Integer getVersion();
+
+	Long getReservationId();
+
+	LocalDateTime getHeldUntil();
+
+}
@@ -0,0 +1,19 @@
+package com.pivottech.booking.model;
+
+import lombok.Data;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Data
+public class BulkReservationRequest {
+
+	/** Independent of each other, one failing doesn't stop the rest. */
+	@NotEmpty
+	@Size(max = 50)
+	@Valid
+	List<MakeMultiSlotReservationRequest> reservations;
+
+}
@@ -0,0 +1,66 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A change to an instructor's calendar, pushed to open calendars as a server-sent event named
+ * after the {@link Type} (lower case).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CalendarEvent {
+
+	/** Changes with more slots than this are sent without them. */
+	public static final int MAX_SLOTS = 50;
+
+	public enum Type {
+
+		CREATED, RESERVED, HELD, RELEASED
+
+	}
+
+	Type type;
+
+	Long instructorId;
+
+	/**
+	 * The slots concerned; empty when there were more than {@link #MAX_SLOTS} or when a recurring
+	 * rule was added, clients reload the calendar then.
+	 */
+	List<Slot> slots;
+
+	public static CalendarEvent of(Type type, Long instructorId, Iterable<Availability> availabilities) {
+		List<Slot> slots = new ArrayList<>();
+		for (Availability availability : availabilities) {
+			if (slots.size() == MAX_SLOTS) {
+				return new CalendarEvent(type, instructorId, List.of());
+			}
+			slots.add(new Slot(availability.getId(), availability.getUtcStartTime(), availability.getUtcEndTime()));
+		}
+		return new CalendarEvent(type, instructorId, slots);
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class Slot {
+
+		Long id;
+
+		@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+		LocalDateTime utcStartTime;
+
+		@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+		LocalDateTime utcEndTime;
+
+	}
+
+}
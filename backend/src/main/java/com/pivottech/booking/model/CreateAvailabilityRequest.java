@@ -26,7 +26,7 @@ public class CreateAvailabilityRequest {
 	LocalDateTime toUtc;
 
 	@NotNull
-	@Min(0)
+	@Min(1)
 	@Max(120)
 	Integer durationMinutes;
 
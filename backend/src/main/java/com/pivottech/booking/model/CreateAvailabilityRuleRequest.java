@@ -0,0 +1,42 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Set;
+
+@Data
+public class CreateAvailabilityRuleRequest {
+
+	@NotEmpty
+	Set<DayOfWeek> daysOfWeek;
+
+	@NotNull
+	@JsonFormat(pattern = "HH:mm")
+	LocalTime utcStartTime;
+
+	@NotNull
+	@JsonFormat(pattern = "HH:mm")
+	LocalTime utcEndTime;
+
+	@NotNull
+	@Min(1)
+	@Max(120)
+	Integer slotMinutes;
+
+	@NotNull
+	@JsonFormat(pattern = "yyyy-MM-dd")
+	LocalDate firstDate;
+
+	@NotNull
+	@JsonFormat(pattern = "yyyy-MM-dd")
+	LocalDate lastDate;
+
+}
@@ -0,0 +1,31 @@
+package com.pivottech.booking.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.time.DayOfWeek;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Stores a set of weekdays in one column, e.g. {@code MONDAY,WEDNESDAY}.
+ */
+@Converter
+public class DaysOfWeekConverter implements AttributeConverter<Set<DayOfWeek>, String> {
+
+	@Override
+	public String convertToDatabaseColumn(Set<DayOfWeek> days) {
+		return days == null ? null : days.stream().sorted().map(DayOfWeek::name).collect(Collectors.joining(","));
+	}
+
+	@Override
+	public Set<DayOfWeek> convertToEntityAttribute(String column) {
+		Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+		if (column != null && !column.isEmpty()) {
+			Arrays.stream(column.split(",")).map(DayOfWeek::valueOf).forEach(days::add);
+		}
+		return days;
+	}
+
+}
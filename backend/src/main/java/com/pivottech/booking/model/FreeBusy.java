@@ -0,0 +1,35 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Value;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * An instructor's (or a group's) calendar as one pair of bitmaps per UTC day instead of a list
+ * of slots. Each bitmap is 36 bytes (base64 in JSON), one bit per {@code quantumMinutes} starting
+ * at midnight, least significant bit of the first byte first.
+ */
+@Value
+public class FreeBusy {
+
+	int quantumMinutes;
+
+	List<Day> days;
+
+	@Value
+	public static class Day {
+
+		@JsonFormat(pattern = "yyyy-MM-dd")
+		LocalDate date;
+
+		/** Quanta fully covered by a slot that can be reserved. */
+		byte[] free;
+
+		/** Quanta overlapping a reserved slot. */
+		byte[] busy;
+
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Value;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * A free availability in a multi-instructor search result, with the instructor it belongs to.
+ */
+@Value
+public class FreeSlot {
+
+	String instructor;
+
+	/** Reserve with this id, negative for a slot of an {@link AvailabilityRule}. */
+	Long availabilityId;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcStartTime;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcEndTime;
+
+	@JsonIgnore
+	public Duration getDuration() {
+		return Duration.between(utcStartTime, utcEndTime);
+	}
+
+}
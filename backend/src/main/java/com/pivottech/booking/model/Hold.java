@@ -0,0 +1,25 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Value;
+
+import java.time.LocalDateTime;
+
+/**
+ * A slot kept for a student until {@code heldUntil}, confirmed by making a reservation for it.
+ */
+@Value
+public class Hold {
+
+	Long availabilityId;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcStartTime;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcEndTime;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+	LocalDateTime heldUntil;
+
+}
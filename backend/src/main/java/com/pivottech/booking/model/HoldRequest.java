@@ -0,0 +1,19 @@
+package com.pivottech.booking.model;
+
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+@Data
+public class HoldRequest {
+
+	/** Negative for a slot of an {@link AvailabilityRule} that isn't stored yet. */
+	@NotNull
+	Long availabilityId;
+
+	/** How long to hold the slot, capped at (and by default) {@code booking.holds.max-minutes}. */
+	@Min(1)
+	Integer minutes;
+
+}
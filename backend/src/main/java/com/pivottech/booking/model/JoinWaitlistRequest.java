@@ -0,0 +1,29 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import javax.validation.constraints.Future;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+@Data
+public class JoinWaitlistRequest {
+
+	@NotEmpty
+	String instructor;
+
+	@NotNull
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcFrom;
+
+	@NotNull
+	@Future
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcTo;
+
+	@NotEmpty
+	String description;
+
+}
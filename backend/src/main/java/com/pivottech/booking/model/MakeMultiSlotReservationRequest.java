@@ -0,0 +1,21 @@
+package com.pivottech.booking.model;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Data
+public class MakeMultiSlotReservationRequest {
+
+	/** Slots of one instructor, booked together or not at all; negative for rule slots. */
+	@NotEmpty
+	@Size(max = 16)
+	List<@NotNull Long> availabilityIds;
+
+	@NotEmpty
+	String description;
+
+}
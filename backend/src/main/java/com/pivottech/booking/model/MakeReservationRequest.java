@@ -2,15 +2,14 @@ package com.pivottech.booking.model;
 
 import lombok.Data;
 
-import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 
 @Data
 public class MakeReservationRequest {
 
+	/** Negative for a slot of an {@link AvailabilityRule} that isn't stored yet. */
 	@NotNull
-	@Min(0)
 	Long availabilityId;
 
 	@NotEmpty
@@ -0,0 +1,49 @@
+package com.pivottech.booking.model;
+
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Keyset position in a reservation listing ordered by (utcStartTime, id). Handed to clients as
+ * an opaque string, the next page starts strictly after it.
+ */
+@Value
+public class ReservationCursor {
+
+	LocalDateTime utcStartTime;
+
+	Long id;
+
+	/** Position just before the first reservation starting at {@code from}. */
+	public static ReservationCursor startingAt(LocalDateTime from) {
+		return new ReservationCursor(from, 0L);
+	}
+
+	public static ReservationCursor after(ReservationView last) {
+		return new ReservationCursor(last.getUtcStartTime(), last.getId());
+	}
+
+	public String encode() {
+		String raw = utcStartTime + "," + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the cursor wasn't produced by {@link #encode()}
+	 */
+	public static ReservationCursor decode(String cursor) {
+		try {
+			String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			int comma = raw.lastIndexOf(',');
+			return new ReservationCursor(LocalDateTime.parse(raw.substring(0, comma)),
+					Long.parseLong(raw.substring(comma + 1)));
+		}
+		catch (RuntimeException e) {
+			throw new IllegalArgumentException("malformed cursor: " + cursor, e);
+		}
+	}
+
+}
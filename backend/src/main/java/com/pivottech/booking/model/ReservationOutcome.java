@@ -0,0 +1,20 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Value;
+
+/**
+ * Result of one reservation of a bulk request: the HTTP status it would have had on its own,
+ * with either the reservation or the reason it failed.
+ */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReservationOutcome {
+
+	int status;
+
+	Reservation reservation;
+
+	String error;
+
+}
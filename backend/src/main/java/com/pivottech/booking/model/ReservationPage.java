@@ -0,0 +1,20 @@
+package com.pivottech.booking.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated reservation listing. {@code nextCursor} is null on the last
+ * page.
+ */
+@Data
+@AllArgsConstructor
+public class ReservationPage {
+
+	List<ReservationView> reservations;
+
+	String nextCursor;
+
+}
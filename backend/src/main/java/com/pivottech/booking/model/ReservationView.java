@@ -0,0 +1,34 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read model of a {@link Reservation} for calendar listings. Has the same JSON shape the UI
+ * reads from a Reservation, but is filled by a single JPQL constructor expression instead of
+ * walking the student / availability / instructor associations row by row.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReservationView {
+
+	Long id;
+
+	String description;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcStartTime;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcEndTime;
+
+	String studentUsername;
+
+	String instructorUsername;
+
+}
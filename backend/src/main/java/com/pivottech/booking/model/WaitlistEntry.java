@@ -0,0 +1,61 @@
+package com.pivottech.booking.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.*;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+/**
+ * A student waiting for any free slot of a fully booked instructor that fits in
+ * [utcFrom, utcTo]. Waiters of an instructor are served first come, first served.
+ */
+@Entity(name = "WaitlistEntry")
+@Table(indexes = { @Index(name = "waitlist_instructor", columnList = "instructor_id, id"),
+		@Index(name = "waitlist_student", columnList = "student_id") })
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WaitlistEntry {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Setter(AccessLevel.NONE)
+	Long id;
+
+	@ManyToOne
+	@JoinColumn(name = "instructor_id")
+	@NotNull
+	@JsonIgnore
+	Instructor instructor;
+
+	@ManyToOne
+	@JoinColumn(name = "student_id")
+	@NotNull
+	@JsonIgnore
+	Student student;
+
+	@NotNull
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcFrom;
+
+	@NotNull
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime utcTo;
+
+	/** Description of the reservation made once a slot is found. */
+	String description;
+
+	@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+	LocalDateTime createdAt;
+
+	@JsonGetter("instructorUsername")
+	public String getInstructorUsername() {
+		return this.instructor.user.username;
+	}
+
+}
@@ -0,0 +1,303 @@
+package com.pivottech.booking.reactive;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.pivottech.booking.handler.SignedCookieSecurityContextRepository;
+import com.pivottech.booking.model.AvailabilityRule;
+import com.pivottech.booking.model.DaysOfWeekConverter;
+import com.pivottech.booking.model.ReservationView;
+import io.r2dbc.spi.Row;
+import lombok.Value;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.web.reactive.function.server.HandlerFilterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Non-blocking versions of {@code AvailabilityController.list} and
+ * {@code ReservationController.list}: same paths, parameters, status codes and JSON, but read
+ * with R2DBC and written as rows arrive. Rows are fetched {@link #FETCH_SIZE} at a time and only
+ * when the client has taken the previous ones, so a slow reader holds a connection's worth of
+ * memory, not a calendar's.
+ * <p>Like the MVC list, the instructor's {@link AvailabilityRule}s are expanded into the window.
+ * The rules and the start times of the window's stored slots are read first, then the stored free
+ * slots stream as before, merged with the rule slots in start time order.
+ * <p>{@code Accept: application/x-ndjson} gets one JSON object per line, anything else a JSON
+ * array.
+ */
+public class CalendarReadHandler {
+
+	static final String USERNAME_ATTRIBUTE = CalendarReadHandler.class.getName() + ".USERNAME";
+
+	static final int FETCH_SIZE = 256;
+
+	static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+	// instructor.user_id and student.user_id are the user's id, see @MapsId on Instructor and Student
+	static final String SELECT_ROLES = "SELECT u.id, i.user_id AS instructor_id, i.introduction, "
+			+ "s.user_id AS student_id FROM \"user\" u LEFT JOIN instructor i ON i.user_id = u.id "
+			+ "LEFT JOIN student s ON s.user_id = u.id WHERE u.username = $1";
+
+	// same rows as AvailabilityRepository.findAvailableBetween
+	static final String SELECT_AVAILABLE = "SELECT a.id, a.utc_start_time, a.utc_end_time, a.version "
+			+ "FROM availability a WHERE a.instructor_id = $1 AND a.reservation_id IS NULL "
+			+ "AND (a.held_until IS NULL OR a.held_until <= $4) "
+			+ "AND a.utc_start_time >= $2 AND a.utc_end_time <= $3 AND a.utc_start_time < $3 "
+			+ "ORDER BY a.utc_start_time";
+
+	static final String SELECT_RULES = "SELECT r.id, r.days_of_week, r.utc_start_time, r.utc_end_time, "
+			+ "r.slot_minutes, r.first_date, r.last_date FROM availability_rule r WHERE r.instructor_id = $1 "
+			+ "AND r.first_date <= $3 AND r.last_date >= $2 ORDER BY r.id";
+
+	// a stored slot, free or not, takes the place of a rule's slot starting at the same time
+	static final String SELECT_STORED_STARTS = "SELECT a.utc_start_time FROM availability a "
+			+ "WHERE a.instructor_id = $1 AND a.utc_start_time >= $2 AND a.utc_start_time < $3";
+
+	static final Comparator<AvailabilityJson> BY_START = Comparator.comparing(AvailabilityJson::getUtcStartTime)
+			.thenComparing(AvailabilityJson::getId);
+
+	private static final DaysOfWeekConverter DAYS_OF_WEEK = new DaysOfWeekConverter();
+
+	// same rows as ReservationRepository.SELECT_VIEW
+	static final String SELECT_RESERVATIONS = "SELECT DISTINCT r.id, r.description, r.utc_start_time, "
+			+ "r.utc_end_time, su.username AS student_username, iu.username AS instructor_username "
+			+ "FROM reservation r JOIN availability a ON a.reservation_id = r.id "
+			+ "JOIN \"user\" su ON su.id = r.student_id JOIN \"user\" iu ON iu.id = a.instructor_id ";
+
+	// same bounds as ReservationRepository.BETWEEN
+	static final String BETWEEN = "AND r.utc_start_time >= $2 AND r.utc_end_time < $3 AND r.utc_start_time < $3 "
+			+ "AND a.utc_start_time >= $2 AND a.utc_start_time < $3 ORDER BY r.utc_start_time";
+
+	static final String BY_STUDENT = "WHERE r.student_id = $1 " + BETWEEN;
+
+	static final String BY_INSTRUCTOR = "WHERE a.instructor_id = $1 " + BETWEEN;
+
+	private final DatabaseClient databaseClient;
+
+	private final SignedCookieSecurityContextRepository signedCookieRepository;
+
+	public CalendarReadHandler(DatabaseClient databaseClient,
+			SignedCookieSecurityContextRepository signedCookieRepository) {
+		this.databaseClient = databaseClient;
+		this.signedCookieRepository = signedCookieRepository;
+	}
+
+	/**
+	 * Lets requests through with a valid login cookie, the same one the MVC API issues. The user
+	 * isn't looked up, so a deleted account can read until the cookie expires.
+	 */
+	public HandlerFilterFunction<ServerResponse, ServerResponse> authenticated() {
+		return (request, next) -> {
+			HttpCookie cookie = request.cookies().getFirst(SignedCookieSecurityContextRepository.COOKIE_NAME);
+			String username = cookie == null ? null : signedCookieRepository.verifiedUsername(cookie.getValue());
+			if (username == null) {
+				return ServerResponse.status(HttpStatus.UNAUTHORIZED).build();
+			}
+			request.attributes().put(USERNAME_ATTRIBUTE, username);
+			return next.handle(request);
+		};
+	}
+
+	/**
+	 * {@code GET {username}/availabilities?from=&to=}: the instructor's free slots, stored or
+	 * expanded from a rule.
+	 */
+	public Mono<ServerResponse> listAvailabilities(ServerRequest request) {
+		LocalDateTime from = dateTimeParam(request, "from");
+		LocalDateTime to = dateTimeParam(request, "to");
+		if (from == null || to == null) {
+			return badRequest();
+		}
+		return roles(request.pathVariable("username")).flatMap(roles -> {
+			if (roles.instructorId == null) {
+				return notFound("instructor doesn't exist");
+			}
+			InstructorJson instructor = new InstructorJson(roles.instructorId, roles.introduction);
+			Flux<AvailabilityJson> availabilities = databaseClient.sql(SELECT_AVAILABLE)
+					.filter(statement -> statement.fetchSize(FETCH_SIZE)).bind(0, roles.instructorId).bind(1, from)
+					.bind(2, to).bind(3, LocalDateTime.now(ZoneOffset.UTC))
+					.map(row -> new AvailabilityJson(row.get("id", Long.class),
+							row.get("utc_start_time", LocalDateTime.class),
+							row.get("utc_end_time", LocalDateTime.class), instructor,
+							row.get("version", Integer.class)))
+					.all();
+			return ok(request, withRuleSlots(availabilities, instructor, from, to), AvailabilityJson.class);
+		}).switchIfEmpty(notFound("instructor doesn't exist"));
+	}
+
+	/**
+	 * {@code GET {username}/reservations?from=&to=}: the logged-in user's own reservations, as a
+	 * student or else as an instructor.
+	 */
+	public Mono<ServerResponse> listReservations(ServerRequest request) {
+		String username = request.pathVariable("username");
+		if (!username.equals(request.attribute(USERNAME_ATTRIBUTE).orElse(null))) {
+			return ServerResponse.status(HttpStatus.FORBIDDEN).build();
+		}
+		LocalDateTime from = dateTimeParam(request, "from");
+		LocalDateTime to = dateTimeParam(request, "to");
+		if (from == null || to == null) {
+			return badRequest();
+		}
+		return roles(username).flatMap(roles -> {
+			Flux<ReservationView> reservations;
+			if (roles.studentId != null) {
+				reservations = reservations(BY_STUDENT, roles.studentId, from, to);
+			}
+			else if (roles.instructorId != null) {
+				reservations = reservations(BY_INSTRUCTOR, roles.instructorId, from, to);
+			}
+			else {
+				reservations = Flux.empty();
+			}
+			return ok(request, reservations, ReservationView.class);
+		}).switchIfEmpty(notFound("student doesn't exist"));
+	}
+
+	private Flux<AvailabilityJson> withRuleSlots(Flux<AvailabilityJson> stored, InstructorJson instructor,
+			LocalDateTime from, LocalDateTime to) {
+		return rules(instructor.id, from, to).flatMapMany(rules -> {
+			if (rules.isEmpty()) {
+				return stored;
+			}
+			return storedStarts(instructor.id, from, to)
+					.map(taken -> ruleSlots(rules, taken, instructor, from, to))
+					.flatMapMany(ruleSlots -> Flux.mergeComparing(BY_START, stored, Flux.fromIterable(ruleSlots)));
+		});
+	}
+
+	/** Same slots as {@code AvailabilityIndex.findAvailableBetween} adds, ordered by start time. */
+	static Collection<AvailabilityJson> ruleSlots(List<AvailabilityRule> rules, Set<LocalDateTime> taken,
+			InstructorJson instructor, LocalDateTime from, LocalDateTime to) {
+		Map<LocalDateTime, AvailabilityJson> slots = new TreeMap<>();
+		for (AvailabilityRule rule : rules) {
+			for (LocalDateTime start : rule.slotStartsBetween(from, to)) {
+				if (!taken.contains(start)) {
+					long id = AvailabilityRule.virtualId(rule.getId(), start);
+					slots.putIfAbsent(start,
+							new AvailabilityJson(id, start, start.plus(rule.getSlotDuration()), instructor, 0));
+				}
+			}
+		}
+		return slots.values();
+	}
+
+	private Mono<List<AvailabilityRule>> rules(Long instructorId, LocalDateTime from, LocalDateTime to) {
+		return databaseClient.sql(SELECT_RULES).bind(0, instructorId).bind(1, from.toLocalDate())
+				.bind(2, to.toLocalDate()).map(CalendarReadHandler::toRule).all().collectList();
+	}
+
+	private static AvailabilityRule toRule(Row row) {
+		return AvailabilityRule.builder().id(row.get("id", Long.class))
+				.daysOfWeek(DAYS_OF_WEEK.convertToEntityAttribute(row.get("days_of_week", String.class)))
+				.utcStartTime(row.get("utc_start_time", LocalTime.class))
+				.utcEndTime(row.get("utc_end_time", LocalTime.class))
+				.slotMinutes(row.get("slot_minutes", Integer.class)).firstDate(row.get("first_date", LocalDate.class)).lastDate(row.get("last_date", LocalDate.class))
+				.build();
+	}
+
+	private Mono<Set<LocalDateTime>> storedStarts(Long instructorId, LocalDateTime from, LocalDateTime to) {
+		return databaseClient.sql(SELECT_STORED_STARTS).bind(0, instructorId).bind(1, from).bind(2, to)
+				.map(row -> row.get("utc_start_time", LocalDateTime.class)).all().collect(Collectors.toSet());
+	}
+
+	private Flux<ReservationView> reservations(String where, Long userId, LocalDateTime from, LocalDateTime to) {
+		return databaseClient.sql(SELECT_RESERVATIONS + where).filter(statement -> statement.fetchSize(FETCH_SIZE))
+				.bind(0, userId).bind(1, from).bind(2, to)
+				.map(row -> new ReservationView(row.get("id", Long.class), row.get("description", String.class),
+						row.get("utc_start_time", LocalDateTime.class), row.get("utc_end_time", LocalDateTime.class),
+						row.get("student_username", String.class), row.get("instructor_username", String.class)))
+				.all();
+	}
+
+	private Mono<Roles> roles(String username) {
+		return databaseClient.sql(SELECT_ROLES).bind(0, username).map(CalendarReadHandler::toRoles).one();
+	}
+
+	private static Roles toRoles(Row row) {
+		return new Roles(row.get("instructor_id", Long.class), row.get("introduction", String.class),
+				row.get("student_id", Long.class));
+	}
+
+	private static <T> Mono<ServerResponse> ok(ServerRequest request, Flux<T> body, Class<T> type) {
+		MediaType contentType = request.headers().accept().contains(MediaType.APPLICATION_NDJSON)
+				? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON;
+		return ServerResponse.ok().contentType(contentType).body(body, type);
+	}
+
+	private static LocalDateTime dateTimeParam(ServerRequest request, String name) {
+		try {
+			return request.queryParam(name).map(value -> LocalDateTime.parse(value, DATE_TIME)).orElse(null);
+		}
+		catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private static Mono<ServerResponse> badRequest() {
+		return ServerResponse.badRequest().contentType(MediaType.TEXT_PLAIN)
+				.bodyValue("from and to are required, as yyyy-MM-dd HH:mm");
+	}
+
+	private static Mono<ServerResponse> notFound(String message) {
+		return ServerResponse.status(HttpStatus.NOT_FOUND).contentType(MediaType.TEXT_PLAIN).bodyValue(message);
+	}
+
+	@Value
+	static class Roles {
+
+		Long instructorId;
+
+		String introduction;
+
+		Long studentId;
+
+	}
+
+	/** JSON shape of an {@code Availability}. */
+	@Value
+	static class AvailabilityJson {
+
+		Long id;
+
+		@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+		LocalDateTime utcStartTime;
+
+		@JsonFormat(pattern = "yyyy-MM-dd HH:mm")
+		LocalDateTime utcEndTime;
+
+		InstructorJson instructor;
+
+		Integer version;
+
+	}
+
+	/** JSON shape of an {@code Instructor}. */
+	@Value
+	static class InstructorJson {
+
+		Long id;
+
+		String introduction;
+
+	}
+
+}
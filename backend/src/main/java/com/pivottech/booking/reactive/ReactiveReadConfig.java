@@ -0,0 +1,74 @@
+package com.pivottech.booking.reactive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pivottech.booking.handler.SignedCookieSecurityContextRepository;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+/**
+ * <p>With {@code booking.reactive.enabled=true} the calendar reads are also served by a
+ * non-blocking server on {@code booking.reactive.port}, see {@link CalendarReadHandler}. An open
+ * connection there costs no thread, so a replica can hold many more waiting calendar clients than
+ * Tomcat's worker pool allows. Writes, logins and everything else stay on the MVC API.
+ * <p>It reads the same Postgres through its own R2DBC pool ({@code booking.reactive.r2dbc-url}),
+ * sized separately from Hikari, and accepts the login cookie of {@code booking.session.store=token}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "booking.reactive.enabled", havingValue = "true")
+public class ReactiveReadConfig {
+
+	@Bean
+	public ConnectionFactory readConnectionFactory(@Value("${booking.reactive.r2dbc-url}") String url,
+			@Value("${spring.datasource.username}") String username,
+			@Value("${spring.datasource.password}") String password) {
+		return ConnectionFactories.get(ConnectionFactoryOptions.parse(url).mutate()
+				.option(ConnectionFactoryOptions.USER, username).option(ConnectionFactoryOptions.PASSWORD, password)
+				.build());
+	}
+
+	@Bean
+	public DatabaseClient readDatabaseClient(ConnectionFactory readConnectionFactory) {
+		return DatabaseClient.create(readConnectionFactory);
+	}
+
+	@Bean
+	public CalendarReadHandler calendarReadHandler(DatabaseClient readDatabaseClient,
+			ObjectProvider<SignedCookieSecurityContextRepository> signedCookieRepository) {
+		SignedCookieSecurityContextRepository repository = signedCookieRepository.getIfAvailable();
+		if (repository == null) {
+			throw new IllegalStateException("booking.reactive.enabled needs booking.session.store=token");
+		}
+		return new CalendarReadHandler(readDatabaseClient, repository);
+	}
+
+	@Bean
+	public ReactiveReadServer reactiveReadServer(CalendarReadHandler handler, ObjectMapper objectMapper,
+			@Value("${server.servlet.contextPath:}") String contextPath,
+			@Value("${booking.reactive.port}") int port) {
+		// same paths as the MVC API, including its context path
+		RouterFunction<ServerResponse> routes = RouterFunctions.route()
+				.path(contextPath, builder -> builder
+						.GET("/{username}/availabilities", handler::listAvailabilities)
+						.GET("/{username}/reservations", handler::listReservations))
+				.filter(handler.authenticated()).build();
+		HandlerStrategies strategies = HandlerStrategies.builder().codecs(codecs -> {
+			codecs.defaultCodecs().jackson2JsonEncoder(new Jackson2JsonEncoder(objectMapper));
+			codecs.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper));
+		}).build();
+		return new ReactiveReadServer(RouterFunctions.toHttpHandler(routes, strategies), port);
+	}
+
+}
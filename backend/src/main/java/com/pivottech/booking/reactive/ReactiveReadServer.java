@@ -0,0 +1,55 @@
+package com.pivottech.booking.reactive;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+
+/**
+ * Runs the reactive read API on Reactor Netty, next to the servlet container, on its own port.
+ * Started after the rest of the context and stopped before it, like the embedded Tomcat.
+ */
+@Log4j2
+public class ReactiveReadServer implements SmartLifecycle {
+
+	private final HttpHandler httpHandler;
+
+	private final int port;
+
+	private volatile DisposableServer server;
+
+	public ReactiveReadServer(HttpHandler httpHandler, int port) {
+		this.httpHandler = httpHandler;
+		this.port = port;
+	}
+
+	@Override
+	public void start() {
+		server = HttpServer.create().port(port).handle(new ReactorHttpHandlerAdapter(httpHandler)).bindNow();
+		log.info("Reactive read API started on port {}", server.port());
+	}
+
+	@Override
+	public void stop() {
+		DisposableServer running = server;
+		if (running != null) {
+			running.disposeNow(Duration.ofSeconds(10));
+			server = null;
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return server != null;
+	}
+
+	/** Bound port, useful with {@code booking.reactive.port=0}. */
+	public int getPort() {
+		return server == null ? -1 : server.port();
+	}
+
+}
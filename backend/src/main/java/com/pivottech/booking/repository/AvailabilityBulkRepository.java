@@ -0,0 +1,18 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.Availability;
+
+import java.util.List;
+
+/**
+ * Bulk write path for {@link AvailabilityRepository}, bypassing the entity manager.
+ */
+public interface AvailabilityBulkRepository {
+
+	/**
+	 * Insert new (unsaved) availabilities with batched JDBC statements.
+	 * @return copies of the given availabilities carrying their generated ids, in the same order
+	 */
+	List<Availability> insertAll(List<Availability> availabilities);
+
+}
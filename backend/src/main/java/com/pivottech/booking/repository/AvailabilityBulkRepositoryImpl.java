@@ -0,0 +1,67 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.Availability;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Picked up by Spring Data as the implementation of {@link AvailabilityBulkRepository}.
+ * <p>{@code saveAll} on an {@code GenerationType.AUTO} id costs one sequence call plus one
+ * INSERT per slot. Here ids come from the same {@code hibernate_sequence} but are drawn inside
+ * the INSERT itself, and rows are sent {@code booking.availability.insert-batch-size} at a time.
+ * With {@code reWriteBatchedInserts=true} on the Postgres URL each batch becomes one multi-row
+ * INSERT ... RETURNING id.
+ */
+public class AvailabilityBulkRepositoryImpl implements AvailabilityBulkRepository {
+
+	static final String INSERT_SQL = "INSERT INTO availability (id, utc_start_time, utc_end_time, instructor_id, "
+			+ "version) VALUES (nextval('hibernate_sequence'), ?, ?, ?, 0)";
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${booking.availability.insert-batch-size:500}")
+	int batchSize = 500;
+
+	@Override
+	public List<Availability> insertAll(List<Availability> availabilities) {
+		List<Availability> saved = new ArrayList<>(availabilities.size());
+		if (availabilities.isEmpty()) {
+			return saved;
+		}
+		return jdbcTemplate.execute((ConnectionCallback<List<Availability>>) connection -> {
+			try (PreparedStatement ps = connection.prepareStatement(INSERT_SQL, new String[] { "id" })) {
+				for (int from = 0; from < availabilities.size(); from += batchSize) {
+					List<Availability> batch = availabilities.subList(from,
+							Math.min(availabilities.size(), from + batchSize));
+					for (Availability availability : batch) {
+						ps.setTimestamp(1, Timestamp.valueOf(availability.getUtcStartTime()));
+						ps.setTimestamp(2, Timestamp.valueOf(availability.getUtcEndTime()));
+						ps.setLong(3, availability.getInstructor().getId());
+						ps.addBatch();
+					}
+					ps.executeBatch();
+					try (ResultSet keys = ps.getGeneratedKeys()) {
+						for (Availability availability : batch) {
+							keys.next();
+							saved.add(Availability.builder().id(keys.getLong(1))
+									.utcStartTime(availability.getUtcStartTime())
+									.utcEndTime(availability.getUtcEndTime()).instructor(availability.getInstructor())
+									.version(0).build());
+						}
+					}
+				}
+			}
+			return saved;
+		});
+	}
+
+}
@@ -1,25 +1,164 @@
 package com.pivottech.booking.repository;
 
 import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.AvailabilitySlot;
 import com.pivottech.booking.model.Instructor;
 import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.Student;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
-public interface AvailabilityRepository extends CrudRepository<Availability, Long> {
+/**
+ * Every query bounds {@code utcStartTime} on both sides, so on Postgres only the monthly
+ * partitions overlapping the window are scanned (see db/partition-tables.sql).
+ */
+public interface AvailabilityRepository extends CrudRepository<Availability, Long>, AvailabilityBulkRepository {
 
 	@Query(value = "SELECT a from Availability a " + "WHERE a.instructor = :instructor AND "
-			+ "a.utcStartTime >= :from AND a.utcEndTime <= :to")
+			+ "a.utcStartTime >= :from AND a.utcEndTime <= :to AND a.utcStartTime < :to")
 	List<Availability> findBetween(@Param("instructor") Instructor instructor, @Param("from") LocalDateTime from,
 			@Param("to") LocalDateTime to);
 
+	/**
+	 * Slots neither reserved nor held at {@code now}.
+	 */
 	@Query(value = "SELECT a from Availability a " + "WHERE a.instructor = :instructor AND "
-			+ "a.utcStartTime >= :from AND a.utcEndTime <= :to AND " + "a.reservation is NULL")
+			+ "a.utcStartTime >= :from AND a.utcEndTime <= :to AND a.utcStartTime < :to AND "
+			+ "a.reservation is NULL AND (a.heldUntil IS NULL OR a.heldUntil <= :now) ORDER BY a.utcStartTime")
 	List<Availability> findAvailableBetween(@Param("instructor") Instructor instructor,
+			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to, @Param("now") LocalDateTime now);
+
+	@Query(value = "SELECT a.id AS id, a.utcStartTime AS utcStartTime, a.utcEndTime AS utcEndTime, "
+			+ "a.version AS version, r.id AS reservationId, a.heldUntil AS heldUntil "
+			+ "FROM Availability a LEFT JOIN a.reservation r WHERE a.instructor.id = :instructor_id "
+			+ "AND a.utcStartTime >= :since")
+	List<AvailabilitySlot> findSlotsByInstructor(@Param("instructor_id") Long instructorId,
+			@Param("since") LocalDateTime since);
+
+	/**
+	 * Attach the availability to the reservation only if nobody else has, in a single
+	 * conditional UPDATE. A hold on the slot must be the student's own or have run out by
+	 * {@code now}, and is cleared. The pending reservation INSERT is flushed first.
+	 * {@code utcStartTime} only narrows the UPDATE down to the slot's partition.
+	 * @return 1 if the slot was claimed, 0 if it was already reserved or held
+	 */
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE Availability a SET a.reservation = :reservation, a.heldBy = NULL, a.heldUntil = NULL, "
+			+ "a.version = a.version + 1 WHERE a.id = :id AND a.utcStartTime = :start AND a.reservation IS NULL "
+			+ "AND (a.heldUntil IS NULL OR a.heldUntil <= :now OR a.heldBy = :student)")
+	int claim(@Param("id") Long id, @Param("start") LocalDateTime utcStartTime,
+			@Param("reservation") Reservation reservation, @Param("student") Student student,
+			@Param("now") LocalDateTime now);
+
+	/**
+	 * {@link #claim} for several availabilities at once, in one set-based UPDATE. The caller
+	 * compares the count with {@code ids.size()} and rolls back if some were taken. The start
+	 * bounds only prune partitions.
+	 * @return how many of the availabilities were claimed
+	 */
+	@Modifying(flushAutomatically = true)
+	@Query(value = "UPDATE Availability a SET a.reservation = :reservation, a.heldBy = NULL, a.heldUntil = NULL, "
+			+ "a.version = a.version + 1 WHERE a.id IN :ids AND a.utcStartTime >= :from AND a.utcStartTime <= :to "
+			+ "AND a.reservation IS NULL AND (a.heldUntil IS NULL OR a.heldUntil <= :now OR a.heldBy = :student)")
+	int claimAll(@Param("ids") Collection<Long> ids, @Param("from") LocalDateTime firstStart,
+			@Param("to") LocalDateTime lastStart, @Param("reservation") Reservation reservation,
+			@Param("student") Student student, @Param("now") LocalDateTime now);
+
+	/**
+	 * Hold a free slot for the student until {@code until}, under the same conditions as
+	 * {@link #claim}; holding it again moves {@code heldUntil}.
+	 * @return 1 if the slot is now held, 0 if it is reserved or held by someone else
+	 */
+	@Modifying
+	@Query(value = "UPDATE Availability a SET a.heldBy = :student, a.heldUntil = :until, a.version = a.version + 1 "
+			+ "WHERE a.id = :id AND a.utcStartTime = :start AND a.reservation IS NULL "
+			+ "AND (a.heldUntil IS NULL OR a.heldUntil <= :now OR a.heldBy = :student)")
+	int hold(@Param("id") Long id, @Param("start") LocalDateTime utcStartTime, @Param("student") Student student,
+			@Param("until") LocalDateTime until, @Param("now") LocalDateTime now);
+
+	/**
+	 * Drop the student's hold on a slot that wasn't reserved.
+	 * @return 1 if there was such a hold, 0 otherwise
+	 */
+	@Modifying
+	@Query(value = "UPDATE Availability a SET a.heldBy = NULL, a.heldUntil = NULL, a.version = a.version + 1 "
+			+ "WHERE a.id = :id AND a.utcStartTime = :start AND a.reservation IS NULL AND a.heldBy = :student")
+	int releaseHold(@Param("id") Long id, @Param("start") LocalDateTime utcStartTime,
+			@Param("student") Student student);
+
+	/**
+	 * The availabilities among {@code ids} whose hold ran out by {@code now} without a
+	 * reservation. The start bounds only prune partitions.
+	 */
+	@Query(value = "SELECT a FROM Availability a WHERE a.id IN :ids AND a.utcStartTime >= :from AND "
+			+ "a.utcStartTime <= :to AND a.reservation IS NULL AND a.heldUntil <= :now")
+	List<Availability> findExpiredHolds(@Param("ids") Collection<Long> ids, @Param("from") LocalDateTime firstStart,
+			@Param("to") LocalDateTime lastStart, @Param("now") LocalDateTime now);
+
+	/**
+	 * Clear the holds {@link #findExpiredHolds} finds, in one UPDATE. Clears the persistence
+	 * context, which still holds the slots as held.
+	 * @return the number of holds cleared
+	 */
+	@Modifying(clearAutomatically = true)
+	@Query(value = "UPDATE Availability a SET a.heldBy = NULL, a.heldUntil = NULL, a.version = a.version + 1 "
+			+ "WHERE a.id IN :ids AND a.utcStartTime >= :from AND a.utcStartTime <= :to AND a.reservation IS NULL "
+			+ "AND a.heldUntil <= :now")
+	int releaseExpiredHolds(@Param("ids") Collection<Long> ids, @Param("from") LocalDateTime firstStart,
+			@Param("to") LocalDateTime lastStart, @Param("now") LocalDateTime now);
+
+	/**
+	 * Ids of the reservations holding a slot of the instructor that starts in [from, to).
+	 */
+	@Query(value = "SELECT DISTINCT a.reservation.id FROM Availability a WHERE a.instructor = :instructor AND "
+			+ "a.utcStartTime >= :from AND a.utcStartTime < :to AND a.reservation IS NOT NULL")
+	List<Long> findReservationIdsBetween(@Param("instructor") Instructor instructor,
 			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 
-}
\ No newline at end of file
+	@Query(value = "SELECT a FROM Availability a WHERE a.reservation.id IN :ids AND "
+			+ "a.utcStartTime >= :from AND a.utcStartTime < :to")
+	List<Availability> findByReservations(@Param("ids") Collection<Long> reservationIds,
+			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+	/**
+	 * Detach every availability of the reservations in one UPDATE, the reverse of
+	 * {@link #claimAll}. {@code from} and {@code to} must enclose the slots and only prune
+	 * partitions. Clears the persistence context, which still holds the slots as reserved.
+	 * @return the number of availabilities released
+	 */
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query(value = "UPDATE Availability a SET a.reservation = NULL, a.version = a.version + 1 "
+			+ "WHERE a.reservation.id IN :ids AND a.utcStartTime >= :from AND a.utcStartTime < :to")
+	int releaseAll(@Param("ids") Collection<Long> reservationIds, @Param("from") LocalDateTime from,
+			@Param("to") LocalDateTime to);
+
+	/**
+	 * Store a slot expanded from an {@code AvailabilityRule} unless the instructor already has one
+	 * at that time; relies on the {@code availability_instructor_start} unique index, so racing
+	 * callers end up with the same row.
+	 * @return 1 if the row was inserted, 0 if it already existed
+	 */
+	@Modifying
+	@Query(value = "INSERT INTO availability (id, utc_start_time, utc_end_time, instructor_id, version) "
+			+ "VALUES (nextval('hibernate_sequence'), :start, :end, :instructor_id, 0) ON CONFLICT DO NOTHING",
+			nativeQuery = true)
+	int insertIfAbsent(@Param("instructor_id") Long instructorId, @Param("start") LocalDateTime utcStartTime,
+			@Param("end") LocalDateTime utcEndTime);
+
+	/**
+	 * Whether the instructor has a stored slot starting at {@code utcStartTime}, of any length.
+	 */
+	boolean existsByInstructorIdAndUtcStartTime(Long instructorId, LocalDateTime utcStartTime);
+
+	@Query(value = "SELECT a from Availability a WHERE a.instructor.id = :instructor_id AND "
+			+ "a.utcStartTime = :start AND a.utcEndTime = :end")
+	Availability findSlot(@Param("instructor_id") Long instructorId, @Param("start") LocalDateTime utcStartTime,
+			@Param("end") LocalDateTime utcEndTime);
+
+}
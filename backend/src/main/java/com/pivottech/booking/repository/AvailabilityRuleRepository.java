@@ -0,0 +1,15 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.AvailabilityRule;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface AvailabilityRuleRepository extends CrudRepository<AvailabilityRule, Long> {
+
+	@Query(value = "SELECT r FROM AvailabilityRule r WHERE r.instructor.id = :instructor_id ORDER BY r.id")
+	List<AvailabilityRule> findByInstructor(@Param("instructor_id") Long instructorId);
+
+}
@@ -0,0 +1,74 @@
+package com.pivottech.booking.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>With {@code booking.datasource.replica.urls} set (comma separated JDBC URLs of streaming
+ * replicas of {@code spring.datasource.url}), replaces the auto-configured pool with a
+ * {@link ReplicaRoutingDataSource}: read-only transactions read from a replica, everything else
+ * uses the primary.
+ * <p>Every pool is configured from {@code spring.datasource.*} and
+ * {@code spring.datasource.hikari.*}; replica pools can be sized on their own with
+ * {@code booking.datasource.replica.maximum-pool-size}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "booking.datasource.replica.urls")
+public class ReplicaDataSourceConfig {
+
+	@Bean(destroyMethod = "close")
+	public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties properties, Environment environment,
+			MeterRegistry meterRegistry, @Value("${booking.datasource.replica.urls}") List<String> urls,
+			@Value("${booking.datasource.replica.maximum-pool-size:0}") int replicaPoolSize,
+			@Value("${booking.datasource.replica.max-lag-millis:1000}") long maxLagMillis,
+			@Value("${booking.datasource.replica.sticky-millis:5000}") long stickyMillis,
+			@Value("${booking.datasource.replica.check-interval-millis:1000}") long checkIntervalMillis) {
+		HikariDataSource primary = pool("primary", properties.getUrl(), properties, environment, meterRegistry);
+		List<DataSource> replicas = new ArrayList<>();
+		for (String url : urls) {
+			HikariDataSource replica = pool("replica-" + replicas.size(), url.trim(), properties, environment,
+					meterRegistry);
+			replica.setReadOnly(true);
+			if (replicaPoolSize > 0) {
+				replica.setMaximumPoolSize(replicaPoolSize);
+			}
+			replicas.add(replica);
+		}
+		return new ReplicaRoutingDataSource(primary, replicas, Duration.ofMillis(maxLagMillis),
+				Duration.ofMillis(stickyMillis), Duration.ofMillis(checkIntervalMillis), meterRegistry);
+	}
+
+	/**
+	 * The one everything else (JPA, JdbcTemplate, {@code ClusterNotifier}) is wired with.
+	 */
+	@Bean
+	@Primary
+	public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+		return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+	}
+
+	private static HikariDataSource pool(String name, String url, DataSourceProperties properties,
+			Environment environment, MeterRegistry meterRegistry) {
+		HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url).build();
+		Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+		pool.setPoolName(name);
+		pool.setMetricRegistry(meterRegistry);
+		return pool;
+	}
+
+}
@@ -0,0 +1,236 @@
+package com.pivottech.booking.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Sends {@code @Transactional(readOnly = true)} work to a streaming replica and everything
+ * else to the primary. Must sit behind a {@link LazyConnectionDataSourceProxy}, so the connection
+ * is only picked once the transaction (and whether it is read-only) has been set up.
+ * <p>Replicas are taken round robin, skipping any whose replay lag, checked every
+ * {@code checkInterval}, is above {@code maxLag} or that can't be reached; with none left reads go
+ * to the primary.
+ * <p>Read-your-writes: when a read-write transaction commits during a request, the response gets
+ * a {@link #WROTE_AT_COOKIE} cookie, and that user's reads go to the primary for {@code sticky}
+ * afterwards, on whichever backend replica serves them. {@code sticky} should be longer than
+ * {@code maxLag} plus {@code checkInterval}.
+ */
+@Log4j2
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+	public static final String WROTE_AT_COOKIE = "BOOKING_WROTE_AT";
+
+	static final String PRIMARY = "primary";
+
+	/** Request attribute holding the epoch millis of the last write in this request. */
+	static final String WROTE_AT_ATTRIBUTE = ReplicaRoutingDataSource.class.getName() + ".WROTE_AT";
+
+	// 0 when the replica has replayed all it received (e.g. no writes lately), else the age of the last replayed
+	// transaction; also 0 if pointed at a primary
+	static final String LAG_SQL = "SELECT COALESCE(CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() "
+			+ "THEN 0 ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END, 0)";
+
+	private final DataSource primary;
+
+	private final List<Replica> replicas = new ArrayList<>();
+
+	private final Duration maxLag;
+
+	private final Duration sticky;
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final Counter fallbacks;
+
+	private final ScheduledExecutorService lagChecker;
+
+	public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicaDataSources, Duration maxLag,
+			Duration sticky, Duration checkInterval, MeterRegistry meterRegistry) {
+		this.primary = primary;
+		this.maxLag = maxLag;
+		this.sticky = sticky;
+		Map<Object, Object> targets = new HashMap<>();
+		targets.put(PRIMARY, primary);
+		for (DataSource dataSource : replicaDataSources) {
+			Replica replica = new Replica("replica-" + replicas.size(), dataSource);
+			replicas.add(replica);
+			targets.put(replica.name, dataSource);
+			Gauge.builder("booking.datasource.replica.lag", replica, r -> r.lagMillis).baseUnit("milliseconds")
+					.tag("replica", replica.name).register(meterRegistry);
+		}
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(primary);
+		fallbacks = Counter.builder("booking.datasource.replica.fallbacks")
+				.description("read-only transactions sent to the primary because no replica was usable")
+				.register(meterRegistry);
+		lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "replica-lag-check");
+			thread.setDaemon(true);
+			return thread;
+		});
+		lagChecker.scheduleWithFixedDelay(this::checkLag, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+					@Override
+					public void afterCommit() {
+						rememberWrite();
+					}
+				});
+			}
+			return PRIMARY;
+		}
+		if (wroteRecently()) {
+			return PRIMARY;
+		}
+		int size = replicas.size();
+		int start = Math.floorMod(next.getAndIncrement(), size);
+		for (int i = 0; i < size; i++) {
+			Replica replica = replicas.get((start + i) % size);
+			if (replica.usable) {
+				return replica.name;
+			}
+		}
+		fallbacks.increment();
+		return PRIMARY;
+	}
+
+	/**
+	 * Stop checking replicas and close the pools.
+	 */
+	public void close() throws Exception {
+		lagChecker.shutdownNow();
+		for (Replica replica : replicas) {
+			closeIfPossible(replica.dataSource);
+		}
+		closeIfPossible(primary);
+	}
+
+	private boolean wroteRecently() {
+		HttpServletRequest request = currentRequest();
+		if (request == null) {
+			return false;
+		}
+		Object wroteAt = request.getAttribute(WROTE_AT_ATTRIBUTE);
+		if (wroteAt == null) {
+			Cookie cookie = WebUtils.getCookie(request, WROTE_AT_COOKIE);
+			if (cookie == null) {
+				return false;
+			}
+			try {
+				wroteAt = Long.parseLong(cookie.getValue());
+			}
+			catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return System.currentTimeMillis() - (Long) wroteAt < sticky.toMillis();
+	}
+
+	private void rememberWrite() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (!(attributes instanceof ServletRequestAttributes)) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+		request.setAttribute(WROTE_AT_ATTRIBUTE, now);
+		HttpServletResponse response = ((ServletRequestAttributes) attributes).getResponse();
+		if (response == null || response.isCommitted()) {
+			return;
+		}
+		ResponseCookie cookie = ResponseCookie.from(WROTE_AT_COOKIE, Long.toString(now))
+				.path(request.getContextPath() + "/").maxAge(sticky.plusSeconds(1)).httpOnly(true)
+				.secure(request.isSecure()).sameSite("Lax").build();
+		response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+	}
+
+	private static HttpServletRequest currentRequest() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		return attributes instanceof ServletRequestAttributes ? ((ServletRequestAttributes) attributes).getRequest()
+				: null;
+	}
+
+	void checkLag() {
+		for (Replica replica : replicas) {
+			try (Connection connection = replica.dataSource.getConnection();
+					Statement statement = connection.createStatement();
+					ResultSet resultSet = statement.executeQuery(LAG_SQL)) {
+				resultSet.next();
+				replica.lagMillis = resultSet.getDouble(1);
+				boolean usable = replica.lagMillis <= maxLag.toMillis();
+				if (usable != replica.usable) {
+					log.warn("{} is {}, lag {} ms", replica.name, usable ? "back in use" : "too far behind",
+							(long) replica.lagMillis);
+				}
+				replica.usable = usable;
+			}
+			catch (SQLException e) {
+				if (replica.usable) {
+					log.warn("{} is unreachable, reading from the primary: {}", replica.name, e.getMessage());
+				}
+				replica.lagMillis = Double.NaN;
+				replica.usable = false;
+			}
+		}
+	}
+
+	private static void closeIfPossible(DataSource dataSource) throws Exception {
+		if (dataSource instanceof AutoCloseable) {
+			((AutoCloseable) dataSource).close();
+		}
+	}
+
+	private static final class Replica {
+
+		final String name;
+
+		final DataSource dataSource;
+
+		/** Not used until the first check has passed. */
+		volatile boolean usable;
+
+		volatile double lagMillis = Double.NaN;
+
+		Replica(String name, DataSource dataSource) {
+			this.name = name;
+			this.dataSource = dataSource;
+		}
+
+	}
+
+}
@@ -1,23 +1,97 @@
 package com.pivottech.booking.repository;
 
 import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationView;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface ReservationRepository extends PagingAndSortingRepository<Reservation, Long> {
 
-	@Query(value = "SELECT r from Reservation r WHERE r.student.id = :student_id AND "
-			+ "r.utcStartTime >= :from AND r.utcEndTime < :to")
-	List<Reservation> findByUsernameAndBetween(@Param("student_id") Long studentId, @Param("from") LocalDateTime from,
+	/**
+	 * Everything {@link ReservationView} needs, joined in one statement. A reservation made of
+	 * several availabilities yields one row per availability, hence the DISTINCT.
+	 */
+	String SELECT_VIEW = "SELECT DISTINCT new com.pivottech.booking.model.ReservationView(r.id, r.description, "
+			+ "r.utcStartTime, r.utcEndTime, su.username, iu.username) "
+			+ "FROM Availability a JOIN a.reservation r JOIN r.student s JOIN s.user su "
+			+ "JOIN a.instructor i JOIN i.user iu ";
+
+	/**
+	 * Reservations starting at or after :from and ending before :to. The redundant start bounds on
+	 * both tables let Postgres skip the monthly partitions outside the window, see
+	 * db/partition-tables.sql.
+	 */
+	String BETWEEN = "r.utcStartTime >= :from AND r.utcEndTime < :to AND r.utcStartTime < :to "
+			+ "AND a.utcStartTime >= :from AND a.utcStartTime < :to ";
+
+	/**
+	 * Keyset condition, rows strictly after (:after_start, :after_id) in (utcStartTime, id) order.
+	 */
+	String AFTER_CURSOR = "AND (r.utcStartTime > :after_start OR (r.utcStartTime = :after_start AND r.id > :after_id)) "
+			+ "ORDER BY r.utcStartTime, r.id";
+
+	/**
+	 * The reservation with its availabilities, which are lazy and read after the transaction,
+	 * e.g. when the response is written.
+	 */
+	@EntityGraph(attributePaths = "availabilities")
+	Optional<Reservation> findWithAvailabilitiesById(Long id);
+
+	String FETCH_SIZE_HINT = "org.hibernate.fetchSize";
+
+	String STREAM_FETCH_SIZE = "500";
+
+	@Query(value = SELECT_VIEW + "WHERE s.id = :student_id AND " + BETWEEN + "ORDER BY r.utcStartTime")
+	List<ReservationView> findByUsernameAndBetween(@Param("student_id") Long studentId,
+			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+	@Query(value = SELECT_VIEW + "WHERE i.id = :instructor_id AND " + BETWEEN + "ORDER BY r.utcStartTime")
+	List<ReservationView> findByInstructorAndBetween(@Param("instructor_id") Long instructor,
+			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+	@Query(value = SELECT_VIEW + "WHERE s.id = :student_id AND " + BETWEEN + AFTER_CURSOR)
+	List<ReservationView> findPageByStudent(@Param("student_id") Long studentId, @Param("from") LocalDateTime from,
+			@Param("to") LocalDateTime to, @Param("after_start") LocalDateTime afterStart,
+			@Param("after_id") Long afterId, Pageable pageable);
+
+	@Query(value = SELECT_VIEW + "WHERE i.id = :instructor_id AND " + BETWEEN + AFTER_CURSOR)
+	List<ReservationView> findPageByInstructor(@Param("instructor_id") Long instructorId,
+			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+			@Param("after_start") LocalDateTime afterStart, @Param("after_id") Long afterId, Pageable pageable);
+
+	/**
+	 * Read through a JDBC cursor, {@link #STREAM_FETCH_SIZE} rows at a time. Must be consumed
+	 * (and closed) inside a transaction, Postgres only honours the fetch size with autocommit off.
+	 */
+	@QueryHints(@QueryHint(name = FETCH_SIZE_HINT, value = STREAM_FETCH_SIZE))
+	@Query(value = SELECT_VIEW + "WHERE s.id = :student_id AND " + BETWEEN + "ORDER BY r.utcStartTime, r.id")
+	Stream<ReservationView> streamByStudent(@Param("student_id") Long studentId, @Param("from") LocalDateTime from,
 			@Param("to") LocalDateTime to);
 
-	@Query(value = "SELECT DISTINCT a.reservation from Availability a WHERE a.instructor.id = :instructor_id AND "
-			+ "a.reservation.utcStartTime >= :from AND a.reservation.utcEndTime < :to")
-	List<Reservation> findByInstructorAndBetween(@Param("instructor_id") Long instructor,
+	@QueryHints(@QueryHint(name = FETCH_SIZE_HINT, value = STREAM_FETCH_SIZE))
+	@Query(value = SELECT_VIEW + "WHERE i.id = :instructor_id AND " + BETWEEN + "ORDER BY r.utcStartTime, r.id")
+	Stream<ReservationView> streamByInstructor(@Param("instructor_id") Long instructorId,
 			@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 
+	/**
+	 * Delete the reservations in one statement; {@code from} and {@code to} must enclose them and
+	 * only prune partitions. Their availabilities have to be released first.
+	 */
+	@Modifying
+	@Query(value = "DELETE FROM Reservation r WHERE r.id IN :ids AND r.utcStartTime >= :from AND r.utcStartTime < :to")
+	int deleteAllBetween(@Param("ids") Collection<Long> ids, @Param("from") LocalDateTime from,
+			@Param("to") LocalDateTime to);
+
 }
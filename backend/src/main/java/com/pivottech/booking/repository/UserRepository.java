@@ -1,10 +1,16 @@
 package com.pivottech.booking.repository;
 
 import com.pivottech.booking.model.User;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.List;
+
 public interface UserRepository extends CrudRepository<User, Long> {
 
 	User getByUsername(String username);
 
+	@Query(value = "SELECT u FROM User u JOIN FETCH u.instructor ORDER BY u.username")
+	List<User> findInstructors();
+
 }
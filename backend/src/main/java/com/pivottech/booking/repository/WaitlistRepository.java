@@ -0,0 +1,30 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.WaitlistEntry;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface WaitlistRepository extends CrudRepository<WaitlistEntry, Long> {
+
+	/**
+	 * The instructor's waiters, first come first.
+	 */
+	@Query(value = "SELECT w FROM WaitlistEntry w WHERE w.instructor.id = :instructor_id ORDER BY w.id")
+	List<WaitlistEntry> findByInstructor(@Param("instructor_id") Long instructorId);
+
+	@Query(value = "SELECT w FROM WaitlistEntry w WHERE w.student = :student ORDER BY w.id")
+	List<WaitlistEntry> findByStudent(@Param("student") Student student);
+
+	/**
+	 * @return 1 if the entry was removed, 0 if somebody else (another replica) already did
+	 */
+	@Modifying
+	@Query(value = "DELETE FROM WaitlistEntry w WHERE w.id = :id")
+	int deleteEntry(@Param("id") Long id);
+
+}
@@ -0,0 +1,393 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.AvailabilityRule;
+import com.pivottech.booking.model.AvailabilitySlot;
+import com.pivottech.booking.model.CalendarEvent;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.repository.AvailabilityRepository;
+import com.pivottech.booking.repository.AvailabilityRuleRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>In-process interval index of every instructor's availabilities, sorted by utcStartTime,
+ * with a free/booked bit per slot. Range queries are answered from memory without touching the
+ * database.
+ * <p>An instructor's slots are loaded lazily on the first query (a miss) and kept up to date
+ * write-through by {@link BookingService}. Writes made by another replica are not seen here,
+ * so every instructor entry expires after {@code booking.availability-index.ttl-seconds} and is
+ * rebuilt on the next query.
+ * <p>Only slots from {@code booking.availability-index.history-days} ago onwards are loaded, so
+ * the cost of a reload doesn't grow with years of history. Queries reaching further back go to
+ * the database.
+ * <p>An instructor's {@link AvailabilityRule}s are held alongside and expanded into the query
+ * window; a rule's slot is left out where a stored slot (free or booked) starts at the same time.
+ * <p>For quick "is the instructor free then" checks and group searches, each day of an indexed
+ * instructor can also be read as a pair of {@link DayBitmap}s ({@link #freeBusyOn}), built on
+ * first use and rebuilt after the instructor's next write.
+ */
+@Component
+public class AvailabilityIndex {
+
+	static final String INVALIDATION_CHANNEL = "availability_index_invalidation";
+
+	@Autowired
+	AvailabilityRepository availabilityRepository;
+
+	@Autowired
+	AvailabilityRuleRepository availabilityRuleRepository;
+
+	@Autowired
+	ClusterNotifier clusterNotifier;
+
+	@Value("${booking.availability-index.ttl-seconds:30}")
+	long ttlSeconds = 30;
+
+	@Value("${booking.availability-index.history-days:7}")
+	long historyDays = 7;
+
+	private final ConcurrentHashMap<Long, InstructorSlots> slotsByInstructor = new ConcurrentHashMap<>();
+
+	/** Per instructor, bumped by every write-through and invalidation; a load that saw it change is stale. */
+	private final ConcurrentHashMap<Long, AtomicLong> generations = new ConcurrentHashMap<>();
+
+	/**
+	 * Same contract as {@link AvailabilityRepository#findAvailableBetween}: free slots that start
+	 * at or after {@code from} and end at or before {@code to}, ordered by start time.
+	 */
+	public List<Availability> findAvailableBetween(Instructor instructor, LocalDateTime from, LocalDateTime to) {
+		InstructorSlots slots = slotsOf(instructor.getId());
+		List<Availability> free = from.isBefore(slots.since)
+				? availabilityRepository.findAvailableBetween(instructor, from, to, LocalDateTime.now(ZoneOffset.UTC))
+				: slots.findBetween(instructor, from, to);
+		if (slots.rules.isEmpty()) {
+			return free;
+		}
+		// rule slots only from `since` on, earlier ones can't be checked against stored slots
+		LocalDateTime rulesFrom = from.isBefore(slots.since) ? slots.since : from;
+		Map<LocalDateTime, Availability> ruleSlots = new HashMap<>();
+		for (AvailabilityRule rule : slots.rules) {
+			for (LocalDateTime start : rule.slotStartsBetween(rulesFrom, to)) {
+				if (!slots.hasSlotStartingAt(start)) {
+					ruleSlots.putIfAbsent(start, rule.virtualSlot(start));
+				}
+			}
+		}
+		List<Availability> results = new ArrayList<>(free);
+		results.addAll(ruleSlots.values());
+		results.sort(Comparator.comparing(Availability::getUtcStartTime).thenComparing(Availability::getId));
+		return results;
+	}
+
+	/**
+	 * Free and busy quanta of the instructor's UTC day. Days before the indexed history are read
+	 * from the database and don't include rule slots, like {@link #findAvailableBetween}.
+	 */
+	public FreeBusyDay freeBusyOn(Instructor instructor, LocalDate day) {
+		InstructorSlots slots = slotsOf(instructor.getId());
+		if (!day.atStartOfDay().isBefore(slots.since)) {
+			return slots.freeBusyOn(day);
+		}
+		LocalDateTime dayStart = day.atStartOfDay();
+		DayBitmap free = new DayBitmap(), busy = new DayBitmap();
+		for (Availability availability : availabilityRepository.findBetween(instructor, dayStart.minusDays(1),
+				dayStart.plusDays(2))) {
+			mark(free, busy, dayStart, availability.getUtcStartTime(), availability.getUtcEndTime(),
+					availability.getReservation() != null);
+		}
+		return new FreeBusyDay(free, busy);
+	}
+
+	/**
+	 * Whether the index knows the given availability to be booked. Unknown slots (e.g. created on
+	 * another replica since the last reload) are reported as not booked.
+	 */
+	public boolean isBooked(Availability availability) {
+		Slot slot = slotsOf(availability.getInstructor().getId()).get(availability);
+		return slot != null && slot.isBooked();
+	}
+
+	/**
+	 * Add newly created availabilities once the surrounding transaction (if any) commits.
+	 */
+	public void addAll(Iterable<Availability> created) {
+		List<Slot> slots = new ArrayList<>();
+		Long instructorId = null;
+		for (Availability availability : created) {
+			instructorId = availability.getInstructor().getId();
+			slots.add(Slot.of(availability, availability.getReservation() != null));
+		}
+		if (instructorId == null) {
+			return;
+		}
+		final Long id = instructorId;
+		Transactions.afterCommit(() -> write(id, current -> current.putAll(slots)));
+	}
+
+	/**
+	 * Flip the booked bit of the given availability once the surrounding transaction commits.
+	 */
+	public void markBooked(Availability availability) {
+		Long instructorId = availability.getInstructor().getId();
+		Slot booked = Slot.of(availability, true);
+		Transactions.afterCommit(() -> write(instructorId, current -> current.put(booked)));
+	}
+
+	/**
+	 * Drop an instructor's slots, the next query reloads them from the database.
+	 */
+	public void invalidate(Long instructorId) {
+		write(instructorId, current -> null);
+	}
+
+	/**
+	 * Released slots are reindexed rather than patched: the instructor is dropped here once the
+	 * release commits, and on the other replicas through {@link ClusterNotifier}, so the freed
+	 * slots can be booked everywhere right away instead of after the TTL.
+	 */
+	@EventListener
+	public void onCalendarEvent(CalendarEvent event) {
+		if (event.getType() != CalendarEvent.Type.RELEASED) {
+			return;
+		}
+		Long instructorId = event.getInstructorId();
+		clusterNotifier.publish(INVALIDATION_CHANNEL, instructorId.toString());
+		Transactions.afterCommit(() -> invalidate(instructorId));
+	}
+
+	@PostConstruct
+	void subscribe() {
+		clusterNotifier.subscribe(INVALIDATION_CHANNEL, instructorId -> invalidate(Long.valueOf(instructorId)));
+	}
+
+	InstructorSlots slotsOf(Long instructorId) {
+		InstructorSlots slots = slotsByInstructor.get(instructorId);
+		if (slots != null && !slots.isExpired()) {
+			return slots;
+		}
+		// loaded outside the map: inside compute() the query would hold the bin lock, and with it
+		// every instructor hashing to the same bin
+		long generation = generationOf(instructorId).get();
+		InstructorSlots loaded = load(instructorId);
+		InstructorSlots installed = slotsByInstructor.compute(instructorId, (id, current) -> {
+			if (current != null && !current.isExpired()) {
+				return current; // a concurrent load got there first
+			}
+			// a commit since the load started may be missing from it, leave it to the next query
+			return generationOf(id).get() == generation ? loaded : current;
+		});
+		return installed != null && !installed.isExpired() ? installed : loaded;
+	}
+
+	/**
+	 * Apply a write-through to the instructor's slots, if loaded, and mark loads in flight as
+	 * stale; both under the bin lock, so a load can't be installed in between.
+	 */
+	private void write(Long instructorId, UnaryOperator<InstructorSlots> update) {
+		slotsByInstructor.compute(instructorId, (id, current) -> {
+			generationOf(id).incrementAndGet();
+			return current == null ? null : update.apply(current);
+		});
+	}
+
+	private AtomicLong generationOf(Long instructorId) {
+		return generations.computeIfAbsent(instructorId, id -> new AtomicLong());
+	}
+
+	private InstructorSlots load(Long instructorId) {
+		LocalDateTime since = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).minusDays(historyDays);
+		InstructorSlots slots = new InstructorSlots(LocalDateTime.now().plusSeconds(ttlSeconds), since);
+		LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+		for (AvailabilitySlot row : availabilityRepository.findSlotsByInstructor(instructorId, since)) {
+			// a slot held for someone is taken for everybody else until the hold runs out
+			boolean held = row.getHeldUntil() != null && row.getHeldUntil().isAfter(now);
+			slots.put(new Slot(row.getId(), row.getUtcStartTime(), row.getUtcEndTime(), row.getVersion(),
+					row.getReservationId() != null || held));
+		}
+		slots.rules = availabilityRuleRepository.findByInstructor(instructorId);
+		return slots;
+	}
+
+	/**
+	 * Free: quanta the slot covers entirely. Busy: quanta it overlaps at all.
+	 */
+	static void mark(DayBitmap free, DayBitmap busy, LocalDateTime dayStart, LocalDateTime start,
+			LocalDateTime end, boolean booked) {
+		if (booked) {
+			busy.set(DayBitmap.quantumAtOrBefore(dayStart, start), DayBitmap.quantumAtOrAfter(dayStart, end));
+		}
+		else {
+			free.set(DayBitmap.quantumAtOrAfter(dayStart, start), DayBitmap.quantumAtOrBefore(dayStart, end));
+		}
+	}
+
+	@lombok.Value
+	public static class FreeBusyDay {
+
+		DayBitmap free;
+
+		DayBitmap busy;
+
+	}
+
+	/**
+	 * One slot of an instructor's calendar. Immutable, booking a slot replaces it.
+	 */
+	@lombok.Value
+	static class Slot {
+
+		static final Comparator<Slot> BY_START = Comparator.comparing(Slot::getUtcStartTime)
+				.thenComparing(Slot::getId);
+
+		Long id;
+
+		LocalDateTime utcStartTime;
+
+		LocalDateTime utcEndTime;
+
+		Integer version;
+
+		boolean booked;
+
+		static Slot of(Availability availability, boolean booked) {
+			return new Slot(availability.getId(), availability.getUtcStartTime(), availability.getUtcEndTime(),
+					availability.getVersion(), booked);
+		}
+
+		/** Smallest possible slot starting at {@code time}, used as a range bound. */
+		static Slot startingAt(LocalDateTime time) {
+			return new Slot(Long.MIN_VALUE, time, time, null, false);
+		}
+
+		Availability toAvailability(Instructor instructor) {
+			return Availability.builder().id(id).utcStartTime(utcStartTime).utcEndTime(utcEndTime)
+					.instructor(instructor).version(version).build();
+		}
+
+	}
+
+	/**
+	 * Slots of a single instructor, ordered by (utcStartTime, id).
+	 */
+	static class InstructorSlots {
+
+		private final ConcurrentSkipListMap<Slot, Slot> slots = new ConcurrentSkipListMap<>(Slot.BY_START);
+
+		private final LocalDateTime expiresAt;
+
+		/** Slots starting before this weren't loaded. */
+		final LocalDateTime since;
+
+		List<AvailabilityRule> rules = List.of();
+
+		/** Bumped by every write, bitmaps built before it are stale. */
+		private final AtomicLong modCount = new AtomicLong();
+
+		private final ConcurrentHashMap<LocalDate, CachedDay> days = new ConcurrentHashMap<>();
+
+		InstructorSlots(LocalDateTime expiresAt, LocalDateTime since) {
+			this.expiresAt = expiresAt;
+			this.since = since;
+		}
+
+		boolean isExpired() {
+			return LocalDateTime.now().isAfter(expiresAt);
+		}
+
+		InstructorSlots put(Slot slot) {
+			// key equality is (start, id) only, so this replaces the previous booked bit
+			slots.put(slot, slot);
+			modCount.incrementAndGet();
+			return this;
+		}
+
+		boolean hasSlotStartingAt(LocalDateTime start) {
+			Slot last = new Slot(Long.MAX_VALUE, start, start, null, false);
+			return !slots.subMap(Slot.startingAt(start), true, last, true).isEmpty();
+		}
+
+		Slot get(Availability availability) {
+			return slots.get(Slot.of(availability, false));
+		}
+
+		InstructorSlots putAll(List<Slot> toAdd) {
+			toAdd.forEach(this::put);
+			return this;
+		}
+
+		List<Availability> findBetween(Instructor instructor, LocalDateTime from, LocalDateTime to) {
+			List<Availability> results = new ArrayList<>();
+			if (from.isAfter(to)) {
+				return results;
+			}
+			ConcurrentNavigableMap<Slot, Slot> range = slots.subMap(Slot.startingAt(from), true,
+					Slot.startingAt(to), true);
+			for (Slot slot : range.values()) {
+				if (!slot.isBooked() && !slot.getUtcEndTime().isAfter(to)) {
+					results.add(slot.toAvailability(instructor));
+				}
+			}
+			return results;
+		}
+
+		int size() {
+			return slots.size();
+		}
+
+		FreeBusyDay freeBusyOn(LocalDate day) {
+			CachedDay cached = days.get(day);
+			if (cached != null && cached.getModCount() == modCount.get()) {
+				return cached.getFreeBusy();
+			}
+			// read the count first, a write racing with the build leaves the result stale
+			long count = modCount.get();
+			LocalDateTime dayStart = day.atStartOfDay(), dayEnd = dayStart.plusDays(1);
+			DayBitmap free = new DayBitmap(), busy = new DayBitmap();
+			// slots are at most a few hours long, a day of look-behind catches those crossing midnight
+			for (Slot slot : slots.subMap(Slot.startingAt(dayStart.minusDays(1)), true, Slot.startingAt(dayEnd), false)
+					.values()) {
+				mark(free, busy, dayStart, slot.getUtcStartTime(), slot.getUtcEndTime(), slot.isBooked());
+			}
+			for (AvailabilityRule rule : rules) {
+				for (LocalDateTime start : rule.slotStartsBetween(dayStart.minusDays(1), dayEnd.plusDays(1))) {
+					if (start.isBefore(dayEnd) && !hasSlotStartingAt(start)) {
+						mark(free, busy, dayStart, start, start.plus(rule.getSlotDuration()), false);
+					}
+				}
+			}
+			FreeBusyDay freeBusy = new FreeBusyDay(free, busy);
+			days.put(day, new CachedDay(count, freeBusy));
+			return freeBusy;
+		}
+
+	}
+
+	@lombok.Value
+	static class CachedDay {
+
+		long modCount;
+
+		FreeBusyDay freeBusy;
+
+	}
+
+}
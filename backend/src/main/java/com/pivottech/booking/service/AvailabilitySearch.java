@@ -0,0 +1,174 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.FreeSlot;
+import com.pivottech.booking.model.Instructor;
+import io.micrometer.core.annotation.Timed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Finds the best free slots across many instructors in one call.
+ * <p>Every instructor's free slots come from {@link AvailabilityIndex}, one task per instructor
+ * on a pool of {@code booking.search.threads} (default: one per core), since a cold instructor
+ * costs a database load. Each task returns at most {@code limit} slots sorted by the requested
+ * {@link Order}, and the sorted lists are then k-way merged through a heap of their heads,
+ * stopping after {@code limit} results: O(limit log n) for n instructors.
+ * <p>A search covers at most {@value #MAX_INSTRUCTORS} instructors and {@value #MAX_WINDOW_DAYS}
+ * days, so one request can't queue a load of every instructor's whole calendar on the pool.
+ */
+@Service
+public class AvailabilitySearch {
+
+	public static final int MAX_INSTRUCTORS = 200;
+
+	public static final int MAX_WINDOW_DAYS = 31;
+
+	public enum Order {
+
+		/** Earliest start first. */
+		EARLIEST(Comparator.comparing(FreeSlot::getUtcStartTime)),
+
+		/** Shortest slot that is long enough first, so longer ones stay free for longer lessons. */
+		BEST_FIT(Comparator.comparing(FreeSlot::getDuration).thenComparing(FreeSlot::getUtcStartTime));
+
+		// instructor and id make the order total, so results are stable between calls
+		final Comparator<FreeSlot> comparator;
+
+		Order(Comparator<FreeSlot> comparator) {
+			this.comparator = comparator.thenComparing(FreeSlot::getInstructor)
+					.thenComparing(FreeSlot::getAvailabilityId);
+		}
+
+	}
+
+	final AvailabilityIndex availabilityIndex;
+
+	private final ExecutorService executor;
+
+	@Autowired
+	public AvailabilitySearch(AvailabilityIndex availabilityIndex, @Value("${booking.search.threads:0}") int threads) {
+		this.availabilityIndex = availabilityIndex;
+		AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "availability-search-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	@PreDestroy
+	void stop() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Top {@code limit} free slots, in {@code order}, of the given instructors (keyed by username)
+	 * that start at or after {@code from}, end at or before {@code to} and last at least
+	 * {@code minDuration}.
+	 * @throws IllegalArgumentException for more than {@value #MAX_INSTRUCTORS} instructors or a
+	 * window longer than {@value #MAX_WINDOW_DAYS} days
+	 */
+	@Timed(BookingService.SERVICE_TIMER)
+	public List<FreeSlot> search(Map<String, Instructor> instructors, LocalDateTime from, LocalDateTime to,
+			Duration minDuration, Order order, int limit) {
+		if (instructors.size() > MAX_INSTRUCTORS) {
+			throw new IllegalArgumentException("more than " + MAX_INSTRUCTORS + " instructors");
+		}
+		if (from.plusDays(MAX_WINDOW_DAYS).isBefore(to)) {
+			throw new IllegalArgumentException("window longer than " + MAX_WINDOW_DAYS + " days");
+		}
+		List<CompletableFuture<List<FreeSlot>>> tasks = instructors.entrySet().stream()
+				.map(entry -> CompletableFuture.supplyAsync(
+						() -> freeSlotsOf(entry.getKey(), entry.getValue(), from, to, minDuration, order, limit),
+						executor))
+				.collect(Collectors.toList());
+		List<List<FreeSlot>> sorted = new ArrayList<>(tasks.size());
+		try {
+			for (CompletableFuture<List<FreeSlot>> task : tasks) {
+				sorted.add(task.join());
+			}
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+		return merge(sorted, order.comparator, limit);
+	}
+
+	private List<FreeSlot> freeSlotsOf(String username, Instructor instructor, LocalDateTime from, LocalDateTime to,
+			Duration minDuration, Order order, int limit) {
+		List<FreeSlot> slots = new ArrayList<>();
+		for (Availability availability : availabilityIndex.findAvailableBetween(instructor, from, to)) {
+			FreeSlot slot = new FreeSlot(username, availability.getId(), availability.getUtcStartTime(),
+					availability.getUtcEndTime());
+			if (slot.getDuration().compareTo(minDuration) >= 0) {
+				slots.add(slot);
+			}
+		}
+		slots.sort(order.comparator);
+		return slots.size() > limit ? slots.subList(0, limit) : slots;
+	}
+
+	/**
+	 * The first {@code limit} elements of the union of lists each sorted by {@code comparator}.
+	 */
+	static <T> List<T> merge(List<List<T>> sorted, Comparator<T> comparator, int limit) {
+		PriorityQueue<Head<T>> heads = new PriorityQueue<>(Math.max(1, sorted.size()),
+				(a, b) -> comparator.compare(a.current(), b.current()));
+		for (List<T> list : sorted) {
+			if (!list.isEmpty()) {
+				heads.add(new Head<>(list));
+			}
+		}
+		List<T> merged = new ArrayList<>(limit);
+		while (merged.size() < limit && !heads.isEmpty()) {
+			Head<T> head = heads.poll();
+			merged.add(head.current());
+			if (head.advance()) {
+				heads.add(head);
+			}
+		}
+		return merged;
+	}
+
+	private static final class Head<T> {
+
+		final List<T> list;
+
+		int position;
+
+		Head(List<T> list) {
+			this.list = list;
+		}
+
+		T current() {
+			return list.get(position);
+		}
+
+		boolean advance() {
+			return ++position < list.size();
+		}
+
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Hold;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.Student;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Serializes reservation attempts per availability id so that students racing for the same
+ * slot don't all pay a database round trip to find out they lost.
+ * <p>Claims for the same availability are funnelled through one of a fixed number of striped
+ * locks. The winner's transaction commits (and updates the {@link AvailabilityIndex}) before
+ * the lock is released, so every queued loser is turned away from memory with a
+ * {@link SlotUnavailableException} (409). The database stays the source of truth through the
+ * conditional UPDATE in {@link BookingService#createReservation}, which also covers races with
+ * other replicas.
+ * <p>Every 409 is counted in {@code booking.conflicts}, tagged with where it was detected:
+ * {@code index} (answered from memory), {@code lock} (gave up waiting) or {@code database}
+ * (lost the conditional UPDATE).
+ * <p>Holds ({@link #hold}) go through the same locks. A held slot is booked as far as the index
+ * is concerned, except for the student holding it, who books it like any other to confirm.
+ */
+@Service
+public class BookingEngine {
+
+	static final int STRIPES = 256;
+
+	static final String CONFLICTS = "booking.conflicts";
+
+	final BookingService bookingService;
+
+	final AvailabilityIndex availabilityIndex;
+
+	final HoldExpiry holdExpiry;
+
+	final long lockTimeoutMillis;
+
+	final long maxHoldMinutes;
+
+	private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+	private final Counter indexConflicts;
+
+	private final Counter lockConflicts;
+
+	private final Counter databaseConflicts;
+
+	@Autowired
+	public BookingEngine(BookingService bookingService, AvailabilityIndex availabilityIndex, HoldExpiry holdExpiry,
+			MeterRegistry meterRegistry, @Value("${booking.engine.lock-timeout-millis:2000}") long lockTimeoutMillis,
+			@Value("${booking.holds.max-minutes:10}") long maxHoldMinutes) {
+		this.bookingService = bookingService;
+		this.availabilityIndex = availabilityIndex;
+		this.holdExpiry = holdExpiry;
+		this.lockTimeoutMillis = lockTimeoutMillis;
+		this.maxHoldMinutes = maxHoldMinutes;
+		this.indexConflicts = meterRegistry.counter(CONFLICTS, "detected", "index");
+		this.lockConflicts = meterRegistry.counter(CONFLICTS, "detected", "lock");
+		this.databaseConflicts = meterRegistry.counter(CONFLICTS, "detected", "database");
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Book a single availability for the student.
+	 * @throws SlotUnavailableException if the slot is (or just got) reserved by someone else
+	 */
+	public Reservation reserve(Student student, Availability availability, String description) {
+		boolean heldForStudent = isHeldFor(availability, student);
+		if (availability.getReservation() != null || !heldForStudent && availabilityIndex.isBooked(availability)) {
+			indexConflicts.increment();
+			throw new SlotUnavailableException(availability.getId());
+		}
+		ReentrantLock lock = lockFor(availability.getId());
+		if (!tryLock(lock)) {
+			// someone has been holding this slot for a while, most likely about to win it
+			lockConflicts.increment();
+			throw new SlotUnavailableException(availability.getId());
+		}
+		try {
+			if (!heldForStudent && availabilityIndex.isBooked(availability)) {
+				indexConflicts.increment();
+				throw new SlotUnavailableException(availability.getId());
+			}
+			Reservation reservation;
+			try {
+				reservation = bookingService.createReservation(student, availability, description);
+			}
+			catch (SlotUnavailableException e) {
+				// lost to another replica, remember it so the next attempt fails fast
+				databaseConflicts.increment();
+				availabilityIndex.markBooked(availability);
+				throw e;
+			}
+			holdExpiry.cancel(availability.getId());
+			return reservation;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Book several availabilities as one reservation, all or nothing (see
+	 * {@link BookingService#createMultiSlotReservation}). The locks of all of them are taken in
+	 * ascending stripe order, so two overlapping multi-slot attempts can't deadlock.
+	 * @throws SlotUnavailableException if any of the slots is (or just got) reserved
+	 */
+	public Reservation reserveAll(Student student, List<Availability> availabilities, String description) {
+		List<Long> ids = availabilities.stream().map(Availability::getId).collect(Collectors.toList());
+		for (Availability availability : availabilities) {
+			if (availability.getReservation() != null
+					|| !isHeldFor(availability, student) && availabilityIndex.isBooked(availability)) {
+				indexConflicts.increment();
+				throw new SlotUnavailableException(availability.getId());
+			}
+		}
+		int[] stripes = ids.stream().mapToInt(BookingEngine::stripeOf).distinct().sorted().toArray();
+		int locked = 0;
+		try {
+			for (; locked < stripes.length; locked++) {
+				if (!tryLock(locks[stripes[locked]])) {
+					lockConflicts.increment();
+					throw new SlotUnavailableException(ids);
+				}
+			}
+			for (Availability availability : availabilities) {
+				if (!isHeldFor(availability, student) && availabilityIndex.isBooked(availability)) {
+					indexConflicts.increment();
+					throw new SlotUnavailableException(availability.getId());
+				}
+			}
+			try {
+				Reservation reservation = bookingService.createMultiSlotReservation(student, availabilities,
+						description);
+				ids.forEach(holdExpiry::cancel);
+				return reservation;
+			}
+			catch (SlotUnavailableException e) {
+				// lost to another replica; which slot is unknown, reload the instructor's
+				databaseConflicts.increment();
+				availabilityIndex.invalidate(availabilities.get(0).getInstructor().getId());
+				throw e;
+			}
+		}
+		finally {
+			for (int i = locked - 1; i >= 0; i--) {
+				locks[stripes[i]].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Keep a free slot for the student for {@code minutes} (capped at, and by default,
+	 * {@code booking.holds.max-minutes}) while they fill in the reservation; see
+	 * {@link BookingService#holdAvailability}. Holding it again extends the hold.
+	 * @throws SlotUnavailableException if the slot is reserved or held by someone else
+	 */
+	public Hold hold(Student student, Availability availability, Integer minutes) {
+		boolean heldForStudent = isHeldFor(availability, student);
+		if (availability.getReservation() != null || !heldForStudent && availabilityIndex.isBooked(availability)) {
+			indexConflicts.increment();
+			throw new SlotUnavailableException(availability.getId());
+		}
+		ReentrantLock lock = lockFor(availability.getId());
+		if (!tryLock(lock)) {
+			lockConflicts.increment();
+			throw new SlotUnavailableException(availability.getId());
+		}
+		try {
+			if (!heldForStudent && availabilityIndex.isBooked(availability)) {
+				indexConflicts.increment();
+				throw new SlotUnavailableException(availability.getId());
+			}
+			long holdMinutes = minutes == null ? maxHoldMinutes : Math.min(minutes, maxHoldMinutes);
+			Hold hold;
+			try {
+				hold = bookingService.holdAvailability(student, availability,
+						LocalDateTime.now(ZoneOffset.UTC).plusMinutes(holdMinutes));
+			}
+			catch (SlotUnavailableException e) {
+				databaseConflicts.increment();
+				availabilityIndex.markBooked(availability);
+				throw e;
+			}
+			holdExpiry.schedule(hold);
+			return hold;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Give up the student's hold on the slot early.
+	 * @return false if the student held no such slot
+	 */
+	public boolean release(Student student, Availability availability) {
+		if (!bookingService.releaseHold(student, availability)) {
+			return false;
+		}
+		holdExpiry.cancel(availability.getId());
+		return true;
+	}
+
+	/**
+	 * Whether the slot, as loaded, is held for the student; the index only knows it is taken.
+	 */
+	private static boolean isHeldFor(Availability availability, Student student) {
+		return availability.getHeldBy() != null && availability.getHeldBy().getId().equals(student.getId())
+				&& availability.getHeldUntil().isAfter(LocalDateTime.now(ZoneOffset.UTC));
+	}
+
+	ReentrantLock lockFor(Long availabilityId) {
+		return locks[stripeOf(availabilityId)];
+	}
+
+	static int stripeOf(Long availabilityId) {
+		int h = availabilityId.hashCode();
+		h ^= (h >>> 16);
+		return h & (STRIPES - 1);
+	}
+
+	private boolean tryLock(ReentrantLock lock) {
+		try {
+			return lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+}
@@ -1,24 +1,46 @@
 package com.pivottech.booking.service;
 
 import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.AvailabilityRule;
+import com.pivottech.booking.model.CalendarEvent;
+import com.pivottech.booking.model.FreeBusy;
+import com.pivottech.booking.model.Hold;
 import com.pivottech.booking.model.Instructor;
 import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationCursor;
+import com.pivottech.booking.model.ReservationPage;
+import com.pivottech.booking.model.ReservationView;
 import com.pivottech.booking.model.Student;
 import com.pivottech.booking.repository.AvailabilityRepository;
+import com.pivottech.booking.repository.AvailabilityRuleRepository;
 import com.pivottech.booking.repository.ReservationRepository;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import javax.transaction.Transactional;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class BookingService {
 
+	/** Latency of every public method, tagged with class and method by {@code TimedAspect}. */
+	static final String SERVICE_TIMER = "booking.service";
+
 	//	@VisibleForTesting
 
 	@Autowired
@@ -27,52 +49,362 @@ public class BookingService {
 	@Autowired
 	AvailabilityRepository availabilityRepository;
 
+	@Autowired
+	AvailabilityRuleRepository availabilityRuleRepository;
+
+	@Autowired
+	AvailabilityIndex availabilityIndex;
+
+	@Autowired
+	ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * Insert the reservation and claim the availability with a conditional UPDATE. If another
+	 * reservation got there first nothing is written and {@link SlotUnavailableException} is
+	 * thrown. Callers racing for the same slot should go through {@link BookingEngine}.
+	 */
 	@Transactional
+	@Timed(SERVICE_TIMER)
 	public Reservation createReservation(Student student, Availability availability, String description) {
 		Reservation toBeCreated = Reservation.builder().description(description).student(student)
 				.utcStartTime(availability.getUtcStartTime()).utcEndTime(availability.getUtcEndTime())
 				.availabilities(List.of(availability)).build();
 		Reservation saved = reservationRepository.save(toBeCreated);
-		availability.setReservation(saved);
-		availabilityRepository.save(availability);
+		// the claim bumps the row version behind Hibernate's back, so the (possibly managed)
+		// availability must not be modified here or its flush would fail the version check
+		if (availabilityRepository.claim(availability.getId(), availability.getUtcStartTime(), saved, student,
+				LocalDateTime.now(ZoneOffset.UTC)) == 0) {
+			throw new SlotUnavailableException(availability.getId());
+		}
+		availabilityIndex.markBooked(availability);
+		eventPublisher.publishEvent(CalendarEvent.of(CalendarEvent.Type.RESERVED,
+				availability.getInstructor().getId(), List.of(availability)));
 		return saved;
 	}
 
-	// public boolean deleteReservation(Long id) {
-	// Reservation toDelete = getReservationById(id);
-	// if (toDelete == null) {
-	// return false;
-	// }
-	// this.reservationRepository.delete(toDelete);
-	// return true;
-	// }
+	/**
+	 * One reservation over several availabilities of the same instructor, e.g. a two hour lesson
+	 * made of 30 minute slots, contiguous or not. All of them are claimed with a single
+	 * conditional UPDATE; if any was already taken the whole transaction, reservation included,
+	 * is rolled back with {@link SlotUnavailableException}. Callers should go through
+	 * {@link BookingEngine#reserveAll}.
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public Reservation createMultiSlotReservation(Student student, List<Availability> availabilities,
+			String description) {
+		List<Availability> sorted = new ArrayList<>(availabilities);
+		sorted.sort(Comparator.comparing(Availability::getUtcStartTime));
+		LocalDateTime firstStart = sorted.get(0).getUtcStartTime();
+		LocalDateTime lastStart = sorted.get(sorted.size() - 1).getUtcStartTime();
+		LocalDateTime end = sorted.stream().map(Availability::getUtcEndTime).max(Comparator.naturalOrder()).get();
+		Reservation toBeCreated = Reservation.builder().description(description).student(student)
+				.utcStartTime(firstStart).utcEndTime(end).availabilities(sorted).build();
+		Reservation saved = reservationRepository.save(toBeCreated);
+		List<Long> ids = sorted.stream().map(Availability::getId).collect(Collectors.toList());
+		if (availabilityRepository.claimAll(ids, firstStart, lastStart, saved, student,
+				LocalDateTime.now(ZoneOffset.UTC)) != ids.size()) {
+			throw new SlotUnavailableException(ids);
+		}
+		sorted.forEach(availabilityIndex::markBooked);
+		eventPublisher.publishEvent(CalendarEvent.of(CalendarEvent.Type.RESERVED,
+				sorted.get(0).getInstructor().getId(), sorted));
+		return saved;
+	}
+
+	/**
+	 * Keep the availability for the student until {@code heldUntil} with a conditional UPDATE,
+	 * like {@link #createReservation}: {@link SlotUnavailableException} if it is reserved or
+	 * someone else's hold hasn't run out. Holding it again extends the hold. Until the student
+	 * reserves it, releases it or the hold runs out, only they can reserve it. Callers should go
+	 * through {@link BookingEngine#hold}.
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public Hold holdAvailability(Student student, Availability availability, LocalDateTime heldUntil) {
+		if (availabilityRepository.hold(availability.getId(), availability.getUtcStartTime(), student, heldUntil,
+				LocalDateTime.now(ZoneOffset.UTC)) == 0) {
+			throw new SlotUnavailableException(availability.getId());
+		}
+		availabilityIndex.markBooked(availability);
+		eventPublisher.publishEvent(CalendarEvent.of(CalendarEvent.Type.HELD,
+				availability.getInstructor().getId(), List.of(availability)));
+		return new Hold(availability.getId(), availability.getUtcStartTime(), availability.getUtcEndTime(),
+				heldUntil);
+	}
+
+	/**
+	 * Give up the student's hold on the availability before it runs out.
+	 * @return false if the student held no such slot
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public boolean releaseHold(Student student, Availability availability) {
+		if (availabilityRepository.releaseHold(availability.getId(), availability.getUtcStartTime(), student) == 0) {
+			return false;
+		}
+		publishReleased(List.of(availability));
+		return true;
+	}
+
+	/**
+	 * Clear the holds among {@code holds} that have run out by now and weren't turned into a
+	 * reservation; holds extended since are left alone. Called by {@link HoldExpiry} for one
+	 * targeted batch at a time, there is no sweep over the table.
+	 * @return the number of slots freed
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public int expireHolds(Collection<Hold> holds) {
+		if (holds.isEmpty()) {
+			return 0;
+		}
+		List<Long> ids = holds.stream().map(Hold::getAvailabilityId).collect(Collectors.toList());
+		LocalDateTime firstStart = holds.stream().map(Hold::getUtcStartTime).min(Comparator.naturalOrder()).get();
+		LocalDateTime lastStart = holds.stream().map(Hold::getUtcStartTime).max(Comparator.naturalOrder()).get();
+		LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+		List<Availability> expired = availabilityRepository.findExpiredHolds(ids, firstStart, lastStart, now);
+		if (expired.isEmpty()) {
+			return 0;
+		}
+		List<Long> expiredIds = expired.stream().map(Availability::getId).collect(Collectors.toList());
+		int released = availabilityRepository.releaseExpiredHolds(expiredIds, firstStart, lastStart, now);
+		publishReleased(expired);
+		return released;
+	}
 
-	public List<Reservation> getStudentReservationsBetween(Student student, LocalDateTime from, LocalDateTime to) {
-		List<Reservation> results = reservationRepository.findByUsernameAndBetween(student.getId(), from, to);
+	/**
+	 * Cancel reservations and free their slots: one UPDATE detaches all their availabilities and
+	 * one DELETE removes them, however many there are. A {@link CalendarEvent.Type#RELEASED} and a
+	 * {@link SlotsFreedEvent} per instructor tell the {@link AvailabilityIndex}, open calendars and
+	 * the waitlist once this commits.
+	 * @return the number of reservations cancelled, ids that don't exist are skipped
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public int cancelReservations(Collection<Long> reservationIds) {
+		LocalDateTime from = null, to = null;
+		List<Long> ids = new ArrayList<>();
+		for (Reservation reservation : reservationRepository.findAllById(reservationIds)) {
+			ids.add(reservation.getId());
+			from = from == null || reservation.getUtcStartTime().isBefore(from) ? reservation.getUtcStartTime() : from;
+			to = to == null || reservation.getUtcEndTime().isAfter(to) ? reservation.getUtcEndTime() : to;
+		}
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		List<Availability> released = availabilityRepository.findByReservations(ids, from, to);
+		availabilityRepository.releaseAll(ids, from, to);
+		int cancelled = reservationRepository.deleteAllBetween(ids, from, to);
+		publishReleased(released);
+		return cancelled;
+	}
+
+	/**
+	 * Cancel every reservation holding a slot of the instructor that starts in [from, to), e.g.
+	 * when the instructor is ill, as a single {@link #cancelReservations}.
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public int cancelInstructorReservationsBetween(Instructor instructor, LocalDateTime from, LocalDateTime to) {
+		return cancelReservations(availabilityRepository.findReservationIdsBetween(instructor, from, to));
+	}
+
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
+	public List<ReservationView> getStudentReservationsBetween(Student student, LocalDateTime from, LocalDateTime to) {
+		List<ReservationView> results = reservationRepository.findByUsernameAndBetween(student.getId(), from, to);
 		return results;
 	}
 
-	public List<Reservation> getInstructorReservationsBetween(Instructor instructor, LocalDateTime from,
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
+	public List<ReservationView> getInstructorReservationsBetween(Instructor instructor, LocalDateTime from,
 			LocalDateTime to) {
-		List<Reservation> results = reservationRepository.findByInstructorAndBetween(instructor.getId(), from, to);
+		List<ReservationView> results = reservationRepository.findByInstructorAndBetween(instructor.getId(), from,
+				to);
 		return results;
 	}
 
+	/**
+	 * Up to {@code size} reservations of the student strictly after the cursor, in
+	 * (utcStartTime, id) order.
+	 */
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
+	public ReservationPage getStudentReservationPage(Student student, LocalDateTime from, LocalDateTime to,
+			ReservationCursor after, int size) {
+		List<ReservationView> results = reservationRepository.findPageByStudent(student.getId(), from, to,
+				after.getUtcStartTime(), after.getId(), PageRequest.of(0, size));
+		return toPage(results, size);
+	}
+
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
+	public ReservationPage getInstructorReservationPage(Instructor instructor, LocalDateTime from, LocalDateTime to,
+			ReservationCursor after, int size) {
+		List<ReservationView> results = reservationRepository.findPageByInstructor(instructor.getId(), from, to,
+				after.getUtcStartTime(), after.getId(), PageRequest.of(0, size));
+		return toPage(results, size);
+	}
+
+	private static ReservationPage toPage(List<ReservationView> results, int size) {
+		String next = results.size() < size ? null
+				: ReservationCursor.after(results.get(results.size() - 1)).encode();
+		return new ReservationPage(results, next);
+	}
+
+	/**
+	 * Hand every reservation of the student in the window to {@code action} as rows come off a
+	 * JDBC cursor, without collecting them in memory.
+	 */
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
+	public void forEachStudentReservationBetween(Student student, LocalDateTime from, LocalDateTime to,
+			Consumer<ReservationView> action) {
+		try (Stream<ReservationView> results = reservationRepository.streamByStudent(student.getId(), from, to)) {
+			results.forEach(action);
+		}
+	}
+
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
+	public void forEachInstructorReservationBetween(Instructor instructor, LocalDateTime from, LocalDateTime to,
+			Consumer<ReservationView> action) {
+		try (Stream<ReservationView> results = reservationRepository.streamByInstructor(instructor.getId(), from,
+				to)) {
+			results.forEach(action);
+		}
+	}
+
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
 	public Reservation getReservationById(Long id) {
-		Optional<Reservation> resv = reservationRepository.findById(id);
+		Optional<Reservation> resv = reservationRepository.findWithAvailabilitiesById(id);
 		return resv.orElse(null);
 	}
 
+	@Timed(SERVICE_TIMER)
 	public List<Availability> findAvailabilitiesBetween(Instructor instructor, LocalDateTime from, LocalDateTime to) {
-		return availabilityRepository.findAvailableBetween(instructor, from, to);
+		return availabilityIndex.findAvailableBetween(instructor, from, to);
 	}
 
+	/**
+	 * One free and one busy {@link DayBitmap} per day from {@code fromDate} to {@code toDate},
+	 * both inclusive.
+	 */
+	@Timed(SERVICE_TIMER)
+	public FreeBusy getFreeBusy(Instructor instructor, LocalDate fromDate, LocalDate toDate) {
+		List<FreeBusy.Day> days = new ArrayList<>();
+		for (LocalDate day = fromDate; !day.isAfter(toDate); day = day.plusDays(1)) {
+			AvailabilityIndex.FreeBusyDay freeBusy = availabilityIndex.freeBusyOn(instructor, day);
+			days.add(new FreeBusy.Day(day, freeBusy.getFree().toByteArray(), freeBusy.getBusy().toByteArray()));
+		}
+		return new FreeBusy(DayBitmap.QUANTUM_MINUTES, days);
+	}
+
+	/**
+	 * {@link #getFreeBusy} of a group of instructors, combined a word at a time: free where all of
+	 * them are free ({@code all}, e.g. to teach a lesson together) or where any of them is
+	 * ({@code !all}); busy where one of them has a reservation and the group isn't free.
+	 */
+	@Timed(SERVICE_TIMER)
+	public FreeBusy getGroupFreeBusy(Collection<Instructor> instructors, LocalDate fromDate, LocalDate toDate,
+			boolean all) {
+		List<FreeBusy.Day> days = new ArrayList<>();
+		for (LocalDate day = fromDate; !day.isAfter(toDate); day = day.plusDays(1)) {
+			DayBitmap free = null;
+			DayBitmap busy = new DayBitmap();
+			for (Instructor instructor : instructors) {
+				AvailabilityIndex.FreeBusyDay freeBusy = availabilityIndex.freeBusyOn(instructor, day);
+				free = free == null ? freeBusy.getFree()
+						: all ? free.and(freeBusy.getFree()) : free.or(freeBusy.getFree());
+				busy = busy.or(freeBusy.getBusy());
+			}
+			free = free == null ? new DayBitmap() : free;
+			days.add(new FreeBusy.Day(day, free.toByteArray(), busy.andNot(free).toByteArray()));
+		}
+		return new FreeBusy(DayBitmap.QUANTUM_MINUTES, days);
+	}
+
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
 	public Availability getAvailabilityById(Long id) {
 		return availabilityRepository.findById(id).orElse(null);
 	}
 
+	/**
+	 * Turn a slot listed with a negative id (see {@link AvailabilityRule#virtualId}) into a stored
+	 * {@link Availability}, so it can be claimed like any other. As in the listing, a stored slot
+	 * starting at the same time replaces the rule's, whatever its length.
+	 * @return the stored slot, or null if no rule generates that id or a stored slot replaces it
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public Availability materializeAvailability(long virtualId) {
+		AvailabilityRule rule = availabilityRuleRepository.findById(AvailabilityRule.ruleIdOf(virtualId)).orElse(null);
+		LocalDateTime start = AvailabilityRule.startOf(virtualId);
+		if (rule == null || !rule.generates(start)) {
+			return null;
+		}
+		Long instructorId = rule.getInstructor().getId();
+		LocalDateTime end = start.plus(rule.getSlotDuration());
+		Availability stored = availabilityRepository.findSlot(instructorId, start, end);
+		if (stored != null) {
+			// materialized before, maybe already reserved: the claim decides
+			return stored;
+		}
+		if (availabilityRepository.existsByInstructorIdAndUtcStartTime(instructorId, start)) {
+			// e.g. a longer slot stored at that time, the id is stale or made up
+			return null;
+		}
+		if (availabilityRepository.insertIfAbsent(instructorId, start, end) == 0) {
+			// materialized by a concurrent request
+			return availabilityRepository.findSlot(instructorId, start, end);
+		}
+		stored = availabilityRepository.findSlot(instructorId, start, end);
+		availabilityIndex.addAll(List.of(stored));
+		return stored;
+	}
+
+	@Transactional
+	@Timed(SERVICE_TIMER)
+	public AvailabilityRule createAvailabilityRule(Instructor instructor, AvailabilityRule rule) {
+		rule.setInstructor(instructor);
+		AvailabilityRule saved = availabilityRuleRepository.save(rule);
+		// the cached rules of the instructor are stale now
+		Transactions.afterCommit(() -> availabilityIndex.invalidate(instructor.getId()));
+		eventPublisher.publishEvent(new SlotsFreedEvent(instructor.getId()));
+		eventPublisher.publishEvent(new CalendarEvent(CalendarEvent.Type.CREATED, instructor.getId(), List.of()));
+		return saved;
+	}
+
+	@Transactional(readOnly = true)
+	@Timed(SERVICE_TIMER)
+	public List<AvailabilityRule> getAvailabilityRules(Instructor instructor) {
+		return availabilityRuleRepository.findByInstructor(instructor.getId());
+	}
+
+	/**
+	 * Split [fromUtc, toUtc] into back-to-back slots of the given duration and insert them in
+	 * JDBC batches (see {@link AvailabilityRepository#insertAll}).
+	 */
+	@Transactional
+	@Timed(SERVICE_TIMER)
 	public Iterable<Availability> createAvailability(Instructor instructor, LocalDateTime fromUtc, LocalDateTime toUtc,
 			Duration duration) {
+		List<Availability> saved = availabilityRepository.insertAll(generateSlots(instructor, fromUtc, toUtc, duration));
+		availabilityIndex.addAll(saved);
+		eventPublisher.publishEvent(new SlotsFreedEvent(instructor.getId()));
+		eventPublisher.publishEvent(CalendarEvent.of(CalendarEvent.Type.CREATED, instructor.getId(), saved));
+		return saved;
+	}
+
+	static List<Availability> generateSlots(Instructor instructor, LocalDateTime fromUtc, LocalDateTime toUtc,
+			Duration duration) {
+		if (duration.isZero() || duration.isNegative()) {
+			throw new IllegalArgumentException("duration must be positive");
+		}
 		List<Availability> toBeCreated = new ArrayList<>();
 		LocalDateTime start = fromUtc, end = fromUtc.plus(duration);
 		while (end.isBefore(toUtc) || end.isEqual(toUtc)) {
@@ -80,8 +412,20 @@ public class BookingService {
 			start = end;
 			end = start.plus(duration);
 		}
-		Iterable<Availability> saved = availabilityRepository.saveAll(toBeCreated);
-		return saved;
+		return toBeCreated;
+	}
+
+	/**
+	 * A {@link CalendarEvent.Type#RELEASED} and a {@link SlotsFreedEvent} per instructor, which
+	 * tell the {@link AvailabilityIndex}, open calendars and the waitlist once this commits.
+	 */
+	private void publishReleased(List<Availability> released) {
+		Map<Long, List<Availability>> byInstructor = released.stream()
+				.collect(Collectors.groupingBy(a -> a.getInstructor().getId()));
+		byInstructor.forEach((instructorId, slots) -> {
+			eventPublisher.publishEvent(CalendarEvent.of(CalendarEvent.Type.RELEASED, instructorId, slots));
+			eventPublisher.publishEvent(new SlotsFreedEvent(instructorId));
+		});
 	}
 
 }
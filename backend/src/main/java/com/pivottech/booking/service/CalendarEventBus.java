@@ -0,0 +1,222 @@
+package com.pivottech.booking.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pivottech.booking.model.CalendarEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Pushes {@link CalendarEvent}s to open calendars as server-sent events, so they don't have
+ * to poll.
+ * <p>{@link BookingService} publishes the events as Spring application events inside its
+ * transactions. They are handed to this replica's subscribers once the transaction commits, and
+ * to the other replicas' through {@link ClusterNotifier} on the {@value #CHANNEL} channel, which
+ * also only fires on commit.
+ * <p>Students get their own stream, on which a {@link WaitlistFulfilledEvent} arrives as a
+ * {@code fulfilled} event. It travels between replicas on the {@value #WAITLIST_CHANNEL}
+ * channel, as it is published after the reservation committed and the student's stream may be
+ * open on any replica.
+ * <p>All writes to the emitters happen on a single daemon thread, so neither a committing request
+ * nor the notification listener waits for a slow client. The same thread sends a comment every
+ * {@code booking.calendar-events.heartbeat-seconds}, which keeps proxies from closing idle
+ * streams and finds clients that are gone.
+ */
+@Log4j2
+@Component
+public class CalendarEventBus {
+
+	static final String CHANNEL = "calendar";
+
+	static final String WAITLIST_CHANNEL = "waitlist_fulfilled";
+
+	final ClusterNotifier clusterNotifier;
+
+	final ObjectMapper objectMapper;
+
+	final long timeoutMillis;
+
+	/** {@link #calendar} or {@link #student} key to its open streams. */
+	private final ConcurrentHashMap<String, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+	private final AtomicInteger subscribers = new AtomicInteger();
+
+	private final ScheduledExecutorService sender;
+
+	@Autowired
+	public CalendarEventBus(ClusterNotifier clusterNotifier, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			@Value("${booking.calendar-events.timeout-minutes:30}") long timeoutMinutes,
+			@Value("${booking.calendar-events.heartbeat-seconds:15}") long heartbeatSeconds) {
+		this.clusterNotifier = clusterNotifier;
+		this.objectMapper = objectMapper;
+		this.timeoutMillis = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+		this.sender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "calendar-events");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sender.scheduleWithFixedDelay(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+		Gauge.builder("booking.calendar-events.subscribers", subscribers, AtomicInteger::get)
+				.description("open calendar and waitlist event streams on this replica").register(meterRegistry);
+		clusterNotifier.subscribe(CHANNEL, this::receive);
+		clusterNotifier.subscribe(WAITLIST_CHANNEL, this::receiveFulfilled);
+	}
+
+	@PreDestroy
+	void stop() {
+		sender.shutdownNow();
+		emitters.values().forEach(set -> set.forEach(SseEmitter::complete));
+	}
+
+	/**
+	 * Open a stream of the instructor's calendar changes. The client reconnects after
+	 * {@code booking.calendar-events.timeout-minutes} (EventSource does so by itself) and should
+	 * reload the calendar then, events in between are not replayed.
+	 */
+	public SseEmitter subscribe(Long instructorId) {
+		return subscribe(instructorId, new SseEmitter(timeoutMillis));
+	}
+
+	SseEmitter subscribe(Long instructorId, SseEmitter emitter) {
+		return open(calendar(instructorId), emitter);
+	}
+
+	/**
+	 * Open a stream of the student's fulfilled waitlist entries. Like the calendar streams it
+	 * times out and is not replayed, the student's reservations are the record.
+	 */
+	public SseEmitter subscribeStudent(String username) {
+		return subscribeStudent(username, new SseEmitter(timeoutMillis));
+	}
+
+	SseEmitter subscribeStudent(String username, SseEmitter emitter) {
+		return open(student(username), emitter);
+	}
+
+	private SseEmitter open(String key, SseEmitter emitter) {
+		// compute() so the heartbeat can't drop the set as empty while the emitter is being added
+		emitters.compute(key, (k, set) -> {
+			Set<SseEmitter> open = set != null ? set : new CopyOnWriteArraySet<>();
+			open.add(emitter);
+			return open;
+		});
+		subscribers.incrementAndGet();
+		Runnable remove = () -> {
+			Set<SseEmitter> set = emitters.get(key);
+			if (set != null && set.remove(emitter)) {
+				subscribers.decrementAndGet();
+			}
+		};
+		emitter.onCompletion(remove);
+		emitter.onTimeout(remove);
+		emitter.onError(e -> remove.run());
+		return emitter;
+	}
+
+	@EventListener
+	public void onCalendarEvent(CalendarEvent event) {
+		try {
+			clusterNotifier.publish(CHANNEL, objectMapper.writeValueAsString(event));
+		}
+		catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+		Transactions.afterCommit(() -> sender.execute(() -> deliver(event)));
+	}
+
+	@EventListener
+	public void onWaitlistFulfilled(WaitlistFulfilledEvent event) {
+		try {
+			clusterNotifier.publish(WAITLIST_CHANNEL, objectMapper.writeValueAsString(event));
+		}
+		catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+		Transactions.afterCommit(() -> sender.execute(() -> deliver(event)));
+	}
+
+	private void receive(String payload) {
+		try {
+			CalendarEvent event = objectMapper.readValue(payload, CalendarEvent.class);
+			sender.execute(() -> deliver(event));
+		}
+		catch (IOException e) {
+			log.warn("unreadable calendar event: {}", payload, e);
+		}
+	}
+
+	private void receiveFulfilled(String payload) {
+		try {
+			WaitlistFulfilledEvent event = objectMapper.readValue(payload, WaitlistFulfilledEvent.class);
+			sender.execute(() -> deliver(event));
+		}
+		catch (IOException e) {
+			log.warn("unreadable waitlist event: {}", payload, e);
+		}
+	}
+
+	void deliver(CalendarEvent event) {
+		deliver(calendar(event.getInstructorId()), event.getType().name().toLowerCase(Locale.ROOT), event);
+	}
+
+	void deliver(WaitlistFulfilledEvent event) {
+		deliver(student(event.getStudentUsername()), "fulfilled", event.getReservation());
+	}
+
+	private void deliver(String key, String name, Object data) {
+		Set<SseEmitter> set = emitters.get(key);
+		if (set == null) {
+			return;
+		}
+		for (SseEmitter emitter : set) {
+			// a builder can only be sent once
+			send(emitter, SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+		}
+	}
+
+	void heartbeat() {
+		for (String key : emitters.keySet()) {
+			for (SseEmitter emitter : emitters.getOrDefault(key, Set.of())) {
+				send(emitter, SseEmitter.event().comment("heartbeat"));
+			}
+			emitters.computeIfPresent(key, (k, set) -> set.isEmpty() ? null : set);
+		}
+	}
+
+	private static String calendar(Long instructorId) {
+		return "calendar:" + instructorId;
+	}
+
+	private static String student(String username) {
+		return "student:" + username;
+	}
+
+	private void send(SseEmitter emitter, SseEmitter.SseEventBuilder message) {
+		try {
+			emitter.send(message);
+		}
+		catch (IOException | IllegalStateException e) {
+			// client gone or stream already completed; the completion callback unregisters it
+			emitter.completeWithError(e);
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.pivottech.booking.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * <p>Fans small messages out to the other backend replicas through Postgres
+ * {@code LISTEN/NOTIFY}, e.g. to invalidate in-memory caches.
+ * <p>{@link #publish} goes through {@code pg_notify} on the current transaction, so other
+ * replicas are only told once the change is committed. A single daemon thread holds a dedicated
+ * connection, LISTENs on every subscribed channel and hands payloads sent by other replicas to
+ * the subscribers. Messages this replica published itself are skipped. On anything but Postgres
+ * (e.g. H2 in tests) publishing and subscribing are no-ops.
+ */
+@Log4j2
+@Component
+public class ClusterNotifier {
+
+	static final int POLL_TIMEOUT_MILLIS = 500;
+
+	static final long RECONNECT_DELAY_MILLIS = 5000;
+
+	/** Identifies this replica in published payloads. */
+	final String nodeId = UUID.randomUUID().toString();
+
+	final DataSource dataSource;
+
+	final JdbcTemplate jdbcTemplate;
+
+	private final Map<String, List<Consumer<String>>> subscribers = new ConcurrentHashMap<>();
+
+	private volatile boolean enabled;
+
+	private volatile boolean running;
+
+	private Thread listener;
+
+	@Autowired
+	public ClusterNotifier(DataSource dataSource, JdbcTemplate jdbcTemplate) {
+		this.dataSource = dataSource;
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	@PostConstruct
+	void start() {
+		try (Connection connection = dataSource.getConnection()) {
+			enabled = "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName());
+		}
+		catch (SQLException e) {
+			log.warn("cluster notifications disabled, database not reachable: {}", e.getMessage());
+			return;
+		}
+		if (!enabled) {
+			return;
+		}
+		running = true;
+		listener = new Thread(this::listen, "cluster-notifier");
+		listener.setDaemon(true);
+		listener.start();
+	}
+
+	@PreDestroy
+	void stop() {
+		running = false;
+		if (listener != null) {
+			listener.interrupt();
+		}
+	}
+
+	/**
+	 * Deliver {@code payload} to the {@code channel} subscribers of every other replica once the
+	 * current transaction (if any) commits.
+	 */
+	public void publish(String channel, String payload) {
+		if (!enabled) {
+			return;
+		}
+		jdbcTemplate.query("SELECT pg_notify(?, ?)", (ResultSetExtractor<Void>) rs -> null, channel,
+				nodeId + ":" + payload);
+	}
+
+	/**
+	 * Register a callback for payloads published on {@code channel} by other replicas. Callbacks
+	 * run on the listener thread and must not block.
+	 */
+	public void subscribe(String channel, Consumer<String> subscriber) {
+		subscribers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(subscriber);
+	}
+
+	private void listen() {
+		while (running) {
+			try (Connection connection = dataSource.getConnection()) {
+				connection.setAutoCommit(true);
+				PGConnection pgConnection = connection.unwrap(PGConnection.class);
+				Set<String> listening = new HashSet<>();
+				while (running) {
+					for (String channel : subscribers.keySet()) {
+						if (listening.add(channel)) {
+							try (Statement statement = connection.createStatement()) {
+								statement.execute("LISTEN " + channel);
+							}
+						}
+					}
+					PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+					if (notifications != null) {
+						for (PGNotification notification : notifications) {
+							dispatch(notification.getName(), notification.getParameter());
+						}
+					}
+				}
+			}
+			catch (SQLException e) {
+				if (!running) {
+					return;
+				}
+				log.warn("cluster notification listener lost its connection, retrying: {}", e.getMessage());
+				try {
+					Thread.sleep(RECONNECT_DELAY_MILLIS);
+				}
+				catch (InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void dispatch(String channel, String message) {
+		int separator = message.indexOf(':');
+		if (separator < 0 || message.substring(0, separator).equals(nodeId)) {
+			return;
+		}
+		String payload = message.substring(separator + 1);
+		for (Consumer<String> subscriber : subscribers.getOrDefault(channel, List.of())) {
+			try {
+				subscriber.accept(payload);
+			}
+			catch (RuntimeException e) {
+				log.error("cluster notification subscriber failed on {}", channel, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.pivottech.booking.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * <p>One bit per {@value #QUANTUM_MINUTES} minute quantum of a UTC day, 288 bits in five longs.
+ * Bit {@code q} stands for [{@code q * 5} min, {@code (q + 1) * 5} min) after midnight.
+ * <p>Checking a quantum is a single mask, checking or filling a range and combining the
+ * calendars of several instructors ({@link #and}, {@link #or}) work a 64-bit word at a time.
+ * Not thread-safe while being filled; {@link AvailabilityIndex} only hands out finished ones.
+ */
+public final class DayBitmap {
+
+	public static final int QUANTUM_MINUTES = 5;
+
+	public static final int QUANTA = 24 * 60 / QUANTUM_MINUTES;
+
+	private final long[] words = new long[(QUANTA + 63) / 64];
+
+	/**
+	 * Quantum containing {@code time}, clamped to [0, {@link #QUANTA}].
+	 */
+	public static int quantumAtOrBefore(LocalDateTime dayStart, LocalDateTime time) {
+		return clamp(Math.floorDiv(minutesAfter(dayStart, time), QUANTUM_MINUTES));
+	}
+
+	/**
+	 * First quantum starting at or after {@code time}, clamped to [0, {@link #QUANTA}].
+	 */
+	public static int quantumAtOrAfter(LocalDateTime dayStart, LocalDateTime time) {
+		return clamp(-Math.floorDiv(-minutesAfter(dayStart, time), QUANTUM_MINUTES));
+	}
+
+	public boolean get(int quantum) {
+		return (words[quantum >>> 6] & 1L << quantum) != 0;
+	}
+
+	/**
+	 * Set quanta [from, to).
+	 */
+	public DayBitmap set(int from, int to) {
+		if (from >= to) {
+			return this;
+		}
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		// shift distances are taken mod 64, so -1L >>> -to keeps the bits below `to` in its word
+		long firstMask = -1L << from, lastMask = -1L >>> -to;
+		if (first == last) {
+			words[first] |= firstMask & lastMask;
+			return this;
+		}
+		words[first] |= firstMask;
+		for (int i = first + 1; i < last; i++) {
+			words[i] = -1L;
+		}
+		words[last] |= lastMask;
+		return this;
+	}
+
+	/**
+	 * Whether every quantum in [from, to) is set; true for an empty range.
+	 */
+	public boolean allSet(int from, int to) {
+		if (from >= to) {
+			return true;
+		}
+		int first = from >>> 6, last = (to - 1) >>> 6;
+		for (int i = first; i <= last; i++) {
+			long mask = -1L;
+			if (i == first) {
+				mask &= -1L << from;
+			}
+			if (i == last) {
+				mask &= -1L >>> -to;
+			}
+			if ((words[i] & mask) != mask) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isEmpty() {
+		for (long word : words) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Quanta set in both, e.g. when all instructors of a group are free.
+	 */
+	public DayBitmap and(DayBitmap other) {
+		DayBitmap result = new DayBitmap();
+		for (int i = 0; i < words.length; i++) {
+			result.words[i] = words[i] & other.words[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Quanta set in either, e.g. when any instructor of a group is free.
+	 */
+	public DayBitmap or(DayBitmap other) {
+		DayBitmap result = new DayBitmap();
+		for (int i = 0; i < words.length; i++) {
+			result.words[i] = words[i] | other.words[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Quanta set here but not in {@code other}.
+	 */
+	public DayBitmap andNot(DayBitmap other) {
+		DayBitmap result = new DayBitmap();
+		for (int i = 0; i < words.length; i++) {
+			result.words[i] = words[i] & ~other.words[i];
+		}
+		return result;
+	}
+
+	/**
+	 * The bits as {@code QUANTA / 8} bytes, quantum {@code q} being bit {@code q % 8} (least
+	 * significant first) of byte {@code q / 8}.
+	 */
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[QUANTA / 8];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) * 8));
+		}
+		return bytes;
+	}
+
+	private static long minutesAfter(LocalDateTime dayStart, LocalDateTime time) {
+		return Duration.between(dayStart, time).toMinutes();
+	}
+
+	private static int clamp(long quantum) {
+		return (int) Math.max(0, Math.min(QUANTA, quantum));
+	}
+
+}
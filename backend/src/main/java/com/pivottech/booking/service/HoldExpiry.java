@@ -0,0 +1,115 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Hold;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Frees slots whose hold ({@link BookingEngine#hold}) ran out, so calendars, the
+ * {@link AvailabilityIndex} and the waitlist hear about them without anyone polling the
+ * database for stale holds.
+ * <p>Every hold made on this replica goes into a {@link TimingWheel} of
+ * {@code booking.holds.wheel-size} buckets, advanced every {@code booking.holds.tick-millis} on a
+ * single daemon thread. The holds falling due in a tick are expired together by
+ * {@link BookingService#expireHolds}, one query and one UPDATE on just their rows. Reserving or
+ * releasing a slot cancels its timeout.
+ * <p>This is only about telling everyone early: the claim treats a hold that has run out as
+ * gone, so a slot whose timeout was lost (replica restarted, expiry failed) can still be booked,
+ * and the other replicas' indexes see it free after their TTL. Pending timeouts are published as
+ * {@code booking.holds.pending}.
+ */
+@Log4j2
+@Component
+public class HoldExpiry {
+
+	/** Holds expired per UPDATE, keeps the IN list bounded when many fall due in one tick. */
+	static final int BATCH_SIZE = 1000;
+
+	final BookingService bookingService;
+
+	private final TimingWheel<Hold> wheel;
+
+	/** Availability id to the timeout of its latest hold. */
+	private final ConcurrentHashMap<Long, TimingWheel.Timeout<Hold>> timeouts = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService ticker;
+
+	@Autowired
+	public HoldExpiry(BookingService bookingService, MeterRegistry meterRegistry,
+			@Value("${booking.holds.tick-millis:1000}") long tickMillis,
+			@Value("${booking.holds.wheel-size:4096}") int wheelSize) {
+		this.bookingService = bookingService;
+		this.wheel = new TimingWheel<>(tickMillis, wheelSize);
+		this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hold-expiry");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// at a fixed rate, a tick delayed by a slow expiry is caught up with right after
+		ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+		Gauge.builder("booking.holds.pending", timeouts, ConcurrentHashMap::size)
+				.description("slot holds waiting to expire on this replica").register(meterRegistry);
+	}
+
+	@PreDestroy
+	void stop() {
+		ticker.shutdownNow();
+	}
+
+	/**
+	 * Expire the hold at its {@code heldUntil}, replacing the timeout of an earlier hold on the
+	 * same slot.
+	 */
+	public void schedule(Hold hold) {
+		long delayMillis = Duration.between(LocalDateTime.now(ZoneOffset.UTC), hold.getHeldUntil()).toMillis();
+		TimingWheel.Timeout<Hold> previous = timeouts.put(hold.getAvailabilityId(), wheel.schedule(hold, delayMillis));
+		if (previous != null) {
+			previous.cancel();
+		}
+	}
+
+	/**
+	 * Forget the hold on the slot, if any, e.g. once it is reserved.
+	 */
+	public void cancel(Long availabilityId) {
+		TimingWheel.Timeout<Hold> timeout = timeouts.remove(availabilityId);
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
+
+	void tick() {
+		List<Hold> expired = wheel.advance();
+		if (expired.isEmpty()) {
+			return;
+		}
+		// a newer hold on the same slot keeps its own timeout
+		expired.forEach(hold -> timeouts.computeIfPresent(hold.getAvailabilityId(),
+				(id, timeout) -> timeout.item == hold ? null : timeout));
+		for (int from = 0; from < expired.size(); from += BATCH_SIZE) {
+			List<Hold> batch = expired.subList(from, Math.min(expired.size(), from + BATCH_SIZE));
+			try {
+				bookingService.expireHolds(batch);
+			}
+			catch (RuntimeException e) {
+				// the slots can still be claimed, they just aren't announced as free
+				log.warn("failed to expire {} holds", batch.size(), e);
+			}
+		}
+	}
+
+}
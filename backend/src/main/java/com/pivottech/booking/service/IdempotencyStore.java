@@ -0,0 +1,107 @@
+package com.pivottech.booking.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * <p>Remembers the outcome of requests sent with an {@code Idempotency-Key} header, so a client
+ * retrying after a lost response gets the original result instead of running the request again.
+ * <p>Keys are scoped by the caller (user and endpoint) and kept in a Caffeine cache of at most
+ * {@code booking.idempotency.maximum-size} entries for {@code booking.idempotency.ttl-minutes},
+ * published as the {@code cache.*} meters tagged {@code cache=idempotency}. The first request
+ * with a key runs; retries that arrive while it is still running wait for it. Results and
+ * client errors ({@link ResponseStatusException}, {@link SlotUnavailableException}) are replayed,
+ * anything else is forgotten so a retry can run again. Reusing a key for a different request
+ * body is answered with 422.
+ * <p>The store is per replica: a retry routed to another replica runs again, where the unique
+ * indexes still turn a duplicate into a 409.
+ */
+@Component
+public class IdempotencyStore {
+
+	public static final String HEADER = "Idempotency-Key";
+
+	static final int MAX_KEY_LENGTH = 255;
+
+	private final Cache<String, Entry> entries;
+
+	@Autowired
+	public IdempotencyStore(MeterRegistry meterRegistry,
+			@Value("${booking.idempotency.maximum-size:100000}") long maximumSize,
+			@Value("${booking.idempotency.ttl-minutes:60}") long ttlMinutes) {
+		this.entries = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+				.recordStats().build();
+		CaffeineCacheMetrics.monitor(meterRegistry, entries, "idempotency");
+	}
+
+	/**
+	 * Run {@code action} once per {@code scope} and {@code key}; without a key it just runs.
+	 * @param request the request body, compared with {@code equals} against the first one
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String scope, String key, Object request, Supplier<T> action) {
+		if (key == null) {
+			return action.get();
+		}
+		if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+					HEADER + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+		}
+		String scopedKey = scope + "\n" + key;
+		Entry entry = new Entry(request);
+		Entry existing = entries.asMap().putIfAbsent(scopedKey, entry);
+		if (existing != null) {
+			if (!existing.request.equals(request)) {
+				throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+						HEADER + " was already used for a different request");
+			}
+			try {
+				return (T) existing.outcome.join();
+			}
+			catch (CompletionException e) {
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw (RuntimeException) e.getCause();
+			}
+		}
+		try {
+			T result = action.get();
+			entry.outcome.complete(result);
+			return result;
+		}
+		catch (RuntimeException | Error e) {
+			// complete either way, retries may be waiting on it
+			if (!(e instanceof ResponseStatusException || e instanceof SlotUnavailableException)) {
+				entries.asMap().remove(scopedKey, entry);
+			}
+			entry.outcome.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private static final class Entry {
+
+		final Object request;
+
+		final CompletableFuture<Object> outcome = new CompletableFuture<>();
+
+		Entry(Object request) {
+			this.request = request;
+		}
+
+	}
+
+}
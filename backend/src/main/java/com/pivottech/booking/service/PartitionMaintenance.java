@@ -0,0 +1,193 @@
+package com.pivottech.booking.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Keeps the monthly partitions of the {@code availability} and {@code reservation} tables (see
+ * db/partition-tables.sql) in shape, once at startup and then daily:
+ * <ul>
+ * <li>partitions for the current and the next {@code booking.partitions.months-ahead} months are
+ * created, taking over any of their rows that went to the default partition</li>
+ * <li>partitions older than {@code booking.partitions.retention-months} are detached and moved to
+ * the {@code booking.partitions.archive-schema} schema, where they can be dumped and dropped</li>
+ * </ul>
+ * A run holds a transaction-level advisory lock, so only one replica does the work. Tables that
+ * aren't partitioned (e.g. a fresh schema from Hibernate, or H2) are left alone.
+ */
+@Log4j2
+@Component
+public class PartitionMaintenance {
+
+	static final List<String> TABLES = List.of("availability", "reservation");
+
+	/** {@code pg_try_advisory_xact_lock} key, "booking" in ASCII. */
+	static final long LOCK_KEY = 0x626f6f6b696e67L;
+
+	static final String LOCK_SQL = "SELECT pg_try_advisory_xact_lock(?)";
+
+	static final String IS_PARTITIONED_SQL = "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table "
+			+ "WHERE partrelid = to_regclass(?))";
+
+	static final String PARTITIONS_SQL = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+			+ "WHERE i.inhparent = ?::regclass";
+
+	static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("'_p'yyyy_MM");
+
+	final DataSource dataSource;
+
+	final JdbcTemplate jdbcTemplate;
+
+	final TransactionTemplate transactionTemplate;
+
+	@Value("${booking.partitions.months-ahead:3}")
+	int monthsAhead = 3;
+
+	/** 0 keeps every partition attached. */
+	@Value("${booking.partitions.retention-months:24}")
+	int retentionMonths = 24;
+
+	@Value("${booking.partitions.archive-schema:archive}")
+	String archiveSchema = "archive";
+
+	private ScheduledExecutorService scheduler;
+
+	@Autowired
+	public PartitionMaintenance(DataSource dataSource, JdbcTemplate jdbcTemplate,
+			PlatformTransactionManager transactionManager) {
+		this.dataSource = dataSource;
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	@PostConstruct
+	void start() {
+		try (Connection connection = dataSource.getConnection()) {
+			if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+				return;
+			}
+		}
+		catch (SQLException e) {
+			log.warn("partition maintenance disabled, database not reachable: {}", e.getMessage());
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "partition-maintenance");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				maintain(YearMonth.now(ZoneOffset.UTC));
+			}
+			catch (RuntimeException e) {
+				log.error("partition maintenance failed, retrying tomorrow", e);
+			}
+		}, 0, 1, TimeUnit.DAYS);
+	}
+
+	@PreDestroy
+	void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	void maintain(YearMonth current) {
+		transactionTemplate.executeWithoutResult(status -> {
+			if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(LOCK_SQL, Boolean.class, LOCK_KEY))) {
+				return; // another replica is at it
+			}
+			for (String table : TABLES) {
+				if (!isPartitioned(table)) {
+					log.debug("{} is not partitioned, see db/partition-tables.sql", table);
+					continue;
+				}
+				Set<String> partitions = new HashSet<>(jdbcTemplate.queryForList(PARTITIONS_SQL, String.class, table));
+				for (int i = 0; i <= monthsAhead; i++) {
+					YearMonth month = current.plusMonths(i);
+					if (!partitions.contains(table + SUFFIX.format(month))) {
+						createPartition(table, month, partitions.contains(table + "_default"));
+					}
+				}
+				if (retentionMonths > 0) {
+					YearMonth oldestKept = current.minusMonths(retentionMonths);
+					for (String partition : partitions) {
+						YearMonth month = monthOf(table, partition);
+						if (month != null && month.isBefore(oldestKept)) {
+							archivePartition(table, partition);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private boolean isPartitioned(String table) {
+		return Boolean.TRUE.equals(jdbcTemplate.queryForObject(IS_PARTITIONED_SQL, Boolean.class, table));
+	}
+
+	/**
+	 * Built as a plain table and attached, so rows that went to the default partition can be
+	 * moved into it first: attaching checks the default partition holds nothing of the month.
+	 */
+	private void createPartition(String table, YearMonth month, boolean hasDefault) {
+		String partition = table + SUFFIX.format(month);
+		String from = month.atDay(1).toString();
+		String to = month.plusMonths(1).atDay(1).toString();
+		jdbcTemplate.execute("CREATE TABLE " + partition + " (LIKE " + table
+				+ " INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+		if (hasDefault) {
+			jdbcTemplate.execute("WITH moved AS (DELETE FROM " + table + "_default WHERE utc_start_time >= '" + from
+					+ "' AND utc_start_time < '" + to + "' RETURNING *) INSERT INTO " + partition
+					+ " SELECT * FROM moved");
+		}
+		jdbcTemplate.execute("ALTER TABLE " + table + " ATTACH PARTITION " + partition + " FOR VALUES FROM ('" + from
+				+ "') TO ('" + to + "')");
+		log.info("created partition {}", partition);
+	}
+
+	private void archivePartition(String table, String partition) {
+		jdbcTemplate.execute("CREATE SCHEMA IF NOT EXISTS " + archiveSchema);
+		jdbcTemplate.execute("ALTER TABLE " + table + " DETACH PARTITION " + partition);
+		jdbcTemplate.execute("ALTER TABLE " + partition + " SET SCHEMA " + archiveSchema);
+		log.info("archived partition {} to {}", partition, archiveSchema);
+	}
+
+	/**
+	 * @return the month of a partition named like {@link #SUFFIX}, null for any other partition
+	 */
+	static YearMonth monthOf(String table, String partition) {
+		if (!partition.startsWith(table + "_p")) {
+			return null;
+		}
+		try {
+			return YearMonth.parse(partition.substring(table.length()), SUFFIX);
+		}
+		catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package com.pivottech.booking.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.Collection;
+
+/**
+ * Thrown when an availability has already been claimed by someone else. Rendered as
+ * 409 Conflict so clients pick another slot instead of retrying this one.
+ */
+@ResponseStatus(HttpStatus.CONFLICT)
+public class SlotUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SlotUnavailableException(Long availabilityId) {
+		super("availability " + availabilityId + " is not available");
+	}
+
+	public SlotUnavailableException(Collection<Long> availabilityIds) {
+		super("availabilities " + availabilityIds + " are not all available");
+	}
+
+}
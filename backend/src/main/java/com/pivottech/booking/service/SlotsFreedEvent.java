@@ -0,0 +1,15 @@
+package com.pivottech.booking.service;
+
+import lombok.Value;
+
+/**
+ * Published inside the transaction that made slots of an instructor free (new availabilities,
+ * rules or cancellations); listeners that only care about committed data use
+ * {@code @TransactionalEventListener}.
+ */
+@Value
+public class SlotsFreedEvent {
+
+	Long instructorId;
+
+}
@@ -0,0 +1,110 @@
+package com.pivottech.booking.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>Hashed timing wheel: {@code wheelSize} buckets of one tick each, a timeout going into the
+ * bucket of the tick it is due in. Scheduling and cancelling are O(1) whatever the number of
+ * pending timeouts, and each {@link #advance} only looks at one bucket, where timeouts due a
+ * whole revolution (or more) later are skipped until their turn comes.
+ * <p>{@link #schedule} and {@link Timeout#cancel} may be called from any thread: new timeouts
+ * are queued and put into their bucket by the next {@link #advance}, which must always be called
+ * from the same thread. Cancelled timeouts are dropped when their bucket comes up.
+ */
+final class TimingWheel<T> {
+
+	private final long tickMillis;
+
+	private final List<List<Timeout<T>>> buckets;
+
+	private final int mask;
+
+	private final Queue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+
+	/** Ticks advanced so far, only written by the advancing thread. */
+	private volatile long tick;
+
+	/**
+	 * @param wheelSize number of buckets, a power of two; a tick covers {@code tickMillis}
+	 */
+	TimingWheel(long tickMillis, int wheelSize) {
+		if (tickMillis <= 0 || wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+			throw new IllegalArgumentException("tick must be positive and wheel size a power of two");
+		}
+		this.tickMillis = tickMillis;
+		this.mask = wheelSize - 1;
+		this.buckets = new ArrayList<>(wheelSize);
+		for (int i = 0; i < wheelSize; i++) {
+			buckets.add(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Have {@code item} returned by an {@link #advance} no earlier than {@code delayMillis} from
+	 * now and at most about a tick later. The current tick is partly over, hence the extra one.
+	 */
+	Timeout<T> schedule(T item, long delayMillis) {
+		long ticks = Math.max(0, (delayMillis + tickMillis - 1) / tickMillis) + 1;
+		Timeout<T> timeout = new Timeout<>(item, tick + ticks);
+		pending.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Move the wheel on by one tick.
+	 * @return the items that fell due, in no particular order
+	 */
+	List<T> advance() {
+		long now = tick + 1;
+		for (Timeout<T> timeout; (timeout = pending.poll()) != null;) {
+			if (!timeout.cancelled) {
+				// scheduled while the previous tick was running: due now at the latest
+				buckets.get((int) (Math.max(timeout.deadline, now) & mask)).add(timeout);
+			}
+		}
+		int index = (int) (now & mask);
+		List<Timeout<T>> bucket = buckets.get(index);
+		List<T> expired = new ArrayList<>();
+		if (!bucket.isEmpty()) {
+			List<Timeout<T>> later = new ArrayList<>();
+			for (Timeout<T> timeout : bucket) {
+				if (timeout.cancelled) {
+					continue;
+				}
+				if (timeout.deadline <= now) {
+					expired.add(timeout.item);
+				}
+				else {
+					later.add(timeout);
+				}
+			}
+			buckets.set(index, later);
+		}
+		tick = now;
+		return expired;
+	}
+
+	static final class Timeout<T> {
+
+		final T item;
+
+		/** Tick this is due in. */
+		final long deadline;
+
+		volatile boolean cancelled;
+
+		Timeout(T item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+
+		void cancel() {
+			cancelled = true;
+		}
+
+	}
+
+}
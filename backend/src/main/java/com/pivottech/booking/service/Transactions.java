@@ -0,0 +1,31 @@
+package com.pivottech.booking.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers for work that must only become visible once the current transaction commits.
+ */
+final class Transactions {
+
+	private Transactions() {
+	}
+
+	/**
+	 * Run {@code action} after the surrounding transaction commits, or right away if there is
+	 * none. Nothing runs if the transaction rolls back.
+	 */
+	static void afterCommit(Runnable action) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.pivottech.booking.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.pivottech.booking.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p>Bounded, TTL-evicting cache of {@link User}s by username, in front of every controller
+ * lookup and of Spring Security's {@code loadUserByUsername}.
+ * <p>Cached users are detached entities shared between requests, treat them as read-only.
+ * Writes go through {@link #evict}, which drops the entry here and on every other replica
+ * (through {@link ClusterNotifier}) once the transaction commits. Hit/miss/eviction counts are
+ * published to Micrometer as the {@code cache.*} meters tagged {@code cache=users}.
+ */
+@Component
+public class UserCache {
+
+	static final String INVALIDATION_CHANNEL = "user_cache_invalidation";
+
+	private final Cache<String, User> cache;
+
+	private final ClusterNotifier clusterNotifier;
+
+	/** Null when booking.datasource.replica.max-lag-millis is 0. */
+	private final Executor afterReplicaLag;
+
+	@Autowired
+	public UserCache(ClusterNotifier clusterNotifier, MeterRegistry meterRegistry,
+			@Value("${booking.user-cache.maximum-size:10000}") long maximumSize,
+			@Value("${booking.user-cache.ttl-seconds:60}") long ttlSeconds,
+			@Value("${booking.datasource.replica.max-lag-millis:0}") long replicaMaxLagMillis) {
+		this.clusterNotifier = clusterNotifier;
+		this.afterReplicaLag = replicaMaxLagMillis > 0
+				? CompletableFuture.delayedExecutor(replicaMaxLagMillis, TimeUnit.MILLISECONDS) : null;
+		this.cache = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+				.recordStats().build();
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, "users");
+		clusterNotifier.subscribe(INVALIDATION_CHANNEL, this::invalidate);
+	}
+
+	/**
+	 * @return the cached user, or whatever {@code loader} returns on a miss. Unknown usernames
+	 * (a null from the loader) are not cached.
+	 */
+	public User get(String username, Function<String, User> loader) {
+		return cache.get(username, loader);
+	}
+
+	/**
+	 * Drop the user everywhere. Called from inside the updating transaction: the entry is dropped
+	 * now and again after commit, so a reader that reloaded the old row in between doesn't keep it.
+	 */
+	public void evict(String username) {
+		cache.invalidate(username);
+		clusterNotifier.publish(INVALIDATION_CHANNEL, username);
+		Transactions.afterCommit(() -> invalidate(username));
+	}
+
+	/**
+	 * Drop the entry now, and again once a read replica has surely caught up, so a miss served by
+	 * a lagging replica in between isn't cached for the whole TTL.
+	 */
+	private void invalidate(String username) {
+		cache.invalidate(username);
+		if (afterReplicaLag != null) {
+			afterReplicaLag.execute(() -> cache.invalidate(username));
+		}
+	}
+
+}
@@ -8,16 +8,18 @@ import com.pivottech.booking.repository.StudentRepository;
 import com.pivottech.booking.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import javax.transaction.Transactional;
+import java.util.List;
 
 @Service
 @Transactional
-public class UserService implements UserDetailsService {
+public class UserService implements UserDetailsService, UserDetailsPasswordService {
 
 	@Autowired
 	UserRepository userRepository;
@@ -31,21 +33,40 @@ public class UserService implements UserDetailsService {
 	@Autowired
 	PasswordEncoder passwordEncoder; // from config
 
+	@Autowired
+	UserCache userCache;
+
 	public User createUser(String username, String password) {
 		User user = new User();
 		user.setUsername(username);
 		String encodedPassword = passwordEncoder.encode(password);
 		user.setPassword(encodedPassword);
 		userRepository.save(user);
+		userCache.evict(username);
 		return user;
 	}
 
+	/**
+	 * @return the user from {@link UserCache}, a shared detached copy that must not be modified.
+	 * Updates load their own managed copy from the repository. A miss may be read from a replica,
+	 * see {@code ReplicaRoutingDataSource}.
+	 */
+	@Transactional(readOnly = true)
 	public User getUserByUsername(String username) {
-		return userRepository.getByUsername(username);
+		return userCache.get(username, userRepository::getByUsername);
+	}
+
+	/**
+	 * Every user that is an instructor, read from the database rather than {@link UserCache}.
+	 */
+	@Transactional(readOnly = true)
+	public List<User> getInstructors() {
+		return userRepository.findInstructors();
 	}
 
 	public Student updateUserProfile(String username, Student student) {
-		User user = getUserByUsername(username);
+		User user = userRepository.getByUsername(username);
+		userCache.evict(username);
 
 		// if user is not a student (has not been saved  into the student table)
 		if (user.getStudent() == null) {
@@ -63,7 +84,8 @@ public class UserService implements UserDetailsService {
 	}
 
 	public Instructor updateUserProfile(String username, Instructor instructor) {
-		User user = getUserByUsername(username);
+		User user = userRepository.getByUsername(username);
+		userCache.evict(username);
 		if (user.getInstructor() == null) {
 			instructor.setUser(user);
 			instructorRepository.save(instructor);
@@ -84,6 +106,7 @@ public class UserService implements UserDetailsService {
 	 * @throws UsernameNotFoundException
 	 */
 	@Override
+	@Transactional(readOnly = true)
 	public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
 		User user = this.getUserByUsername(username);
 		if (user == null) {
@@ -92,4 +115,17 @@ public class UserService implements UserDetailsService {
 		return user;
 	}
 
+	/**
+	 * Stores a password re-encoded after a successful login, e.g. because
+	 * {@code booking.security.bcrypt-strength} changed.
+	 */
+	@Override
+	public UserDetails updatePassword(UserDetails userDetails, String newPassword) {
+		User user = userRepository.getByUsername(userDetails.getUsername());
+		user.setPassword(newPassword);
+		userRepository.save(user);
+		userCache.evict(user.getUsername());
+		return user;
+	}
+
 }
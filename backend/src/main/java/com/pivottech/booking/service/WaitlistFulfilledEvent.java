@@ -0,0 +1,31 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationView;
+import com.pivottech.booking.model.WaitlistEntry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A waiting student got a reservation. Published after it committed; {@link CalendarEventBus}
+ * pushes it to the student's open {@code {username}/waitlist/events} streams on every replica.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WaitlistFulfilledEvent {
+
+	String studentUsername;
+
+	/** In the shape of the reservation listings, so a calendar can show it as is. */
+	ReservationView reservation;
+
+	static WaitlistFulfilledEvent of(WaitlistEntry entry, Reservation reservation) {
+		String studentUsername = entry.getStudent().getUser().getUsername();
+		return new WaitlistFulfilledEvent(studentUsername,
+				new ReservationView(reservation.getId(), reservation.getDescription(), reservation.getUtcStartTime(),
+						reservation.getUtcEndTime(), studentUsername, entry.getInstructor().getUser().getUsername()));
+	}
+
+}
@@ -0,0 +1,223 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.WaitlistEntry;
+import com.pivottech.booking.repository.WaitlistRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Waitlists of fully booked instructors: instead of polling for a cancellation, a student
+ * leaves a window and the first free slot inside it is reserved for them.
+ * <p>Entries are stored in {@code waitlist_entry}; each instructor's queue is also held in memory
+ * once read, so freed slots of instructors nobody waits for cost no query. Joins and removals
+ * are written through and announced to the other replicas on the {@value #CHANNEL} channel,
+ * which drop their copy of that queue.
+ * <p>On a {@link SlotsFreedEvent} (after commit) the instructor's queue is worked off on a
+ * single background thread: waiters are offered the earliest free slot of their window in
+ * order. Removing the entry and reserving (through {@link BookingEngine}, like any other
+ * reservation) happen in one transaction, so an entry is fulfilled at most once even when two
+ * replicas free slots of the same instructor at the same time. A {@link WaitlistFulfilledEvent}
+ * tells the student, through {@link CalendarEventBus}.
+ */
+@Log4j2
+@Service
+public class WaitlistService {
+
+	static final String CHANNEL = "waitlist";
+
+	final WaitlistRepository waitlistRepository;
+
+	final BookingService bookingService;
+
+	final BookingEngine bookingEngine;
+
+	final AvailabilityIndex availabilityIndex;
+
+	final ClusterNotifier clusterNotifier;
+
+	final ApplicationEventPublisher eventPublisher;
+
+	final TransactionTemplate transactionTemplate;
+
+	/** Instructor id to its waiters, first come first; replaced, never modified. */
+	private final ConcurrentHashMap<Long, List<WaitlistEntry>> queues = new ConcurrentHashMap<>();
+
+	/** Bumped whenever an instructor's queue is dropped, so a queue read before isn't kept after. */
+	private final ConcurrentHashMap<Long, AtomicLong> generations = new ConcurrentHashMap<>();
+
+	private final ExecutorService matcher;
+
+	@Autowired
+	public WaitlistService(WaitlistRepository waitlistRepository, BookingService bookingService,
+			BookingEngine bookingEngine, AvailabilityIndex availabilityIndex, ClusterNotifier clusterNotifier,
+			ApplicationEventPublisher eventPublisher, PlatformTransactionManager transactionManager) {
+		this.waitlistRepository = waitlistRepository;
+		this.bookingService = bookingService;
+		this.bookingEngine = bookingEngine;
+		this.availabilityIndex = availabilityIndex;
+		this.clusterNotifier = clusterNotifier;
+		this.eventPublisher = eventPublisher;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.matcher = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "waitlist");
+			thread.setDaemon(true);
+			return thread;
+		});
+		clusterNotifier.subscribe(CHANNEL, instructorId -> drop(Long.valueOf(instructorId)));
+	}
+
+	@PreDestroy
+	void stop() {
+		matcher.shutdownNow();
+	}
+
+	/**
+	 * Queue the student for the instructor. If a slot is already free in the window it is given
+	 * right away, once this commits.
+	 */
+	@Transactional
+	public WaitlistEntry join(Student student, Instructor instructor, LocalDateTime utcFrom, LocalDateTime utcTo,
+			String description) {
+		WaitlistEntry saved = waitlistRepository.save(WaitlistEntry.builder().student(student).instructor(instructor)
+				.utcFrom(utcFrom).utcTo(utcTo).description(description)
+				.createdAt(LocalDateTime.now(ZoneOffset.UTC)).build());
+		changed(instructor.getId());
+		// have the queue looked at after commit, in case a slot is free already
+		eventPublisher.publishEvent(new SlotsFreedEvent(instructor.getId()));
+		return saved;
+	}
+
+	/**
+	 * @return false if the entry doesn't exist or isn't the student's
+	 */
+	@Transactional
+	public boolean leave(Student student, Long entryId) {
+		WaitlistEntry entry = waitlistRepository.findById(entryId).orElse(null);
+		if (entry == null || !entry.getStudent().getId().equals(student.getId())) {
+			return false;
+		}
+		waitlistRepository.deleteEntry(entryId);
+		changed(entry.getInstructor().getId());
+		return true;
+	}
+
+	@Transactional(readOnly = true)
+	public List<WaitlistEntry> getEntries(Student student) {
+		return waitlistRepository.findByStudent(student);
+	}
+
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onSlotsFreed(SlotsFreedEvent event) {
+		if (!queueOf(event.getInstructorId()).isEmpty()) {
+			matcher.execute(() -> match(event.getInstructorId()));
+		}
+	}
+
+	/**
+	 * Read outside the map: a query inside {@code computeIfAbsent} would hold up every other
+	 * instructor whose id hashes to the same bin, and a slow database would stall them all.
+	 */
+	List<WaitlistEntry> queueOf(Long instructorId) {
+		List<WaitlistEntry> queue = queues.get(instructorId);
+		if (queue != null) {
+			return queue;
+		}
+		long generation = generationOf(instructorId).get();
+		List<WaitlistEntry> loaded = waitlistRepository.findByInstructor(instructorId);
+		List<WaitlistEntry> installed = queues.compute(instructorId, (id, current) -> current != null ? current
+				: generationOf(id).get() == generation ? loaded : null);
+		return installed != null ? installed : loaded;
+	}
+
+	void match(Long instructorId) {
+		LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+		for (WaitlistEntry entry : queueOf(instructorId)) {
+			try {
+				if (entry.getUtcTo().isBefore(now)) {
+					expire(entry);
+					continue;
+				}
+				LocalDateTime from = entry.getUtcFrom().isBefore(now) ? now : entry.getUtcFrom();
+				List<Availability> free = availabilityIndex.findAvailableBetween(entry.getInstructor(), from,
+						entry.getUtcTo());
+				if (!free.isEmpty()) {
+					fulfil(entry, free.get(0));
+				}
+			}
+			catch (SlotUnavailableException | DataIntegrityViolationException e) {
+				// the slot went to someone else, or the student has a reservation at that time
+				log.debug("waitlist entry {} not fulfilled: {}", entry.getId(), e.getMessage());
+			}
+			catch (RuntimeException e) {
+				log.error("waitlist entry {} failed", entry.getId(), e);
+			}
+		}
+	}
+
+	private void fulfil(WaitlistEntry entry, Availability slot) {
+		Availability availability = slot.getId() < 0 ? bookingService.materializeAvailability(slot.getId()) : slot;
+		if (availability == null) {
+			return;
+		}
+		Reservation reservation = transactionTemplate.execute(status -> {
+			if (waitlistRepository.deleteEntry(entry.getId()) == 0) {
+				return null; // fulfilled or left in the meantime
+			}
+			changed(entry.getInstructor().getId());
+			// the engine's reservation joins this transaction, so a lost slot keeps the entry
+			return bookingEngine.reserve(entry.getStudent(), availability, entry.getDescription());
+		});
+		if (reservation != null) {
+			log.info("waitlist entry {} got availability {}", entry.getId(), availability.getId());
+			eventPublisher.publishEvent(WaitlistFulfilledEvent.of(entry, reservation));
+		}
+	}
+
+	private void expire(WaitlistEntry entry) {
+		transactionTemplate.executeWithoutResult(status -> {
+			waitlistRepository.deleteEntry(entry.getId());
+			changed(entry.getInstructor().getId());
+		});
+	}
+
+	/**
+	 * Drop the instructor's queue here after commit and on the other replicas; it is read again
+	 * on next use.
+	 */
+	private void changed(Long instructorId) {
+		clusterNotifier.publish(CHANNEL, instructorId.toString());
+		Transactions.afterCommit(() -> drop(instructorId));
+	}
+
+	private void drop(Long instructorId) {
+		queues.compute(instructorId, (id, current) -> {
+			generationOf(id).incrementAndGet();
+			return null;
+		});
+	}
+
+	private AtomicLong generationOf(Long instructorId) {
+		return generations.computeIfAbsent(instructorId, id -> new AtomicLong());
+	}
+
+}
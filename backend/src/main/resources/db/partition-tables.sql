@@ -0,0 +1,63 @@
+-- Converts the availability and reservation tables created by Hibernate into tables range
+-- partitioned by month of utc_start_time. Needs PostgreSQL 12 or newer. Run once, with the
+-- backend scaled to 0:
+--
+--   psql -h $POSTGRESQL_HOST -U postgres -d bookingbackend -f partition-tables.sql
+--
+-- Afterwards PartitionMaintenance (booking.partitions.*) creates the coming months' partitions
+-- and detaches old ones into the archive schema. Rows outside every monthly partition land in
+-- the *_default partition and are moved out when their month's partition is created.
+
+BEGIN;
+
+ALTER TABLE availability RENAME TO availability_unpartitioned;
+ALTER TABLE reservation RENAME TO reservation_unpartitioned;
+
+-- same columns, defaults and NOT NULLs; keys and indexes are added below
+CREATE TABLE reservation (LIKE reservation_unpartitioned INCLUDING DEFAULTS INCLUDING CONSTRAINTS)
+	PARTITION BY RANGE (utc_start_time);
+CREATE TABLE availability (LIKE availability_unpartitioned INCLUDING DEFAULTS INCLUDING CONSTRAINTS)
+	PARTITION BY RANGE (utc_start_time);
+
+-- the partition key has to be part of every unique index
+ALTER TABLE reservation ADD PRIMARY KEY (id, utc_start_time);
+ALTER TABLE availability ADD PRIMARY KEY (id, utc_start_time);
+CREATE UNIQUE INDEX reservation_student_start ON reservation (student_id, utc_start_time, utc_end_time);
+CREATE UNIQUE INDEX availability_instructor_start ON availability (instructor_id, utc_start_time, utc_end_time);
+CREATE INDEX availability_reservation ON availability (reservation_id);
+ALTER TABLE reservation ADD CONSTRAINT reservation_student_fk FOREIGN KEY (student_id) REFERENCES student (user_id);
+ALTER TABLE availability ADD CONSTRAINT availability_instructor_fk
+	FOREIGN KEY (instructor_id) REFERENCES instructor (user_id);
+-- availability.reservation_id can't reference reservation (id) any more, the application keeps it consistent
+
+CREATE TABLE reservation_default PARTITION OF reservation DEFAULT;
+CREATE TABLE availability_default PARTITION OF availability DEFAULT;
+
+-- one partition per month from the oldest row to three months ahead, named like PartitionMaintenance does
+DO $$
+DECLARE
+	t text;
+	first_month date;
+	month date;
+BEGIN
+	FOREACH t IN ARRAY ARRAY['reservation', 'availability'] LOOP
+		EXECUTE format('SELECT date_trunc(''month'', min(utc_start_time))::date FROM %I', t || '_unpartitioned')
+			INTO first_month;
+		month := coalesce(first_month, date_trunc('month', now())::date);
+		WHILE month <= date_trunc('month', now() + interval '3 months')::date LOOP
+			EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+				t || to_char(month, '"_p"YYYY_MM'), t, month, (month + interval '1 month')::date);
+			month := (month + interval '1 month')::date;
+		END LOOP;
+	END LOOP;
+END $$;
+
+INSERT INTO reservation SELECT * FROM reservation_unpartitioned;
+INSERT INTO availability SELECT * FROM availability_unpartitioned;
+
+DROP TABLE availability_unpartitioned, reservation_unpartitioned;
+
+COMMIT;
+
+ANALYZE reservation;
+ANALYZE availability;
@@ -0,0 +1,239 @@
+package com.pivottech.booking.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.BulkReservationRequest;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.MakeMultiSlotReservationRequest;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationOutcome;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.User;
+import com.pivottech.booking.service.BookingEngine;
+import com.pivottech.booking.service.BookingService;
+import com.pivottech.booking.service.IdempotencyStore;
+import com.pivottech.booking.service.SlotUnavailableException;
+import com.pivottech.booking.service.UserService;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReservationControllerTest {
+
+	static final LocalDateTime NINE = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	@Mock
+	BookingService mockBookingService;
+
+	@Mock
+	BookingEngine mockBookingEngine;
+
+	@Mock
+	UserService mockUserService;
+
+	@Mock
+	IdempotencyStore mockIdempotencyStore;
+
+	ReservationController controller;
+
+	/** Student 1's lesson with instructor 7. */
+	Reservation reservation;
+
+	@BeforeEach
+	void setUp() {
+		controller = new ReservationController(mockBookingService, mockBookingEngine, mockUserService,
+				mockIdempotencyStore, new ObjectMapper());
+		Availability slot = Availability.builder().id(100L).instructor(withId(new Instructor(), 7L))
+				.utcStartTime(NINE).utcEndTime(NINE.plusMinutes(30)).build();
+		reservation = Reservation.builder().id(10L).student(withId(new Student(), 1L)).utcStartTime(NINE)
+				.utcEndTime(NINE.plusMinutes(30)).availabilities(List.of(slot)).build();
+	}
+
+	@Test
+	void theStudentCancels() {
+		givenUser(student("alice", 1L));
+		when(mockBookingService.getReservationById(10L)).thenReturn(reservation);
+
+		controller.cancel("alice", 10L);
+
+		verify(mockBookingService).cancelReservations(List.of(10L));
+	}
+
+	@Test
+	void theInstructorOfItsSlotsCancels() {
+		givenUser(instructor("bob", 7L));
+		when(mockBookingService.getReservationById(10L)).thenReturn(reservation);
+
+		controller.cancel("bob", 10L);
+
+		verify(mockBookingService).cancelReservations(List.of(10L));
+	}
+
+	@Test
+	void anyoneElseGetsNotFound() {
+		givenUser(student("carol", 2L));
+		givenUser(instructor("dave", 8L));
+		when(mockBookingService.getReservationById(10L)).thenReturn(reservation);
+
+		assertStatus(() -> controller.cancel("carol", 10L), HttpStatus.NOT_FOUND);
+		assertStatus(() -> controller.cancel("dave", 10L), HttpStatus.NOT_FOUND);
+		verify(mockBookingService, never()).cancelReservations(any());
+	}
+
+	@Test
+	void cancellingAMissingReservationIsNotFound() {
+		givenUser(student("alice", 1L));
+
+		assertStatus(() -> controller.cancel("alice", 11L), HttpStatus.NOT_FOUND);
+		verify(mockBookingService, never()).cancelReservations(any());
+	}
+
+	@Test
+	void theInstructorCancelsAWindow() {
+		User bob = instructor("bob", 7L);
+		givenUser(bob);
+		when(mockBookingService.cancelInstructorReservationsBetween(bob.getInstructor(), NINE, NINE.plusDays(1)))
+				.thenReturn(3);
+
+		assertThat(controller.cancelBetween("bob", NINE, NINE.plusDays(1))).isEqualTo(Map.of("cancelled", 3));
+	}
+
+	@Test
+	void windowsNeedAnInstructorAndAnOrderedRange() {
+		givenUser(student("alice", 1L));
+		givenUser(instructor("bob", 7L));
+
+		assertStatus(() -> controller.cancelBetween("alice", NINE, NINE.plusDays(1)), HttpStatus.NOT_FOUND);
+		assertStatus(() -> controller.cancelBetween("bob", NINE.plusDays(1), NINE), HttpStatus.BAD_REQUEST);
+		verify(mockBookingService, never()).cancelInstructorReservationsBetween(any(), any(), any());
+	}
+
+	@Test
+	void multiSlotGoesToReserveAllAndASingleSlotToReserve() {
+		givenUser(student("alice", 1L));
+		Availability first = givenSlot(100L, 7L);
+		Availability second = givenSlot(101L, 7L);
+		Student alice = mockUserService.getUserByUsername("alice").getStudent();
+		when(mockBookingEngine.reserveAll(alice, List.of(first, second), null)).thenReturn(reservation);
+		when(mockBookingEngine.reserve(alice, first, null)).thenReturn(reservation);
+
+		assertThat(controller.createMultiSlot("alice", request(100L, 101L))).isSameAs(reservation);
+		assertThat(controller.createMultiSlot("alice", request(100L))).isSameAs(reservation);
+	}
+
+	@Test
+	void multiSlotRejectsRepeatedIdsAndMixedInstructors() {
+		givenUser(student("alice", 1L));
+		givenSlot(100L, 7L);
+		givenSlot(101L, 8L);
+
+		assertStatus(() -> controller.createMultiSlot("alice", request(100L, 100L)), HttpStatus.BAD_REQUEST);
+		assertStatus(() -> controller.createMultiSlot("alice", request(100L, 101L)), HttpStatus.BAD_REQUEST);
+		verify(mockBookingEngine, never()).reserveAll(any(), anyList(), any());
+	}
+
+	@Test
+	void bulkReportsEveryReservationOnItsOwn() {
+		givenUser(student("alice", 1L));
+		Availability booked = givenSlot(100L, 7L);
+		Availability taken = givenSlot(101L, 7L);
+		Availability duplicate = givenSlot(102L, 7L);
+		Student alice = mockUserService.getUserByUsername("alice").getStudent();
+		when(mockBookingEngine.reserve(alice, booked, null)).thenReturn(reservation);
+		when(mockBookingEngine.reserve(alice, taken, null)).thenThrow(new SlotUnavailableException(101L));
+		when(mockBookingEngine.reserve(alice, duplicate, null)).thenThrow(violation("23505"));
+		when(mockBookingService.getAvailabilityById(103L)).thenReturn(null);
+		BulkReservationRequest bulk = new BulkReservationRequest();
+		bulk.setReservations(List.of(request(100L), request(101L), request(103L), request(102L), request(100L, 100L)));
+
+		List<ReservationOutcome> outcomes = controller.createBulk("alice", bulk);
+
+		assertThat(outcomes).extracting(ReservationOutcome::getStatus).containsExactly(200, 409, 400, 409, 400);
+		assertThat(outcomes.get(0).getReservation()).isSameAs(reservation);
+		assertThat(outcomes.get(2).getError()).isEqualTo("not available");
+	}
+
+	@Test
+	void bulkDoesNotTurnOtherIntegrityViolationsIntoConflicts() {
+		givenUser(student("alice", 1L));
+		Availability slot = givenSlot(100L, 7L);
+		DataIntegrityViolationException notNull = violation("23502");
+		when(mockBookingEngine.reserve(any(), any(), any())).thenThrow(notNull);
+		BulkReservationRequest bulk = new BulkReservationRequest();
+		bulk.setReservations(List.of(request(slot.getId())));
+
+		assertThatThrownBy(() -> controller.createBulk("alice", bulk)).isSameAs(notNull);
+	}
+
+	void givenUser(User user) {
+		when(mockUserService.getUserByUsername(user.getUsername())).thenReturn(user);
+	}
+
+	Availability givenSlot(Long id, Long instructorId) {
+		Availability slot = Availability.builder().id(id).instructor(withId(new Instructor(), instructorId))
+				.utcStartTime(NINE.plusHours(id - 100)).utcEndTime(NINE.plusHours(id - 100).plusMinutes(30)).build();
+		when(mockBookingService.getAvailabilityById(id)).thenReturn(slot);
+		return slot;
+	}
+
+	static MakeMultiSlotReservationRequest request(Long... availabilityIds) {
+		MakeMultiSlotReservationRequest request = new MakeMultiSlotReservationRequest();
+		request.setAvailabilityIds(List.of(availabilityIds));
+		return request;
+	}
+
+	static DataIntegrityViolationException violation(String sqlState) {
+		return new DataIntegrityViolationException("could not execute statement", new ConstraintViolationException(
+				"could not execute statement", new SQLException("violation", sqlState), "reservation_student_start"));
+	}
+
+	static void assertStatus(Runnable call, HttpStatus status) {
+		assertThatThrownBy(call::run).isInstanceOfSatisfying(ResponseStatusException.class,
+				e -> assertThat(e.getStatus()).isEqualTo(status));
+	}
+
+	static User student(String username, Long id) {
+		User user = user(username);
+		user.setStudent(withId(new Student(), id));
+		return user;
+	}
+
+	static User instructor(String username, Long id) {
+		User user = user(username);
+		user.setInstructor(withId(new Instructor(), id));
+		return user;
+	}
+
+	static User user(String username) {
+		User user = new User();
+		user.setUsername(username);
+		return user;
+	}
+
+	static <T> T withId(T entity, Long id) {
+		ReflectionTestUtils.setField(entity, "id", id);
+		return entity;
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.pivottech.booking.handler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BoundedPasswordEncoderTest {
+
+	/** A well-formed cost 14 hash, about a second of work to check. */
+	static final String SLOW_HASH = "$2a$14$" + "abcdefghijklmnopqrstuu" + "abcdefghijklmnopqrstuvwxyz01234";
+
+	BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(4, 1, 1, Duration.ofSeconds(5),
+			Duration.ofMinutes(1), 100);
+
+	@AfterEach
+	void tearDown() {
+		encoder.shutdown();
+	}
+
+	@Test
+	void encodesAndMatchesLikeBCrypt() {
+		String encoded = encoder.encode("secret");
+
+		assertThat(new BCryptPasswordEncoder().matches("secret", encoded)).isTrue();
+		assertThat(encoder.matches("secret", encoded)).isTrue();
+		assertThat(encoder.matches("secret", encoded)).isTrue(); // from the cache
+		assertThat(encoder.matches("wrong", encoded)).isFalse();
+	}
+
+	@Test
+	void asksForRehashWhenStrengthChanges() {
+		assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(4).encode("secret"))).isFalse();
+		assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(5).encode("secret"))).isTrue();
+		assertThat(encoder.upgradeEncoding("$2a$10$" + SLOW_HASH.substring(7))).isTrue();
+		assertThat(encoder.upgradeEncoding("not a bcrypt hash")).isFalse();
+	}
+
+	@Test
+	void slowChecksAreTurnedAway() {
+		encoder.shutdown();
+		encoder = new BoundedPasswordEncoder(4, 1, 1, Duration.ofMillis(10), Duration.ofMinutes(1), 100);
+
+		assertThatThrownBy(() -> encoder.matches("secret", SLOW_HASH)).isInstanceOf(LoginThrottledException.class);
+	}
+
+	@Test
+	void fullQueueIsTurnedAway() {
+		encoder.shutdown();
+		encoder = new BoundedPasswordEncoder(4, 1, 1, Duration.ofMillis(10), Duration.ofMinutes(1), 100);
+
+		// the first check occupies the thread, the second the only queue slot
+		assertThatThrownBy(() -> encoder.matches("secret", SLOW_HASH)).isInstanceOf(LoginThrottledException.class);
+		assertThatThrownBy(() -> encoder.matches("other", SLOW_HASH)).isInstanceOf(LoginThrottledException.class);
+		assertThatThrownBy(() -> encoder.matches("third", SLOW_HASH)).isInstanceOf(LoginThrottledException.class)
+				.hasMessageContaining("too many logins");
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.pivottech.booking.handler;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DataIntegrityViolationExceptionHandlerTest {
+
+	DataIntegrityViolationExceptionHandler handler = new DataIntegrityViolationExceptionHandler();
+
+	@Test
+	void uniqueViolationsAreConflicts() {
+		DataIntegrityViolationException ex = violation("23505", "reservation_student_start");
+
+		assertThat(DataIntegrityViolationExceptionHandler.isUniqueViolation(ex)).isTrue();
+		assertThat(handler.dataIntegrityViolation(ex)).isEqualTo("conflicts with an existing record");
+	}
+
+	@Test
+	void otherViolationsAreRethrown() {
+		DataIntegrityViolationException notNull = violation("23502", null);
+		DataIntegrityViolationException foreignKey = violation("23503", "fk_reservation_student");
+
+		assertThatThrownBy(() -> handler.dataIntegrityViolation(notNull)).isSameAs(notNull);
+		assertThatThrownBy(() -> handler.dataIntegrityViolation(foreignKey)).isSameAs(foreignKey);
+		assertThat(DataIntegrityViolationExceptionHandler
+				.isUniqueViolation(new DataIntegrityViolationException("no cause"))).isFalse();
+	}
+
+	/**
+	 * Shaped like what Spring translates Hibernate's exception into.
+	 */
+	static DataIntegrityViolationException violation(String sqlState, String constraint) {
+		SQLException sqlException = new SQLException("violation", sqlState);
+		return new DataIntegrityViolationException("could not execute statement",
+				new ConstraintViolationException("could not execute statement", sqlException, constraint));
+	}
+
+}
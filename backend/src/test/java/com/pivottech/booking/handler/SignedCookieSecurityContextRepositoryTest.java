@@ -0,0 +1,96 @@
+package com.pivottech.booking.handler;
+
+import com.pivottech.booking.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.web.context.HttpRequestResponseHolder;
+
+import javax.servlet.http.Cookie;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SignedCookieSecurityContextRepositoryTest {
+
+	final UserDetailsService users = username -> {
+		if (!"alice".equals(username)) {
+			throw new UsernameNotFoundException(username);
+		}
+		User user = new User();
+		user.setUsername(username);
+		return user;
+	};
+
+	final SignedCookieSecurityContextRepository repository = new SignedCookieSecurityContextRepository(users,
+			"test-secret", Duration.ofMinutes(30));
+
+	@Test
+	void issuedCookieAuthenticatesTheNextRequest() {
+		String setCookie = login(repository, "alice");
+		assertThat(setCookie).contains("HttpOnly").contains("Path=/api/");
+
+		SecurityContext context = load(setCookie);
+
+		assertThat(context.getAuthentication()).isNotNull();
+		assertThat(context.getAuthentication().getName()).isEqualTo("alice");
+	}
+
+	@Test
+	void tamperedCookieIsIgnored() {
+		String setCookie = login(repository, "alice");
+		String forged = Base64.getUrlEncoder().withoutPadding().encodeToString("bob".getBytes(StandardCharsets.UTF_8))
+				+ setCookie.substring(setCookie.indexOf('.'));
+
+		assertThat(load(SignedCookieSecurityContextRepository.COOKIE_NAME + "=" + forged).getAuthentication())
+				.isNull();
+	}
+
+	@Test
+	void cookieSignedWithAnotherSecretIsIgnored() {
+		String setCookie = login(new SignedCookieSecurityContextRepository(users, "other-secret",
+				Duration.ofMinutes(30)), "alice");
+
+		assertThat(load(setCookie).getAuthentication()).isNull();
+	}
+
+	@Test
+	void verifiedUsernameChecksTheSignatureOnly() {
+		String value = login(repository, "alice").split(";")[0].split("=", 2)[1];
+
+		assertThat(repository.verifiedUsername(value)).isEqualTo("alice");
+		assertThat(repository.verifiedUsername("x" + value)).isNull();
+		assertThat(repository.verifiedUsername("garbage")).isNull();
+	}
+
+	String login(SignedCookieSecurityContextRepository repository, String username) {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setContextPath("/api");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		HttpRequestResponseHolder holder = new HttpRequestResponseHolder(request, response);
+		repository.loadContext(holder);
+
+		UserDetails user = users.loadUserByUsername(username);
+		SecurityContext context = SecurityContextHolder.createEmptyContext();
+		context.setAuthentication(new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+		repository.saveContext(context, holder.getRequest(), holder.getResponse());
+		return response.getHeader(HttpHeaders.SET_COOKIE);
+	}
+
+	SecurityContext load(String setCookie) {
+		String[] cookie = setCookie.split(";")[0].split("=", 2);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setCookies(new Cookie(cookie[0], cookie[1]));
+		return repository.loadContext(new HttpRequestResponseHolder(request, new MockHttpServletResponse()));
+	}
+
+}
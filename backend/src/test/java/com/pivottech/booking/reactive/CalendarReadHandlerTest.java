@@ -0,0 +1,56 @@
+package com.pivottech.booking.reactive;
+
+import com.pivottech.booking.model.AvailabilityRule;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The rule expansion of the reactive list; the queries themselves need PostgreSQL.
+ */
+class CalendarReadHandlerTest {
+
+	static final LocalDate MONDAY = LocalDate.of(2030, 1, 7);
+
+	static final CalendarReadHandler.InstructorJson INSTRUCTOR = new CalendarReadHandler.InstructorJson(7L, "");
+
+	@Test
+	void ruleSlotsLeaveOutStoredStartsAndComeInStartOrder() {
+		AvailabilityRule hourly = rule(1L, LocalTime.of(9, 0), LocalTime.of(11, 0), 60);
+		AvailabilityRule halfHourly = rule(2L, LocalTime.of(9, 0), LocalTime.of(10, 0), 30);
+		LocalDateTime nine = MONDAY.atTime(9, 0);
+
+		List<CalendarReadHandler.AvailabilityJson> slots = List.copyOf(CalendarReadHandler.ruleSlots(
+				List.of(hourly, halfHourly), Set.of(nine.plusMinutes(30)), INSTRUCTOR, MONDAY.atStartOfDay(),
+				MONDAY.plusDays(1).atStartOfDay()));
+
+		assertThat(slots.stream().map(CalendarReadHandler.AvailabilityJson::getUtcStartTime)
+				.collect(Collectors.toList())).containsExactly(nine, nine.plusHours(1));
+		assertThat(slots.get(0).getId()).isEqualTo(AvailabilityRule.virtualId(1L, nine));
+		assertThat(slots.get(0).getUtcEndTime()).isEqualTo(nine.plusHours(1));
+		assertThat(slots.get(1).getInstructor()).isEqualTo(INSTRUCTOR);
+	}
+
+	@Test
+	void ruleSlotsStayInsideTheWindow() {
+		AvailabilityRule rule = rule(1L, LocalTime.of(9, 0), LocalTime.of(12, 0), 60);
+
+		assertThat(CalendarReadHandler.ruleSlots(List.of(rule), Set.of(), INSTRUCTOR, MONDAY.atTime(10, 0),
+				MONDAY.atTime(11, 30))).extracting(CalendarReadHandler.AvailabilityJson::getUtcStartTime)
+				.containsExactly(MONDAY.atTime(10, 0));
+	}
+
+	static AvailabilityRule rule(Long id, LocalTime start, LocalTime end, int slotMinutes) {
+		return AvailabilityRule.builder().id(id).daysOfWeek(Set.of(DayOfWeek.MONDAY)).utcStartTime(start)
+				.utcEndTime(end).slotMinutes(slotMinutes).firstDate(MONDAY).lastDate(MONDAY.plusWeeks(4)).build();
+	}
+
+}
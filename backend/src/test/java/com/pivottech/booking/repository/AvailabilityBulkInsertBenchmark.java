@@ -0,0 +1,84 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.User;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Publishes a 10k-slot calendar through {@code saveAll} and through the batched
+ * {@link AvailabilityRepository#insertAll}, which has to be faster and stay within
+ * {@link #BUDGET_MILLIS}. Needs the Postgres from application.properties, run
+ * it with {@code ./gradlew benchmark}. Everything is rolled back afterwards.
+ */
+@Log4j2
+@Tag("benchmark")
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+class AvailabilityBulkInsertBenchmark {
+
+	static final int SLOTS = 10_000;
+
+	/** "Well under a second" for a 10k-slot publish. */
+	static final long BUDGET_MILLIS = 500;
+
+	@Autowired
+	AvailabilityRepository availabilityRepository;
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	@Test
+	void bulkInsertIsFasterThanSaveAllAndWithinBudget() {
+		List<Availability> viaSaveAll = slots(newInstructor("bench-saveall"));
+		long begin = System.nanoTime();
+		availabilityRepository.saveAll(viaSaveAll);
+		entityManager.flush(); // saveAll only queues the INSERTs
+		long saveAllMillis = (System.nanoTime() - begin) / 1_000_000;
+
+		List<Availability> viaBulk = slots(newInstructor("bench-bulk"));
+		begin = System.nanoTime();
+		List<Availability> saved = availabilityRepository.insertAll(viaBulk);
+		long bulkMillis = (System.nanoTime() - begin) / 1_000_000;
+
+		log.info("{} slots: saveAll {} ms, insertAll {} ms", SLOTS, saveAllMillis, bulkMillis);
+		assertThat(saved).hasSize(SLOTS).allMatch(a -> a.getId() != null);
+		assertThat(bulkMillis).isLessThan(saveAllMillis).isLessThan(BUDGET_MILLIS);
+	}
+
+	Instructor newInstructor(String username) {
+		User user = new User();
+		user.setUsername(username + System.nanoTime());
+		user.setPassword("{noop}secret");
+		entityManager.persist(user);
+		Instructor instructor = new Instructor();
+		instructor.setUser(user);
+		entityManager.persist(instructor);
+		entityManager.flush();
+		return instructor;
+	}
+
+	static List<Availability> slots(Instructor instructor) {
+		List<Availability> slots = new ArrayList<>(SLOTS);
+		LocalDateTime start = LocalDateTime.of(2030, 1, 1, 0, 0);
+		for (int i = 0; i < SLOTS; i++) {
+			slots.add(Availability.builder().instructor(instructor).utcStartTime(start)
+					.utcEndTime(start.plusMinutes(15)).build());
+			start = start.plusMinutes(15);
+		}
+		return slots;
+	}
+
+}
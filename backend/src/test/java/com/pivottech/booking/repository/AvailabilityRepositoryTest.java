@@ -0,0 +1,166 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The conditional UPDATEs behind holds and claims, see {@code BookingService}.
+ */
+@DataJpaTest
+class AvailabilityRepositoryTest {
+
+	static final LocalDateTime MONDAY = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	/** When the statements run, passed in like the services do. */
+	static final LocalDateTime NOW = MONDAY.minusDays(1);
+
+	@Autowired
+	AvailabilityRepository availabilityRepository;
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	Student alice;
+
+	Student carol;
+
+	Instructor instructor;
+
+	Availability slot;
+
+	@BeforeEach
+	void setUp() {
+		alice = student("alice");
+		carol = student("carol");
+		instructor = new Instructor();
+		instructor.setUser(user("bob"));
+		entityManager.persist(instructor);
+		slot = entityManager.persist(Availability.builder().instructor(instructor).utcStartTime(MONDAY)
+				.utcEndTime(MONDAY.plusMinutes(30)).build());
+		entityManager.flush();
+		entityManager.clear();
+	}
+
+	@Test
+	void someoneElsesLiveHoldBlocksTheSlot() {
+		assertThat(hold(alice, NOW.plusMinutes(10), NOW)).isEqualTo(1);
+
+		assertThat(hold(carol, NOW.plusMinutes(10), NOW.plusMinutes(5))).isZero();
+		assertThat(claim(carol, NOW.plusMinutes(5))).isZero();
+		assertThat(availabilityRepository.findAvailableBetween(instructor, MONDAY, MONDAY.plusHours(1),
+				NOW.plusMinutes(5))).isEmpty();
+		assertThat(reload().getHeldBy().getId()).isEqualTo(alice.getId());
+	}
+
+	@Test
+	void anExpiredHoldCanBeClaimedBySomeoneElse() {
+		hold(alice, NOW.plusMinutes(10), NOW);
+
+		assertThat(availabilityRepository.findAvailableBetween(instructor, MONDAY, MONDAY.plusHours(1),
+				NOW.plusMinutes(10))).extracting(Availability::getId).containsExactly(slot.getId());
+		assertThat(claim(carol, NOW.plusMinutes(10))).isEqualTo(1);
+
+		Availability claimed = reload();
+		assertThat(claimed.getReservation()).isNotNull();
+		assertThat(claimed.getHeldBy()).isNull();
+		assertThat(claimed.getHeldUntil()).isNull();
+	}
+
+	@Test
+	void theHolderCanConfirmAndExtend() {
+		hold(alice, NOW.plusMinutes(10), NOW);
+
+		assertThat(hold(alice, NOW.plusMinutes(20), NOW.plusMinutes(5))).isEqualTo(1);
+		assertThat(reload().getHeldUntil()).isEqualTo(NOW.plusMinutes(20));
+		assertThat(claim(alice, NOW.plusMinutes(15))).isEqualTo(1);
+		assertThat(hold(alice, NOW.plusMinutes(30), NOW.plusMinutes(15))).isZero();
+	}
+
+	@Test
+	void claimAllNeedsEverySlotFreeOrHeldByTheStudent() {
+		Availability next = entityManager.persist(Availability.builder().instructor(instructor)
+				.utcStartTime(MONDAY.plusMinutes(30)).utcEndTime(MONDAY.plusHours(1)).build());
+		hold(alice, NOW.plusMinutes(10), NOW);
+		Reservation reservation = reservation(carol);
+
+		assertThat(availabilityRepository.claimAll(List.of(slot.getId(), next.getId()), MONDAY,
+				MONDAY.plusMinutes(30), reservation, carol, NOW)).isEqualTo(1);
+	}
+
+	@Test
+	void onlyTheHolderReleases() {
+		hold(alice, NOW.plusMinutes(10), NOW);
+
+		assertThat(availabilityRepository.releaseHold(slot.getId(), MONDAY, carol)).isZero();
+		assertThat(availabilityRepository.releaseHold(slot.getId(), MONDAY, alice)).isEqualTo(1);
+		assertThat(reload().getHeldBy()).isNull();
+	}
+
+	@Test
+	void expiredHoldsAreFoundAndClearedOnlyOnceTheyRunOut() {
+		hold(alice, NOW.plusMinutes(10), NOW);
+		List<Long> ids = List.of(slot.getId());
+
+		assertThat(availabilityRepository.findExpiredHolds(ids, MONDAY, MONDAY, NOW.plusMinutes(5))).isEmpty();
+		assertThat(availabilityRepository.releaseExpiredHolds(ids, MONDAY, MONDAY, NOW.plusMinutes(5))).isZero();
+
+		assertThat(availabilityRepository.findExpiredHolds(ids, MONDAY, MONDAY, NOW.plusMinutes(10)))
+				.extracting(Availability::getId).containsExactly(slot.getId());
+		assertThat(availabilityRepository.releaseExpiredHolds(ids, MONDAY, MONDAY, NOW.plusMinutes(10)))
+				.isEqualTo(1);
+		assertThat(reload().getHeldUntil()).isNull();
+	}
+
+	@Test
+	void aStoredSlotIsFoundByItsStartWhateverItsLength() {
+		assertThat(availabilityRepository.existsByInstructorIdAndUtcStartTime(instructor.getId(), MONDAY)).isTrue();
+		assertThat(availabilityRepository.existsByInstructorIdAndUtcStartTime(instructor.getId(),
+				MONDAY.plusMinutes(30))).isFalse();
+	}
+
+	int hold(Student student, LocalDateTime until, LocalDateTime now) {
+		return availabilityRepository.hold(slot.getId(), MONDAY, student, until, now);
+	}
+
+	int claim(Student student, LocalDateTime now) {
+		return availabilityRepository.claim(slot.getId(), MONDAY, reservation(student), student, now);
+	}
+
+	Reservation reservation(Student student) {
+		return entityManager.persist(Reservation.builder().description("lesson").student(student)
+				.utcStartTime(MONDAY).utcEndTime(MONDAY.plusMinutes(30)).build());
+	}
+
+	Availability reload() {
+		entityManager.clear();
+		return entityManager.find(Availability.class, slot.getId());
+	}
+
+	Student student(String username) {
+		Student student = new Student();
+		student.setUser(user(username));
+		return entityManager.persist(student);
+	}
+
+	User user(String username) {
+		User user = new User();
+		user.setUsername(username);
+		user.setPassword("{noop}secret");
+		entityManager.persist(user);
+		return user;
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.User;
+import com.pivottech.booking.service.AvailabilityIndex;
+import com.pivottech.booking.service.BookingService;
+import com.pivottech.booking.service.SlotUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * {@link BookingService#createMultiSlotReservation} against the database, each call in its own
+ * transaction as in production, so a failed claim really rolls back.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import(BookingService.class)
+class MultiSlotReservationTest {
+
+	static final LocalDateTime MONDAY = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	@MockBean
+	AvailabilityIndex availabilityIndex;
+
+	@Autowired
+	BookingService bookingService;
+
+	@Autowired
+	AvailabilityRepository availabilityRepository;
+
+	@Autowired
+	ReservationRepository reservationRepository;
+
+	@Autowired
+	StudentRepository studentRepository;
+
+	@Autowired
+	InstructorRepository instructorRepository;
+
+	Student alice;
+
+	Student carol;
+
+	/** Three half hour slots from 09:00. */
+	List<Availability> slots = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		alice = studentRepository.save(student("alice"));
+		carol = studentRepository.save(student("carol"));
+		Instructor instructor = new Instructor();
+		instructor.setUser(user("bob"));
+		instructor = instructorRepository.save(instructor);
+		for (int i = 0; i < 3; i++) {
+			LocalDateTime start = MONDAY.plusMinutes(30 * i);
+			slots.add(availabilityRepository.save(Availability.builder().instructor(instructor).utcStartTime(start)
+					.utcEndTime(start.plusMinutes(30)).build()));
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		availabilityRepository.deleteAll();
+		reservationRepository.deleteAll();
+		studentRepository.deleteAll();
+		instructorRepository.deleteAll();
+	}
+
+	@Test
+	void claimsEverySlotForOneReservation() {
+		Reservation reservation = bookingService.createMultiSlotReservation(alice, List.of(slots.get(2), slots.get(0)),
+				"an hour and a half");
+
+		assertThat(reservation.getUtcStartTime()).isEqualTo(MONDAY);
+		assertThat(reservation.getUtcEndTime()).isEqualTo(MONDAY.plusMinutes(90));
+		assertThat(reservedSlots()).containsExactly(slots.get(0).getId(), slots.get(2).getId());
+		verify(availabilityIndex).markBooked(slots.get(0));
+		verify(availabilityIndex).markBooked(slots.get(2));
+	}
+
+	@Test
+	void oneTakenSlotRollsBackTheReservationAndTheOtherClaims() {
+		bookingService.createReservation(carol, slots.get(1), "taken");
+
+		assertThatThrownBy(() -> bookingService.createMultiSlotReservation(alice, slots, "an hour and a half"))
+				.isInstanceOf(SlotUnavailableException.class);
+
+		assertThat(reservationRepository.count()).isEqualTo(1);
+		assertThat(reservedSlots()).containsExactly(slots.get(1).getId());
+		verify(availabilityIndex, never()).markBooked(slots.get(0));
+	}
+
+	List<Long> reservedSlots() {
+		List<Long> ids = new ArrayList<>();
+		availabilityRepository.findAllById(slots.stream().map(Availability::getId).collect(Collectors.toList()))
+				.forEach(slot -> {
+					if (slot.getReservation() != null) {
+						ids.add(slot.getId());
+					}
+				});
+		ids.sort(null);
+		return ids;
+	}
+
+	static Student student(String username) {
+		Student student = new Student();
+		student.setUser(user(username));
+		return student;
+	}
+
+	static User user(String username) {
+		User user = new User();
+		user.setUsername(username);
+		user.setPassword("{noop}secret");
+		return user;
+	}
+
+}
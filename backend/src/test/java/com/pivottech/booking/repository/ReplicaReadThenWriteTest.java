@@ -0,0 +1,220 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * A request that reads in a read-only transaction, routed to the replica, and then writes. The
+ * write must reach the primary: with open-in-view the first transaction's connection would be kept
+ * for the rest of the request and the write would fail on the read-only replica.
+ */
+@SpringBootTest(classes = ReplicaReadThenWriteTest.Config.class)
+@AutoConfigureMockMvc(addFilters = false) // the routing is under test, not the security filters
+class ReplicaReadThenWriteTest {
+
+	@Autowired
+	MockMvc mockMvc;
+
+	@Autowired
+	UserRepository userRepository;
+
+	@Autowired
+	ReplicaRoutingDataSource routingDataSource;
+
+	@Autowired
+	Standby standby;
+
+	@BeforeEach
+	void setUp() {
+		routingDataSource.checkLag();
+		if (userRepository.getByUsername("alice") == null) {
+			User alice = new User();
+			alice.setUsername("alice");
+			alice.setPassword("{noop}old");
+			userRepository.save(alice);
+		}
+	}
+
+	@Test
+	void writesAfterAReplicaReadGoToThePrimary() throws Exception {
+		int replicaStatements = standby.statements.get();
+
+		mockMvc.perform(put("/users/alice/password").content("{noop}new")).andExpect(status().isOk());
+
+		assertThat(standby.statements.get()).isGreaterThan(replicaStatements);
+		assertThat(userRepository.getByUsername("alice").getPassword()).isEqualTo("{noop}new");
+	}
+
+	@Configuration
+	@ImportAutoConfiguration({ PropertyPlaceholderAutoConfiguration.class, HibernateJpaAutoConfiguration.class,
+			TransactionAutoConfiguration.class, JdbcTemplateAutoConfiguration.class,
+			DispatcherServletAutoConfiguration.class, WebMvcAutoConfiguration.class, JacksonAutoConfiguration.class,
+			HttpMessageConvertersAutoConfiguration.class })
+	@EntityScan(basePackageClasses = User.class)
+	@EnableJpaRepositories(basePackageClasses = UserRepository.class)
+	static class Config {
+
+		@Bean
+		Standby standby() {
+			return new Standby();
+		}
+
+		@Bean(destroyMethod = "close")
+		ReplicaRoutingDataSource routingDataSource(Standby standby) {
+			DataSource primary = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+					.generateUniqueName(true).build();
+			return new ReplicaRoutingDataSource(primary, List.of(standby.of(primary)), Duration.ofSeconds(1),
+					Duration.ofSeconds(5), Duration.ofHours(1), new SimpleMeterRegistry());
+		}
+
+		@Bean
+		@Primary
+		DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+			return new LazyConnectionDataSourceProxy(routingDataSource);
+		}
+
+		@Bean
+		PasswordController passwordController(UserRepository userRepository,
+				PlatformTransactionManager transactionManager) {
+			return new PasswordController(userRepository, transactionManager);
+		}
+
+	}
+
+	@RestController
+	static class PasswordController {
+
+		private final UserRepository userRepository;
+
+		private final TransactionTemplate readOnly;
+
+		PasswordController(UserRepository userRepository, PlatformTransactionManager transactionManager) {
+			this.userRepository = userRepository;
+			this.readOnly = new TransactionTemplate(transactionManager);
+			this.readOnly.setReadOnly(true);
+		}
+
+		@PutMapping("/users/{username}/password")
+		public void change(@PathVariable("username") String username, @RequestBody String password) {
+			// read like UserService.getUserByUsername, in a read-only transaction of its own; save runs
+			// its own read-write one
+			User user = readOnly.execute(status -> userRepository.getByUsername(username));
+			user.setPassword(password);
+			userRepository.save(user);
+		}
+
+	}
+
+	/**
+	 * A hot standby on the primary's database: it sees every committed write, reports no lag and
+	 * refuses to write, like Postgres does.
+	 */
+	static class Standby {
+
+		final AtomicInteger statements = new AtomicInteger();
+
+		DataSource of(DataSource primary) {
+			return proxy(DataSource.class, primary, (target, method, args) -> {
+				Object result = invoke(target, method, args);
+				return result instanceof Connection ? connection((Connection) result) : result;
+			});
+		}
+
+		private Connection connection(Connection connection) {
+			return proxy(Connection.class, connection, (target, method, args) -> {
+				if (method.getName().startsWith("prepare") && args != null && args[0] instanceof String) {
+					String sql = (String) args[0];
+					if (isWrite(sql)) {
+						throw new SQLException("cannot execute " + sql + " in a read-only transaction", "25006");
+					}
+					statements.incrementAndGet();
+				}
+				Object result = invoke(target, method, args);
+				return method.getName().equals("createStatement") ? statement((Statement) result) : result;
+			});
+		}
+
+		private Statement statement(Statement statement) {
+			return proxy(Statement.class, statement, (target, method, args) -> {
+				if (method.getName().equals("executeQuery") && ReplicaRoutingDataSource.LAG_SQL.equals(args[0])) {
+					return target.executeQuery("SELECT 0");
+				}
+				return invoke(target, method, args);
+			});
+		}
+
+		private static boolean isWrite(String sql) {
+			String statement = sql.trim().toLowerCase(Locale.ROOT);
+			return statement.startsWith("insert") || statement.startsWith("update") || statement.startsWith("delete")
+					|| statement.contains("next value for");
+		}
+
+		private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> T proxy(Class<T> type, T target, Handler<T> handler) {
+			return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+					(proxy, method, args) -> handler.invoke(target, method, args));
+		}
+
+		interface Handler<T> {
+
+			Object invoke(T target, Method method, Object[] args) throws Throwable;
+
+		}
+
+	}
+
+}
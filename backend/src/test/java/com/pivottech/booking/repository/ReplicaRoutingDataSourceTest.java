@@ -0,0 +1,107 @@
+package com.pivottech.booking.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.Cookie;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReplicaRoutingDataSourceTest {
+
+	SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	double replicaLag;
+
+	ReplicaRoutingDataSource dataSource;
+
+	MockHttpServletRequest request = new MockHttpServletRequest();
+
+	MockHttpServletResponse response = new MockHttpServletResponse();
+
+	@BeforeEach
+	void setUp() throws SQLException {
+		dataSource = new ReplicaRoutingDataSource(mock(DataSource.class), List.of(replica()), Duration.ofSeconds(1),
+				Duration.ofSeconds(5), Duration.ofHours(1), meterRegistry);
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		RequestContextHolder.resetRequestAttributes();
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		dataSource.close();
+	}
+
+	@Test
+	void readOnlyTransactionsGoToAReplicaThatKeepsUp() {
+		dataSource.checkLag();
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+		assertThat(dataSource.determineCurrentLookupKey()).isEqualTo("replica-0");
+
+		replicaLag = 5000;
+		dataSource.checkLag();
+		assertThat(dataSource.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.PRIMARY);
+		assertThat(meterRegistry.get("booking.datasource.replica.fallbacks").counter().count()).isEqualTo(1.0);
+	}
+
+	@Test
+	void writesGoToThePrimaryAndMakeTheUsersReadsSticky() {
+		dataSource.checkLag();
+		TransactionSynchronizationManager.initSynchronization();
+
+		assertThat(dataSource.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.PRIMARY);
+		TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		TransactionSynchronizationManager.clearSynchronization();
+
+		Cookie cookie = response.getCookie(ReplicaRoutingDataSource.WROTE_AT_COOKIE);
+		assertThat(cookie).isNotNull();
+
+		// the user's next request, on any backend replica
+		MockHttpServletRequest next = new MockHttpServletRequest();
+		next.setCookies(cookie);
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(next, new MockHttpServletResponse()));
+		TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+		assertThat(dataSource.determineCurrentLookupKey()).isEqualTo(ReplicaRoutingDataSource.PRIMARY);
+
+		// anybody else
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+		assertThat(dataSource.determineCurrentLookupKey()).isEqualTo("replica-0");
+	}
+
+	DataSource replica() throws SQLException {
+		DataSource replica = mock(DataSource.class);
+		Connection connection = mock(Connection.class);
+		Statement statement = mock(Statement.class);
+		ResultSet resultSet = mock(ResultSet.class);
+		when(replica.getConnection()).thenReturn(connection);
+		when(connection.createStatement()).thenReturn(statement);
+		when(statement.executeQuery(anyString())).thenReturn(resultSet);
+		when(resultSet.next()).thenReturn(true);
+		when(resultSet.getDouble(1)).thenAnswer(invocation -> replicaLag);
+		return replica;
+	}
+
+}
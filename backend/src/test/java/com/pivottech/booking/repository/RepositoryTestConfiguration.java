@@ -0,0 +1,21 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.User;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+
+/**
+ * Found by {@code @DataJpaTest}s in this package before {@code BookingApplication}, so the
+ * repository slices don't drag in the MVC and security configuration nested in it. The JdbcTemplate
+ * is needed by {@link AvailabilityBulkRepositoryImpl}.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@ImportAutoConfiguration(JdbcTemplateAutoConfiguration.class)
+@EntityScan(basePackageClasses = User.class)
+class RepositoryTestConfiguration {
+
+}
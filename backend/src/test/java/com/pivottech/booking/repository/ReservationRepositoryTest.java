@@ -0,0 +1,119 @@
+package com.pivottech.booking.repository;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationCursor;
+import com.pivottech.booking.model.ReservationView;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.User;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class ReservationRepositoryTest {
+
+	static final int RESERVATIONS = 20;
+
+	static final LocalDateTime MONDAY = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	@Autowired
+	ReservationRepository reservationRepository;
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	Student student;
+
+	Instructor instructor;
+
+	Statistics statistics;
+
+	@BeforeEach
+	void setUp() {
+		student = new Student();
+		student.setUser(user("alice"));
+		entityManager.persist(student);
+		instructor = new Instructor();
+		instructor.setUser(user("bob"));
+		entityManager.persist(instructor);
+
+		for (int i = 0; i < RESERVATIONS; i++) {
+			LocalDateTime start = MONDAY.plusHours(i);
+			Reservation reservation = Reservation.builder().description("lesson " + i).student(student)
+					.utcStartTime(start).utcEndTime(start.plusMinutes(30)).build();
+			entityManager.persist(reservation);
+			entityManager.persist(Availability.builder().instructor(instructor).reservation(reservation)
+					.utcStartTime(start).utcEndTime(start.plusMinutes(30)).build());
+		}
+		entityManager.flush();
+		entityManager.clear();
+
+		statistics = entityManager.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class)
+				.getStatistics();
+		statistics.clear();
+	}
+
+	@Test
+	void studentListingIsOneStatement() {
+		List<ReservationView> views = reservationRepository.findByUsernameAndBetween(student.getId(), MONDAY,
+				MONDAY.plusDays(1));
+
+		assertThat(views).hasSize(RESERVATIONS).allSatisfy(view -> {
+			assertThat(view.getStudentUsername()).isEqualTo("alice");
+			assertThat(view.getInstructorUsername()).isEqualTo("bob");
+		});
+		assertThat(views).extracting(ReservationView::getUtcStartTime).isSorted();
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	void instructorListingIsOneStatement() {
+		List<ReservationView> views = reservationRepository.findByInstructorAndBetween(instructor.getId(), MONDAY,
+				MONDAY.plusDays(1));
+
+		assertThat(views).hasSize(RESERVATIONS);
+		assertThat(views.get(0).getDescription()).isEqualTo("lesson 0");
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	@Test
+	void keysetPagesVisitEveryReservationOnce() {
+		List<ReservationView> seen = new ArrayList<>();
+		ReservationCursor cursor = ReservationCursor.startingAt(MONDAY);
+		List<ReservationView> page;
+		do {
+			page = reservationRepository.findPageByStudent(student.getId(), MONDAY, MONDAY.plusDays(1),
+					cursor.getUtcStartTime(), cursor.getId(), PageRequest.of(0, 7));
+			seen.addAll(page);
+			if (!page.isEmpty()) {
+				cursor = ReservationCursor.decode(ReservationCursor.after(page.get(page.size() - 1)).encode());
+			}
+		}
+		while (page.size() == 7);
+
+		assertThat(seen).hasSize(RESERVATIONS).extracting(ReservationView::getId).doesNotHaveDuplicates();
+		assertThat(seen).extracting(ReservationView::getUtcStartTime).isSorted();
+	}
+
+	User user(String username) {
+		User user = new User();
+		user.setUsername(username);
+		user.setPassword("{noop}secret");
+		entityManager.persist(user);
+		return user;
+	}
+
+}
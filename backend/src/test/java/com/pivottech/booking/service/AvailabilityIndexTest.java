@@ -0,0 +1,204 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.AvailabilityRule;
+import com.pivottech.booking.model.AvailabilitySlot;
+import com.pivottech.booking.model.CalendarEvent;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.repository.AvailabilityRepository;
+import com.pivottech.booking.repository.AvailabilityRuleRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AvailabilityIndexTest {
+
+	@Mock
+	AvailabilityRepository mockAvailabilityRepository;
+
+	@Mock
+	AvailabilityRuleRepository mockAvailabilityRuleRepository;
+
+	@Mock
+	ClusterNotifier mockClusterNotifier;
+
+	AvailabilityIndex index;
+
+	Instructor instructor;
+
+	/** 09:00 UTC next Monday: a fixed date would eventually fall behind the index's history window. */
+	static final LocalDateTime NINE = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS)
+			.with(TemporalAdjusters.next(DayOfWeek.MONDAY)).withHour(9);
+
+	@BeforeEach
+	void setUp() {
+		index = new AvailabilityIndex();
+		index.availabilityRepository = mockAvailabilityRepository;
+		index.availabilityRuleRepository = mockAvailabilityRuleRepository;
+		index.clusterNotifier = mockClusterNotifier;
+		instructor = new Instructor();
+		ReflectionTestUtils.setField(instructor, "id", 7L); // id has no setter
+		instructor.setIntroduction("math");
+	}
+
+	@Test
+	void answersRangeQueriesFromMemoryAfterFirstMiss() {
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(instructor.getId()), any()))
+				.thenReturn(List.of(slot(1L, NINE, 30, null), slot(2L, NINE.plusMinutes(30), 30, 100L),
+						slot(3L, NINE.plusMinutes(60), 30, null)));
+
+		List<Availability> free = index.findAvailableBetween(instructor, NINE, NINE.plusHours(2));
+		assertThat(free).extracting(Availability::getId).containsExactly(1L, 3L);
+
+		List<Availability> narrowed = index.findAvailableBetween(instructor, NINE.plusMinutes(15), NINE.plusMinutes(90));
+		assertThat(narrowed).extracting(Availability::getId).containsExactly(3L);
+
+		verify(mockAvailabilityRepository, times(1)).findSlotsByInstructor(eq(instructor.getId()), any());
+	}
+
+	@Test
+	void writeThroughKeepsLoadedIndexCurrent() {
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(instructor.getId()), any()))
+				.thenReturn(List.of(slot(1L, NINE, 30, null)));
+		index.findAvailableBetween(instructor, NINE, NINE.plusHours(1));
+
+		Availability created = Availability.builder().id(2L).instructor(instructor)
+				.utcStartTime(NINE.plusMinutes(30)).utcEndTime(NINE.plusMinutes(60)).build();
+		index.addAll(List.of(created));
+		index.markBooked(Availability.builder().id(1L).instructor(instructor).utcStartTime(NINE)
+				.utcEndTime(NINE.plusMinutes(30)).build());
+
+		List<Availability> free = index.findAvailableBetween(instructor, NINE, NINE.plusHours(1));
+		assertThat(free).extracting(Availability::getId).containsExactly(2L);
+		verify(mockAvailabilityRepository, times(1)).findSlotsByInstructor(eq(instructor.getId()), any());
+	}
+
+	@Test
+	void reloadsAfterTtlExpires() {
+		index.ttlSeconds = -1;
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(instructor.getId()), any())).thenReturn(List.of());
+
+		index.findAvailableBetween(instructor, NINE, NINE.plusHours(1));
+		index.findAvailableBetween(instructor, NINE, NINE.plusHours(1));
+
+		verify(mockAvailabilityRepository, times(2)).findSlotsByInstructor(eq(instructor.getId()), any());
+	}
+
+	@Test
+	void expandsRulesAroundStoredSlots() {
+		// Mondays 9:00 to 10:30, the 9:00 slot is stored and booked
+		AvailabilityRule rule = AvailabilityRule.builder().id(5L).instructor(instructor)
+				.daysOfWeek(Set.of(DayOfWeek.MONDAY)).utcStartTime(LocalTime.of(9, 0)).utcEndTime(LocalTime.of(10, 30))
+				.slotMinutes(30).firstDate(NINE.toLocalDate()).lastDate(NINE.toLocalDate().plusWeeks(4)).build();
+		when(mockAvailabilityRuleRepository.findByInstructor(instructor.getId())).thenReturn(List.of(rule));
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(instructor.getId()), any()))
+				.thenReturn(List.of(slot(1L, NINE, 30, 100L)));
+
+		List<Availability> free = index.findAvailableBetween(instructor, NINE, NINE.plusDays(1));
+
+		assertThat(free).extracting(Availability::getUtcStartTime).containsExactly(NINE.plusMinutes(30),
+				NINE.plusMinutes(60));
+		Availability first = free.get(0);
+		assertThat(first.getId()).isNegative();
+		assertThat(AvailabilityRule.ruleIdOf(first.getId())).isEqualTo(5L);
+		assertThat(AvailabilityRule.startOf(first.getId())).isEqualTo(NINE.plusMinutes(30));
+		assertThat(rule.generates(NINE.plusMinutes(30))).isTrue();
+		assertThat(rule.generates(NINE.plusMinutes(45))).isFalse();
+		assertThat(rule.generates(NINE.plusMinutes(90))).isFalse();
+	}
+
+	@Test
+	void answersFreeBusyFromBitmaps() {
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(instructor.getId()), any()))
+				.thenReturn(List.of(slot(1L, NINE, 30, null), slot(2L, NINE.plusMinutes(30), 30, 100L)));
+
+		AvailabilityIndex.FreeBusyDay day = index.freeBusyOn(instructor, NINE.toLocalDate());
+		assertThat(day.getFree().allSet(108, 114)).isTrue(); // 9:00 to 9:30
+		assertThat(day.getFree().get(114)).isFalse();
+		assertThat(day.getBusy().allSet(114, 120)).isTrue();
+
+		// the cached bitmap is rebuilt after a write
+		index.addAll(List.of(Availability.builder().id(3L).instructor(instructor).utcStartTime(NINE.plusMinutes(60))
+				.utcEndTime(NINE.plusMinutes(90)).build()));
+		assertThat(index.freeBusyOn(instructor, NINE.toLocalDate()).getFree().allSet(120, 126)).isTrue();
+	}
+
+	@Test
+	void releasedSlotsAreReindexedHereAndOnOtherReplicas() {
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(instructor.getId()), any()))
+				.thenReturn(List.of(slot(1L, NINE, 30, 100L)))
+				.thenReturn(List.of(slot(1L, NINE, 30, null)));
+		assertThat(index.findAvailableBetween(instructor, NINE, NINE.plusHours(1))).isEmpty();
+
+		index.onCalendarEvent(new CalendarEvent(CalendarEvent.Type.RELEASED, instructor.getId(), List.of()));
+
+		verify(mockClusterNotifier).publish(AvailabilityIndex.INVALIDATION_CHANNEL, "7");
+		assertThat(index.findAvailableBetween(instructor, NINE, NINE.plusHours(1))).extracting(Availability::getId)
+				.containsExactly(1L);
+	}
+
+	@Test
+	void doesNotKeepALoadThatRacedWithAWrite() {
+		Availability booked = Availability.builder().id(1L).instructor(instructor).utcStartTime(NINE)
+				.utcEndTime(NINE.plusMinutes(30)).build();
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(instructor.getId()), any())).thenAnswer(invocation -> {
+			// the reservation commits while the first load is reading
+			index.markBooked(booked);
+			return List.of(slot(1L, NINE, 30, null));
+		}).thenReturn(List.of(slot(1L, NINE, 30, 100L)));
+
+		index.findAvailableBetween(instructor, NINE, NINE.plusHours(1));
+
+		assertThat(index.findAvailableBetween(instructor, NINE, NINE.plusHours(1))).isEmpty();
+		verify(mockAvailabilityRepository, times(2)).findSlotsByInstructor(eq(instructor.getId()), any());
+	}
+
+	static AvailabilitySlot slot(Long id, LocalDateTime start, int minutes, Long reservationId) {
+		return new AvailabilitySlot() {
+			public Long getId() {
+				return id;
+			}
+
+			public LocalDateTime getUtcStartTime() {
+				return start;
+			}
+
+			public LocalDateTime getUtcEndTime() {
+				return start.plusMinutes(minutes);
+			}
+
+			public Integer getVersion() {
+				return 0;
+			}
+
+			public Long getReservationId() {
+				return reservationId;
+			}
+
+			public LocalDateTime getHeldUntil() {
+				return null;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.FreeSlot;
+import com.pivottech.booking.model.Instructor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AvailabilitySearchTest {
+
+	static final LocalDateTime NINE = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	@Mock
+	AvailabilityIndex mockAvailabilityIndex;
+
+	AvailabilitySearch search;
+
+	Instructor alice = instructor(1L);
+
+	Instructor bob = instructor(2L);
+
+	@BeforeEach
+	void setUp() {
+		search = new AvailabilitySearch(mockAvailabilityIndex, 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		search.stop();
+	}
+
+	@Test
+	void mergesSortedListsUpToTheLimit() {
+		List<Integer> merged = AvailabilitySearch.merge(List.of(List.of(1, 4, 7), List.of(), List.of(2, 3, 9)),
+				Comparator.naturalOrder(), 4);
+
+		assertThat(merged).containsExactly(1, 2, 3, 4);
+	}
+
+	@Test
+	void findsEarliestAndBestFittingSlotsAcrossInstructors() {
+		when(mockAvailabilityIndex.findAvailableBetween(eq(alice), any(), any()))
+				.thenReturn(List.of(slot(11L, alice, NINE, 60), slot(12L, alice, NINE.plusHours(2), 30)));
+		when(mockAvailabilityIndex.findAvailableBetween(eq(bob), any(), any()))
+				.thenReturn(List.of(slot(21L, bob, NINE.plusMinutes(30), 15), slot(22L, bob, NINE.plusHours(1), 45)));
+		Map<String, Instructor> instructors = new LinkedHashMap<>();
+		instructors.put("alice", alice);
+		instructors.put("bob", bob);
+
+		List<FreeSlot> earliest = search.search(instructors, NINE, NINE.plusDays(1), Duration.ofMinutes(30),
+				AvailabilitySearch.Order.EARLIEST, 2);
+		assertThat(earliest).extracting(FreeSlot::getAvailabilityId).containsExactly(11L, 22L);
+		assertThat(earliest).extracting(FreeSlot::getInstructor).containsExactly("alice", "bob");
+
+		List<FreeSlot> bestFit = search.search(instructors, NINE, NINE.plusDays(1), Duration.ofMinutes(30),
+				AvailabilitySearch.Order.BEST_FIT, 10);
+		assertThat(bestFit).extracting(FreeSlot::getAvailabilityId).containsExactly(12L, 22L, 11L);
+	}
+
+	@Test
+	void refusesTooManyInstructorsOrTooLongAWindow() {
+		Map<String, Instructor> many = new LinkedHashMap<>();
+		for (long id = 1; id <= AvailabilitySearch.MAX_INSTRUCTORS + 1; id++) {
+			many.put("instructor" + id, instructor(id));
+		}
+
+		assertThatThrownBy(() -> search.search(many, NINE, NINE.plusDays(1), Duration.ofMinutes(30),
+				AvailabilitySearch.Order.EARLIEST, 10)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> search.search(Map.of("alice", alice), NINE,
+				NINE.plusDays(AvailabilitySearch.MAX_WINDOW_DAYS).plusMinutes(1), Duration.ofMinutes(30),
+				AvailabilitySearch.Order.EARLIEST, 10)).isInstanceOf(IllegalArgumentException.class);
+		verifyNoInteractions(mockAvailabilityIndex);
+	}
+
+	static Instructor instructor(Long id) {
+		Instructor instructor = new Instructor();
+		ReflectionTestUtils.setField(instructor, "id", id); // id has no setter
+		return instructor;
+	}
+
+	static Availability slot(Long id, Instructor instructor, LocalDateTime start, int minutes) {
+		return Availability.builder().id(id).instructor(instructor).utcStartTime(start)
+				.utcEndTime(start.plusMinutes(minutes)).build();
+	}
+
+}
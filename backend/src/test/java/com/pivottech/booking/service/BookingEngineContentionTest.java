@@ -0,0 +1,163 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.repository.AvailabilityRepository;
+import com.pivottech.booking.repository.AvailabilityRuleRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Contention benchmark: N threads race for one availability. Exactly one must win, every loser
+ * must get a {@link SlotUnavailableException}, and the losers should be turned away without
+ * reaching the database.
+ */
+@Log4j2
+@ExtendWith(MockitoExtension.class)
+class BookingEngineContentionTest {
+
+	static final int THREADS = 64;
+
+	static final long DB_LATENCY_MILLIS = 20;
+
+	@Mock
+	AvailabilityRepository mockAvailabilityRepository;
+
+	@Mock
+	AvailabilityRuleRepository mockAvailabilityRuleRepository;
+
+	@Mock
+	HoldExpiry mockHoldExpiry;
+
+	Availability availability;
+
+	/** Number of createReservation calls, i.e. database round trips. */
+	final AtomicInteger roundTrips = new AtomicInteger();
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	BookingEngine engine;
+
+	@BeforeEach
+	void setUp() {
+		Instructor instructor = new Instructor();
+		ReflectionTestUtils.setField(instructor, "id", 7L);
+		// tomorrow, so the slot stays inside the index's history window whenever the test runs
+		LocalDateTime start = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).plusDays(1).withHour(9);
+		availability = Availability.builder().id(42L).instructor(instructor).utcStartTime(start)
+				.utcEndTime(start.plusMinutes(30)).version(0).build();
+		when(mockAvailabilityRepository.findSlotsByInstructor(eq(7L), any()))
+				.thenReturn(List.of(AvailabilityIndexTest.slot(42L, start, 30, null)));
+
+		AvailabilityIndex index = new AvailabilityIndex();
+		index.availabilityRepository = mockAvailabilityRepository;
+		index.availabilityRuleRepository = mockAvailabilityRuleRepository;
+		engine = new BookingEngine(new FakeDatabaseBookingService(index), index, mockHoldExpiry, meterRegistry, 5000,
+				10);
+	}
+
+	@Test
+	void oneWinnerAndFastConflictsForEveryoneElse() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch startGun = new CountDownLatch(1);
+		List<Future<Long>> attempts = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			Student student = new Student();
+			ReflectionTestUtils.setField(student, "id", (long) i);
+			attempts.add(pool.submit(() -> {
+				startGun.await();
+				long begin = System.nanoTime();
+				try {
+					engine.reserve(student, availability, "lesson");
+					return -(System.nanoTime() - begin);
+				}
+				catch (SlotUnavailableException e) {
+					return System.nanoTime() - begin;
+				}
+			}));
+		}
+		long begin = System.nanoTime();
+		startGun.countDown();
+
+		int winners = 0;
+		long slowestLoser = 0;
+		for (Future<Long> attempt : attempts) {
+			long elapsed = attempt.get(10, TimeUnit.SECONDS);
+			if (elapsed < 0) {
+				winners++;
+			}
+			else {
+				slowestLoser = Math.max(slowestLoser, elapsed);
+			}
+		}
+		long total = System.nanoTime() - begin;
+		pool.shutdown();
+
+		log.info("{} threads on one slot: {} round trips, slowest loser {} ms, all done in {} ms", THREADS,
+				roundTrips.get(), TimeUnit.NANOSECONDS.toMillis(slowestLoser), TimeUnit.NANOSECONDS.toMillis(total));
+		assertThat(winners).isEqualTo(1);
+		assertThat(roundTrips.get()).isEqualTo(1);
+		assertThat(meterRegistry.get(BookingEngine.CONFLICTS).counters().stream().mapToDouble(c -> c.count()).sum())
+				.isEqualTo(THREADS - 1);
+		// every loser is counted once, where it was turned away: nobody reached the database and lost
+		assertThat(meterRegistry.get(BookingEngine.CONFLICTS).tag("detected", "database").counter().count()).isZero();
+		// losers wait for at most one in-flight claim, not for each other
+		assertThat(TimeUnit.NANOSECONDS.toMillis(slowestLoser)).isLessThan(DB_LATENCY_MILLIS * 10);
+	}
+
+	/**
+	 * Stands in for the database: a slow conditional claim on a single row.
+	 */
+	class FakeDatabaseBookingService extends BookingService {
+
+		final AtomicReference<Student> row = new AtomicReference<>();
+
+		FakeDatabaseBookingService(AvailabilityIndex index) {
+			this.availabilityIndex = index;
+		}
+
+		@Override
+		public Reservation createReservation(Student student, Availability availability, String description) {
+			roundTrips.incrementAndGet();
+			try {
+				Thread.sleep(DB_LATENCY_MILLIS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (!row.compareAndSet(null, student)) {
+				throw new SlotUnavailableException(availability.getId());
+			}
+			availabilityIndex.markBooked(availability);
+			return Reservation.builder().student(student).availabilities(List.of(availability)).build();
+		}
+
+	}
+
+}
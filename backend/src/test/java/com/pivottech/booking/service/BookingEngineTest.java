@@ -0,0 +1,114 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.Student;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * {@link BookingEngine#reserveAll}; single slots are covered by {@link BookingEngineContentionTest}.
+ */
+@ExtendWith(MockitoExtension.class)
+class BookingEngineTest {
+
+	static final LocalDateTime NINE = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	@Mock
+	BookingService mockBookingService;
+
+	@Mock
+	AvailabilityIndex mockAvailabilityIndex;
+
+	@Mock
+	HoldExpiry mockHoldExpiry;
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	final Student student = new Student();
+
+	final Instructor instructor = new Instructor();
+
+	BookingEngine engine;
+
+	List<Availability> slots;
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(student, "id", 1L); // ids have no setter
+		ReflectionTestUtils.setField(instructor, "id", 7L);
+		engine = new BookingEngine(mockBookingService, mockAvailabilityIndex, mockHoldExpiry, meterRegistry, 100,
+				10);
+		slots = List.of(slot(41L, 0), slot(42L, 30), slot(43L, 60));
+	}
+
+	@Test
+	void booksAllSlotsAsOneReservation() {
+		Reservation reservation = Reservation.builder().id(10L).build();
+		when(mockBookingService.createMultiSlotReservation(student, slots, "lesson")).thenReturn(reservation);
+
+		assertThat(engine.reserveAll(student, slots, "lesson")).isSameAs(reservation);
+
+		slots.forEach(slot -> verify(mockHoldExpiry).cancel(slot.getId()));
+		assertUnlocked();
+	}
+
+	@Test
+	void aSlotBookedInTheIndexFailsTheWholeAttemptWithoutTheDatabase() {
+		when(mockAvailabilityIndex.isBooked(any())).thenAnswer(invocation -> invocation.getArgument(0) == slots.get(1));
+
+		assertThatThrownBy(() -> engine.reserveAll(student, slots, "lesson"))
+				.isInstanceOf(SlotUnavailableException.class);
+
+		verifyNoInteractions(mockBookingService);
+		assertThat(conflicts("index")).isEqualTo(1.0);
+		assertUnlocked();
+	}
+
+	@Test
+	void aLostClaimInvalidatesTheInstructorAndBooksNothing() {
+		when(mockBookingService.createMultiSlotReservation(student, slots, "lesson"))
+				.thenThrow(new SlotUnavailableException(List.of(41L, 42L, 43L)));
+
+		assertThatThrownBy(() -> engine.reserveAll(student, slots, "lesson"))
+				.isInstanceOf(SlotUnavailableException.class);
+
+		verify(mockAvailabilityIndex).invalidate(7L);
+		verify(mockHoldExpiry, never()).cancel(any());
+		assertThat(conflicts("database")).isEqualTo(1.0);
+		assertThat(conflicts("index")).isZero();
+		assertUnlocked();
+	}
+
+	void assertUnlocked() {
+		slots.forEach(slot -> assertThat(engine.lockFor(slot.getId()).isLocked()).isFalse());
+	}
+
+	double conflicts(String detected) {
+		return meterRegistry.get(BookingEngine.CONFLICTS).tag("detected", detected).counter().count();
+	}
+
+	Availability slot(Long id, int minutes) {
+		return Availability.builder().id(id).instructor(instructor)
+				.utcStartTime(NINE.plusMinutes(minutes)).utcEndTime(NINE.plusMinutes(minutes + 30)).version(0)
+				.build();
+	}
+
+}
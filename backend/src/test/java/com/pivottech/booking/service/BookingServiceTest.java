@@ -1,32 +1,67 @@
 package com.pivottech.booking.service;
 
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.CalendarEvent;
+import com.pivottech.booking.model.FreeBusy;
+import com.pivottech.booking.model.Hold;
+import com.pivottech.booking.model.Instructor;
 import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.AvailabilityRule;
 import com.pivottech.booking.repository.AvailabilityRepository;
+import com.pivottech.booking.repository.AvailabilityRuleRepository;
 import com.pivottech.booking.repository.ReservationRepository;
 import org.assertj.core.util.VisibleForTesting;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class BookingServiceTest {
 
+	/** A Monday. */
+	static final LocalDateTime NINE = LocalDateTime.of(2030, 1, 7, 9, 0);
+
 	@Mock // org.mockito 用于创建仿造的service（不是application本身运行时使用的那个instance）
 	ReservationRepository mockReservationRepository;
 
 	@Mock
 	AvailabilityRepository mockAvailabilityRepository;
 
+	@Mock
+	AvailabilityRuleRepository mockAvailabilityRuleRepository;
+
+	@Mock
+	AvailabilityIndex mockAvailabilityIndex;
+
+	@Mock
+	ApplicationEventPublisher mockEventPublisher;
+
 	BookingService service;
 
 	static final Reservation mockReservation = Reservation.builder().id(1000L).description("initial reservation")
@@ -35,7 +70,13 @@ class BookingServiceTest {
 	@BeforeEach
 	void setUp() {
 		service = new BookingService();
-		when(mockReservationRepository.findById(mockReservation.getId())).thenReturn(Optional.of(mockReservation));
+		service.reservationRepository = mockReservationRepository;
+		service.availabilityRepository = mockAvailabilityRepository;
+		service.availabilityRuleRepository = mockAvailabilityRuleRepository;
+		service.availabilityIndex = mockAvailabilityIndex;
+		service.eventPublisher = mockEventPublisher;
+		lenient().when(mockReservationRepository.findWithAvailabilitiesById(mockReservation.getId()))
+				.thenReturn(Optional.of(mockReservation));
 	}
 
 	@AfterEach
@@ -60,4 +101,150 @@ class BookingServiceTest {
 	void getReservations() {
 	}
 
+	@Test
+	void cancelReservationsReleasesTheirSlotsInOneStatementEach() {
+		Reservation first = Reservation.builder().id(10L).utcStartTime(NINE).utcEndTime(NINE.plusMinutes(30)).build();
+		Reservation second = Reservation.builder().id(11L).utcStartTime(NINE.plusHours(2))
+				.utcEndTime(NINE.plusHours(3)).build();
+		when(mockReservationRepository.findAllById(List.of(10L, 11L, 12L))).thenReturn(List.of(first, second));
+		List<Availability> slots = List.of(slot(1L, 7L, NINE), slot(2L, 8L, NINE.plusHours(2)),
+				slot(3L, 8L, NINE.plusMinutes(150)));
+		when(mockAvailabilityRepository.findByReservations(List.of(10L, 11L), NINE, NINE.plusHours(3)))
+				.thenReturn(slots);
+		when(mockReservationRepository.deleteAllBetween(List.of(10L, 11L), NINE, NINE.plusHours(3))).thenReturn(2);
+
+		assertThat(service.cancelReservations(List.of(10L, 11L, 12L))).isEqualTo(2);
+
+		verify(mockAvailabilityRepository).releaseAll(List.of(10L, 11L), NINE, NINE.plusHours(3));
+		ArgumentCaptor<Object> events = ArgumentCaptor.forClass(Object.class);
+		verify(mockEventPublisher, times(4)).publishEvent(events.capture());
+		assertThat(events.getAllValues()).filteredOn(SlotsFreedEvent.class::isInstance)
+				.containsExactlyInAnyOrder(new SlotsFreedEvent(7L), new SlotsFreedEvent(8L));
+	}
+
+	@Test
+	void cancellingUnknownReservationsWritesNothing() {
+		assertThat(service.cancelReservations(List.of(10L))).isZero();
+
+		verify(mockAvailabilityRepository, never()).releaseAll(any(), any(), any());
+		verify(mockReservationRepository, never()).deleteAllBetween(any(), any(), any());
+		verifyNoInteractions(mockEventPublisher);
+	}
+
+	@Test
+	void cancelInstructorReservationsBetweenCancelsWhatHoldsTheirSlots() {
+		Instructor instructor = instructor(7L);
+		when(mockAvailabilityRepository.findReservationIdsBetween(instructor, NINE, NINE.plusDays(1)))
+				.thenReturn(List.of(10L));
+		Reservation reservation = Reservation.builder().id(10L).utcStartTime(NINE).utcEndTime(NINE.plusMinutes(30))
+				.build();
+		when(mockReservationRepository.findAllById(List.of(10L))).thenReturn(List.of(reservation));
+		when(mockReservationRepository.deleteAllBetween(List.of(10L), NINE, NINE.plusMinutes(30))).thenReturn(1);
+
+		assertThat(service.cancelInstructorReservationsBetween(instructor, NINE, NINE.plusDays(1))).isEqualTo(1);
+	}
+
+	@Test
+	void materializeStoresTheRulesSlot() {
+		AvailabilityRule rule = givenRule();
+		Availability stored = slot(1L, 7L, NINE);
+		when(mockAvailabilityRepository.findSlot(7L, NINE, NINE.plusMinutes(30))).thenReturn(null, stored);
+		when(mockAvailabilityRepository.insertIfAbsent(7L, NINE, NINE.plusMinutes(30))).thenReturn(1);
+
+		assertThat(service.materializeAvailability(AvailabilityRule.virtualId(rule.getId(), NINE))).isSameAs(stored);
+		verify(mockAvailabilityIndex).addAll(List.of(stored));
+	}
+
+	@Test
+	void materializeReturnsTheSlotStoredBefore() {
+		AvailabilityRule rule = givenRule();
+		Availability stored = slot(1L, 7L, NINE);
+		when(mockAvailabilityRepository.findSlot(7L, NINE, NINE.plusMinutes(30))).thenReturn(stored);
+
+		assertThat(service.materializeAvailability(AvailabilityRule.virtualId(rule.getId(), NINE))).isSameAs(stored);
+		verify(mockAvailabilityRepository, never()).insertIfAbsent(any(), any(), any());
+	}
+
+	@Test
+	void materializeRefusesWhenAnotherSlotStartsThen() {
+		// a stored 9:00 to 10:00 slot replaces the rule's 9:00 to 9:30 one
+		AvailabilityRule rule = givenRule();
+		when(mockAvailabilityRepository.existsByInstructorIdAndUtcStartTime(7L, NINE)).thenReturn(true);
+
+		assertThat(service.materializeAvailability(AvailabilityRule.virtualId(rule.getId(), NINE))).isNull();
+		verify(mockAvailabilityRepository, never()).insertIfAbsent(any(), any(), any());
+	}
+
+	@Test
+	void expireHoldsFreesOnlyTheHoldsThatRanOut() {
+		LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+		Hold ranOut = new Hold(1L, NINE, NINE.plusMinutes(30), now.minusSeconds(1));
+		// extended since its timeout was scheduled, the query doesn't return it
+		Hold extended = new Hold(2L, NINE.plusHours(1), NINE.plusMinutes(90), now.minusSeconds(1));
+		when(mockAvailabilityRepository.findExpiredHolds(eq(List.of(1L, 2L)), eq(NINE), eq(NINE.plusHours(1)), any()))
+				.thenReturn(List.of(slot(1L, 7L, NINE)));
+		when(mockAvailabilityRepository.releaseExpiredHolds(eq(List.of(1L)), eq(NINE), eq(NINE.plusHours(1)), any()))
+				.thenReturn(1);
+
+		assertThat(service.expireHolds(List.of(ranOut, extended))).isEqualTo(1);
+
+		ArgumentCaptor<Object> events = ArgumentCaptor.forClass(Object.class);
+		verify(mockEventPublisher, times(2)).publishEvent(events.capture());
+		CalendarEvent released = (CalendarEvent) events.getAllValues().get(0);
+		assertThat(released.getType()).isEqualTo(CalendarEvent.Type.RELEASED);
+		assertThat(released.getSlots()).extracting(CalendarEvent.Slot::getId).containsExactly(1L);
+		assertThat(events.getAllValues().get(1)).isEqualTo(new SlotsFreedEvent(7L));
+	}
+
+	@Test
+	void expireHoldsWritesNothingWhenNoneRanOut() {
+		Hold hold = new Hold(1L, NINE, NINE.plusMinutes(30), LocalDateTime.now(ZoneOffset.UTC));
+
+		assertThat(service.expireHolds(List.of(hold))).isZero();
+
+		verify(mockAvailabilityRepository, never()).releaseExpiredHolds(any(), any(), any(), any());
+		verifyNoInteractions(mockEventPublisher);
+	}
+
+	@Test
+	void groupFreeBusyIsFreeWhereAllOrAnyInstructorIs() {
+		Instructor first = instructor(7L);
+		Instructor second = instructor(8L);
+		LocalDate day = NINE.toLocalDate();
+		// 9:00 to 10:00 free for the first, 9:30 to 10:30 for the second, who is busy 10:30 to 11:00
+		when(mockAvailabilityIndex.freeBusyOn(first, day))
+				.thenReturn(new AvailabilityIndex.FreeBusyDay(new DayBitmap().set(108, 120), new DayBitmap()));
+		when(mockAvailabilityIndex.freeBusyOn(second, day)).thenReturn(
+				new AvailabilityIndex.FreeBusyDay(new DayBitmap().set(114, 126), new DayBitmap().set(126, 132)));
+
+		FreeBusy.Day all = service.getGroupFreeBusy(List.of(first, second), day, day, true).getDays().get(0);
+		assertThat(all.getDate()).isEqualTo(day);
+		assertThat(all.getFree()).isEqualTo(new DayBitmap().set(114, 120).toByteArray());
+		assertThat(all.getBusy()).isEqualTo(new DayBitmap().set(126, 132).toByteArray());
+
+		FreeBusy.Day any = service.getGroupFreeBusy(List.of(first, second), day, day, false).getDays().get(0);
+		assertThat(any.getFree()).isEqualTo(new DayBitmap().set(108, 126).toByteArray());
+		assertThat(any.getBusy()).isEqualTo(new DayBitmap().set(126, 132).toByteArray());
+	}
+
+	/** Mondays 9:00 to 10:30 in 30 minute slots. */
+	AvailabilityRule givenRule() {
+		AvailabilityRule rule = AvailabilityRule.builder().id(5L).instructor(instructor(7L))
+				.daysOfWeek(Set.of(DayOfWeek.MONDAY)).utcStartTime(LocalTime.of(9, 0)).utcEndTime(LocalTime.of(10, 30))
+				.slotMinutes(30).firstDate(NINE.toLocalDate()).lastDate(NINE.toLocalDate().plusWeeks(4)).build();
+		when(mockAvailabilityRuleRepository.findById(5L)).thenReturn(Optional.of(rule));
+		return rule;
+	}
+
+	static Instructor instructor(Long id) {
+		Instructor instructor = new Instructor();
+		ReflectionTestUtils.setField(instructor, "id", id); // id has no setter
+		return instructor;
+	}
+
+	static Availability slot(Long id, Long instructorId, LocalDateTime start) {
+		return Availability.builder().id(id).instructor(instructor(instructorId)).utcStartTime(start)
+				.utcEndTime(start.plusMinutes(30)).build();
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+package com.pivottech.booking.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pivottech.booking.model.CalendarEvent;
+import com.pivottech.booking.model.ReservationView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Emitters record what is sent to them instead of writing to a response; {@link RecordingEmitter}
+ * stands in for the container completing a stream after an error. The hour long heartbeat only
+ * runs when a test calls it.
+ */
+@ExtendWith(MockitoExtension.class)
+class CalendarEventBusTest {
+
+	static final LocalDateTime NINE = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	@Mock
+	ClusterNotifier mockClusterNotifier;
+
+	final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	CalendarEventBus bus;
+
+	@BeforeEach
+	void setUp() {
+		bus = new CalendarEventBus(mockClusterNotifier, objectMapper, meterRegistry, 30, 3600);
+	}
+
+	@AfterEach
+	void tearDown() {
+		bus.stop();
+	}
+
+	@Test
+	void deliversToEveryStreamOfTheInstructor() {
+		RecordingEmitter first = subscribe(7L, false);
+		RecordingEmitter second = subscribe(7L, false);
+		RecordingEmitter other = subscribe(8L, false);
+		CalendarEvent event = event(7L);
+
+		bus.deliver(event);
+
+		assertThat(data(first.sent.poll())).containsExactly("event:reserved\ndata:", event, "\n\n");
+		assertThat(data(second.sent.poll())).containsExactly("event:reserved\ndata:", event, "\n\n");
+		assertThat(other.sent).isEmpty();
+		assertThat(subscribers()).isEqualTo(3);
+	}
+
+	@Test
+	void aFailingStreamIsDroppedAndTheOthersStillGetTheEvent() {
+		RecordingEmitter broken = subscribe(7L, true);
+		RecordingEmitter open = subscribe(7L, false);
+
+		bus.deliver(event(7L));
+
+		assertThat(broken.error).isInstanceOf(IOException.class);
+		assertThat(open.sent).hasSize(1);
+		assertThat(subscribers()).isEqualTo(1);
+
+		bus.deliver(event(7L));
+
+		assertThat(broken.attempts).hasValue(1);
+		assertThat(open.sent).hasSize(2);
+	}
+
+	@Test
+	void theHeartbeatFindsStreamsThatAreGone() {
+		RecordingEmitter broken = subscribe(7L, true);
+		RecordingEmitter open = subscribe(8L, false);
+
+		bus.heartbeat();
+
+		assertThat(data(open.sent.poll())).containsExactly(":heartbeat\n\n");
+		assertThat(broken.error).isNotNull();
+		assertThat(subscribers()).isEqualTo(1);
+	}
+
+	@Test
+	void otherReplicasAreNotifiedInTheTransactionAndThisOnesStreamsAfterCommit() throws Exception {
+		RecordingEmitter emitter = subscribe(7L, false);
+		CalendarEvent event = event(7L);
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			bus.onCalendarEvent(event);
+
+			// pg_notify joins the transaction, Postgres only sends it on commit
+			verify(mockClusterNotifier).publish(CalendarEventBus.CHANNEL, objectMapper.writeValueAsString(event));
+			assertThat(emitter.sent.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+			TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		assertThat(data(emitter.sent.poll(5, TimeUnit.SECONDS))).contains(event);
+	}
+
+	@Test
+	void nothingIsPushedHereWhenTheTransactionRollsBack() throws Exception {
+		RecordingEmitter emitter = subscribe(7L, false);
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			bus.onCalendarEvent(event(7L));
+
+			TransactionSynchronizationManager.getSynchronizations()
+					.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		assertThat(emitter.sent.poll(100, TimeUnit.MILLISECONDS)).isNull();
+	}
+
+	@Test
+	void eventsFromOtherReplicasAreDeliveredHere() throws Exception {
+		RecordingEmitter emitter = subscribe(7L, false);
+		CalendarEvent event = event(7L);
+
+		subscriber(CalendarEventBus.CHANNEL).accept(objectMapper.writeValueAsString(event));
+
+		assertThat(data(emitter.sent.poll(5, TimeUnit.SECONDS))).contains(event);
+	}
+
+	@Test
+	void aFulfilledWaitlistEntryOnlyGoesToItsStudent() {
+		RecordingEmitter student = subscribeStudent("late");
+		RecordingEmitter otherStudent = subscribeStudent("early");
+		RecordingEmitter calendar = subscribe(7L, false);
+		WaitlistFulfilledEvent event = fulfilled("late");
+
+		bus.deliver(event);
+
+		assertThat(data(student.sent.poll())).containsExactly("event:fulfilled\ndata:", event.getReservation(),
+				"\n\n");
+		assertThat(otherStudent.sent).isEmpty();
+		assertThat(calendar.sent).isEmpty();
+	}
+
+	@Test
+	void aFulfilledWaitlistEntryReachesTheStudentOnAnyReplica() throws Exception {
+		RecordingEmitter emitter = subscribeStudent("late");
+		WaitlistFulfilledEvent event = fulfilled("late");
+		String json = objectMapper.writeValueAsString(event);
+
+		// published after the reservation committed, so this replica's streams get it right away
+		bus.onWaitlistFulfilled(event);
+
+		verify(mockClusterNotifier).publish(CalendarEventBus.WAITLIST_CHANNEL, json);
+		assertThat(data(emitter.sent.poll(5, TimeUnit.SECONDS))).contains(event.getReservation());
+
+		subscriber(CalendarEventBus.WAITLIST_CHANNEL).accept(json);
+
+		assertThat(data(emitter.sent.poll(5, TimeUnit.SECONDS))).contains(event.getReservation());
+	}
+
+	RecordingEmitter subscribe(Long instructorId, boolean broken) {
+		RecordingEmitter emitter = new RecordingEmitter(broken);
+		bus.subscribe(instructorId, emitter);
+		return emitter;
+	}
+
+	RecordingEmitter subscribeStudent(String username) {
+		RecordingEmitter emitter = new RecordingEmitter(false);
+		bus.subscribeStudent(username, emitter);
+		return emitter;
+	}
+
+	@SuppressWarnings("unchecked")
+	Consumer<String> subscriber(String channel) {
+		ArgumentCaptor<Consumer<String>> subscriber = ArgumentCaptor.forClass(Consumer.class);
+		verify(mockClusterNotifier).subscribe(eq(channel), subscriber.capture());
+		return subscriber.getValue();
+	}
+
+	double subscribers() {
+		return meterRegistry.get("booking.calendar-events.subscribers").gauge().value();
+	}
+
+	static CalendarEvent event(Long instructorId) {
+		return new CalendarEvent(CalendarEvent.Type.RESERVED, instructorId,
+				List.of(new CalendarEvent.Slot(1L, NINE, NINE.plusMinutes(30))));
+	}
+
+	static WaitlistFulfilledEvent fulfilled(String studentUsername) {
+		return new WaitlistFulfilledEvent(studentUsername,
+				new ReservationView(3L, "lesson", NINE, NINE.plusMinutes(30), studentUsername, "teacher"));
+	}
+
+	static List<Object> data(Set<ResponseBodyEmitter.DataWithMediaType> message) {
+		assertThat(message).isNotNull();
+		return message.stream().map(ResponseBodyEmitter.DataWithMediaType::getData).collect(Collectors.toList());
+	}
+
+	static class RecordingEmitter extends SseEmitter {
+
+		final BlockingQueue<Set<ResponseBodyEmitter.DataWithMediaType>> sent = new LinkedBlockingQueue<>();
+
+		final AtomicInteger attempts = new AtomicInteger();
+
+		final boolean broken;
+
+		volatile Runnable completionCallback = () -> {
+		};
+
+		volatile Throwable error;
+
+		RecordingEmitter(boolean broken) {
+			this.broken = broken;
+		}
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			attempts.incrementAndGet();
+			if (broken) {
+				throw new IOException("Broken pipe");
+			}
+			sent.add(builder.build());
+		}
+
+		@Override
+		public synchronized void onCompletion(Runnable callback) {
+			completionCallback = callback;
+		}
+
+		@Override
+		public synchronized void completeWithError(Throwable ex) {
+			error = ex;
+			completionCallback.run();
+		}
+
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.pivottech.booking.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DayBitmapTest {
+
+	static final LocalDateTime MIDNIGHT = LocalDateTime.of(2030, 1, 7, 0, 0);
+
+	@Test
+	void setsAndChecksRangesAcrossWords() {
+		DayBitmap bitmap = new DayBitmap().set(60, 130);
+
+		assertThat(bitmap.get(59)).isFalse();
+		assertThat(bitmap.get(60)).isTrue();
+		assertThat(bitmap.get(129)).isTrue();
+		assertThat(bitmap.get(130)).isFalse();
+		assertThat(bitmap.allSet(60, 130)).isTrue();
+		assertThat(bitmap.allSet(59, 130)).isFalse();
+		assertThat(bitmap.allSet(60, 131)).isFalse();
+
+		bitmap.set(0, DayBitmap.QUANTA);
+		assertThat(bitmap.allSet(0, DayBitmap.QUANTA)).isTrue();
+	}
+
+	@Test
+	void combinesWordByWord() {
+		DayBitmap morning = new DayBitmap().set(96, 144); // 8:00 to 12:00
+		DayBitmap late = new DayBitmap().set(120, 192); // 10:00 to 16:00
+
+		assertThat(morning.and(late).allSet(120, 144)).isTrue();
+		assertThat(morning.and(late).get(119)).isFalse();
+		assertThat(morning.or(late).allSet(96, 192)).isTrue();
+		assertThat(morning.andNot(late).allSet(96, 120)).isTrue();
+		assertThat(morning.andNot(late).get(120)).isFalse();
+		assertThat(new DayBitmap().isEmpty()).isTrue();
+	}
+
+	@Test
+	void roundsSlotBoundsToQuanta() {
+		LocalDateTime time = MIDNIGHT.plusHours(9).plusMinutes(7);
+
+		assertThat(DayBitmap.quantumAtOrBefore(MIDNIGHT, time)).isEqualTo(109);
+		assertThat(DayBitmap.quantumAtOrAfter(MIDNIGHT, time)).isEqualTo(110);
+		assertThat(DayBitmap.quantumAtOrAfter(MIDNIGHT, MIDNIGHT.minusHours(1))).isZero();
+		assertThat(DayBitmap.quantumAtOrBefore(MIDNIGHT, MIDNIGHT.plusDays(1))).isEqualTo(DayBitmap.QUANTA);
+	}
+
+	@Test
+	void serializesLeastSignificantBitFirst() {
+		byte[] bytes = new DayBitmap().set(0, 1).set(9, 10).set(287, 288).toByteArray();
+
+		assertThat(bytes).hasSize(36);
+		assertThat(bytes[0]).isEqualTo((byte) 0x01);
+		assertThat(bytes[1]).isEqualTo((byte) 0x02);
+		assertThat(bytes[35]).isEqualTo((byte) 0x80);
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Hold;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Ticks are driven by the test; the hour long tick keeps the background thread out of the way.
+ */
+@ExtendWith(MockitoExtension.class)
+class HoldExpiryTest {
+
+	static final LocalDateTime NINE = LocalDateTime.of(2030, 1, 7, 9, 0);
+
+	@Mock
+	BookingService mockBookingService;
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	HoldExpiry holdExpiry;
+
+	@BeforeEach
+	void setUp() {
+		holdExpiry = new HoldExpiry(mockBookingService, meterRegistry, Duration.ofHours(1).toMillis(), 8);
+	}
+
+	@AfterEach
+	void tearDown() {
+		holdExpiry.stop();
+	}
+
+	@Test
+	void holdsThatRanOutAreExpiredOnTheNextTick() {
+		Hold hold = hold(1L, LocalDateTime.now(ZoneOffset.UTC).minusSeconds(1));
+		holdExpiry.schedule(hold);
+		assertThat(pending()).isEqualTo(1);
+
+		holdExpiry.tick();
+
+		verify(mockBookingService).expireHolds(List.of(hold));
+		assertThat(pending()).isZero();
+	}
+
+	@Test
+	void holdsNotDueYetAreLeftAlone() {
+		holdExpiry.schedule(hold(1L, LocalDateTime.now(ZoneOffset.UTC).plusHours(3)));
+
+		holdExpiry.tick();
+
+		verify(mockBookingService, never()).expireHolds(any());
+		assertThat(pending()).isEqualTo(1);
+	}
+
+	@Test
+	void cancelledAndReplacedHoldsAreNotExpired() {
+		LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+		holdExpiry.schedule(hold(1L, now.minusSeconds(1)));
+		holdExpiry.cancel(1L);
+		holdExpiry.schedule(hold(2L, now.minusSeconds(1)));
+		// extended before the first one fell due
+		holdExpiry.schedule(hold(2L, now.plusHours(3)));
+
+		holdExpiry.tick();
+
+		verify(mockBookingService, never()).expireHolds(any());
+		assertThat(pending()).isEqualTo(1);
+	}
+
+	@Test
+	void manyHoldsAreExpiredInBatches() {
+		LocalDateTime expired = LocalDateTime.now(ZoneOffset.UTC).minusSeconds(1);
+		for (long id = 0; id < HoldExpiry.BATCH_SIZE + 1; id++) {
+			holdExpiry.schedule(hold(id, expired));
+		}
+
+		holdExpiry.tick();
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Collection<Hold>> batches = ArgumentCaptor.forClass(Collection.class);
+		verify(mockBookingService, times(2)).expireHolds(batches.capture());
+		List<Integer> sizes = new ArrayList<>();
+		batches.getAllValues().forEach(batch -> sizes.add(batch.size()));
+		assertThat(sizes).containsExactly(HoldExpiry.BATCH_SIZE, 1);
+	}
+
+	@Test
+	void aFailedBatchDoesNotStopTheTicks() {
+		when(mockBookingService.expireHolds(any())).thenThrow(new IllegalStateException("database down"))
+				.thenReturn(1);
+		LocalDateTime expired = LocalDateTime.now(ZoneOffset.UTC).minusSeconds(1);
+		holdExpiry.schedule(hold(1L, expired));
+
+		holdExpiry.tick();
+		holdExpiry.schedule(hold(2L, expired));
+		holdExpiry.tick();
+
+		verify(mockBookingService, times(2)).expireHolds(any());
+		assertThat(pending()).isZero();
+	}
+
+	double pending() {
+		return meterRegistry.get("booking.holds.pending").gauge().value();
+	}
+
+	static Hold hold(Long availabilityId, LocalDateTime heldUntil) {
+		return new Hold(availabilityId, NINE, NINE.plusMinutes(30), heldUntil);
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.pivottech.booking.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyStoreTest {
+
+	IdempotencyStore store;
+
+	final AtomicInteger runs = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() {
+		store = new IdempotencyStore(new SimpleMeterRegistry(), 100, 60);
+	}
+
+	@Test
+	void replaysTheFirstResultWithoutRunningAgain() {
+		String first = store.execute("alice", "key-1", List.of(1L), () -> "reservation-" + runs.incrementAndGet());
+		String retry = store.execute("alice", "key-1", List.of(1L), () -> "reservation-" + runs.incrementAndGet());
+
+		assertThat(retry).isEqualTo(first).isEqualTo("reservation-1");
+		assertThat(runs).hasValue(1);
+		// keys are per caller
+		assertThat(store.execute("bob", "key-1", List.of(1L), () -> "reservation-" + runs.incrementAndGet()))
+				.isEqualTo("reservation-2");
+	}
+
+	@Test
+	void rejectsAKeyReusedForAnotherRequest() {
+		store.execute("alice", "key-1", List.of(1L), runs::incrementAndGet);
+
+		assertThatThrownBy(() -> store.execute("alice", "key-1", List.of(2L), runs::incrementAndGet))
+				.isInstanceOfSatisfying(ResponseStatusException.class,
+						e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY));
+		assertThat(runs).hasValue(1);
+	}
+
+	@Test
+	void replaysConflictsButRunsAgainAfterUnexpectedFailures() {
+		for (int i = 0; i < 2; i++) {
+			assertThatThrownBy(() -> store.execute("alice", "taken", 1L, () -> {
+				runs.incrementAndGet();
+				throw new SlotUnavailableException(1L);
+			})).isInstanceOf(SlotUnavailableException.class);
+		}
+		assertThat(runs).hasValue(1);
+
+		assertThatThrownBy(() -> store.execute("alice", "flaky", 1L, () -> {
+			throw new IllegalStateException("connection reset");
+		})).isInstanceOf(IllegalStateException.class);
+		assertThat(store.execute("alice", "flaky", 1L, () -> "ok")).isEqualTo("ok");
+	}
+
+	@Test
+	void runsEveryTimeWithoutAKey() {
+		store.execute("alice", null, 1L, runs::incrementAndGet);
+		store.execute("alice", null, 1L, runs::incrementAndGet);
+
+		assertThat(runs).hasValue(2);
+	}
+
+}
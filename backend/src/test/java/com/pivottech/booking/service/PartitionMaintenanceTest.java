@@ -0,0 +1,124 @@
+package com.pivottech.booking.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * The DDL a run issues, given what the catalog queries answer; the statements themselves only run
+ * on PostgreSQL.
+ */
+@ExtendWith(MockitoExtension.class)
+class PartitionMaintenanceTest {
+
+	static final YearMonth JANUARY = YearMonth.of(2030, 1);
+
+	@Mock
+	DataSource mockDataSource;
+
+	@Mock
+	JdbcTemplate mockJdbcTemplate;
+
+	@Mock
+	PlatformTransactionManager mockTransactionManager;
+
+	PartitionMaintenance maintenance;
+
+	@BeforeEach
+	void setUp() {
+		maintenance = new PartitionMaintenance(mockDataSource, mockJdbcTemplate, mockTransactionManager);
+		maintenance.monthsAhead = 1;
+		maintenance.retentionMonths = 2;
+	}
+
+	@Test
+	void createsTheComingMonthsAndArchivesTheOldOnes() {
+		givenLock(true);
+		givenPartitions("availability", "availability_default", "availability_p2029_10", "availability_p2029_11",
+				"availability_p2030_01");
+		when(mockJdbcTemplate.queryForObject(PartitionMaintenance.IS_PARTITIONED_SQL, Boolean.class, "reservation"))
+				.thenReturn(false);
+
+		maintenance.maintain(JANUARY);
+
+		assertThat(executed()).containsExactly(
+				"CREATE TABLE availability_p2030_02 (LIKE availability INCLUDING DEFAULTS INCLUDING CONSTRAINTS)",
+				"WITH moved AS (DELETE FROM availability_default WHERE utc_start_time >= '2030-02-01' "
+						+ "AND utc_start_time < '2030-03-01' RETURNING *) INSERT INTO availability_p2030_02 "
+						+ "SELECT * FROM moved",
+				"ALTER TABLE availability ATTACH PARTITION availability_p2030_02 "
+						+ "FOR VALUES FROM ('2030-02-01') TO ('2030-03-01')",
+				"CREATE SCHEMA IF NOT EXISTS archive",
+				"ALTER TABLE availability DETACH PARTITION availability_p2029_10",
+				"ALTER TABLE availability_p2029_10 SET SCHEMA archive");
+	}
+
+	@Test
+	void withoutADefaultPartitionNoRowsAreMoved() {
+		givenLock(true);
+		when(mockJdbcTemplate.queryForObject(PartitionMaintenance.IS_PARTITIONED_SQL, Boolean.class, "availability"))
+				.thenReturn(false);
+		givenPartitions("reservation", "reservation_p2030_01");
+		maintenance.retentionMonths = 0;
+
+		maintenance.maintain(JANUARY);
+
+		assertThat(executed()).containsExactly(
+				"CREATE TABLE reservation_p2030_02 (LIKE reservation INCLUDING DEFAULTS INCLUDING CONSTRAINTS)",
+				"ALTER TABLE reservation ATTACH PARTITION reservation_p2030_02 "
+						+ "FOR VALUES FROM ('2030-02-01') TO ('2030-03-01')");
+	}
+
+	@Test
+	void leavesTheWorkToTheReplicaHoldingTheLock() {
+		givenLock(false);
+
+		maintenance.maintain(JANUARY);
+
+		verify(mockJdbcTemplate).queryForObject(PartitionMaintenance.LOCK_SQL, Boolean.class,
+				PartitionMaintenance.LOCK_KEY);
+		verifyNoMoreInteractions(mockJdbcTemplate);
+	}
+
+	@Test
+	void monthOfOnlyReadsMonthlyPartitionsOfTheTable() {
+		assertThat(PartitionMaintenance.monthOf("availability", "availability_p2030_01")).isEqualTo(JANUARY);
+		assertThat(PartitionMaintenance.monthOf("availability", "availability_default")).isNull();
+		assertThat(PartitionMaintenance.monthOf("availability", "availability_pending")).isNull();
+		assertThat(PartitionMaintenance.monthOf("reservation", "availability_p2030_01")).isNull();
+	}
+
+	void givenLock(boolean acquired) {
+		when(mockJdbcTemplate.queryForObject(PartitionMaintenance.LOCK_SQL, Boolean.class,
+				PartitionMaintenance.LOCK_KEY)).thenReturn(acquired);
+	}
+
+	void givenPartitions(String table, String... partitions) {
+		when(mockJdbcTemplate.queryForObject(PartitionMaintenance.IS_PARTITIONED_SQL, Boolean.class, table))
+				.thenReturn(true);
+		when(mockJdbcTemplate.queryForList(PartitionMaintenance.PARTITIONS_SQL, String.class, table))
+				.thenReturn(List.of(partitions));
+	}
+
+	List<String> executed() {
+		ArgumentCaptor<String> statements = ArgumentCaptor.forClass(String.class);
+		verify(mockJdbcTemplate, atLeastOnce()).execute(statements.capture());
+		return statements.getAllValues();
+	}
+
+}
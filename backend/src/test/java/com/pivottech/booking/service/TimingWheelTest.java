@@ -0,0 +1,52 @@
+package com.pivottech.booking.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+
+	@Test
+	void firesAfterTheDelayRoundedUpToTicks() {
+		TimingWheel<String> wheel = new TimingWheel<>(100, 8);
+		wheel.schedule("a", 250);
+		wheel.schedule("b", 0);
+
+		assertThat(wheel.advance()).containsExactly("b");
+		assertThat(wheel.advance()).isEmpty();
+		assertThat(wheel.advance()).isEmpty();
+		assertThat(wheel.advance()).containsExactly("a");
+		assertThat(wheel.advance()).isEmpty();
+	}
+
+	@Test
+	void keepsTimeoutsMoreThanARevolutionAway() {
+		TimingWheel<String> wheel = new TimingWheel<>(100, 4);
+		wheel.schedule("soon", 200);
+		wheel.schedule("later", 1000);
+
+		List<Integer> firedAt = new ArrayList<>();
+		for (int tick = 1; tick <= 20; tick++) {
+			if (!wheel.advance().isEmpty()) {
+				firedAt.add(tick);
+			}
+		}
+		// "soon" and "later" share a bucket, "later" waits for the third revolution
+		assertThat(firedAt).containsExactly(3, 11);
+	}
+
+	@Test
+	void dropsCancelledTimeouts() {
+		TimingWheel<String> wheel = new TimingWheel<>(100, 8);
+		TimingWheel.Timeout<String> cancelled = wheel.schedule("a", 100);
+		wheel.schedule("b", 100);
+		cancelled.cancel();
+
+		assertThat(wheel.advance()).isEmpty();
+		assertThat(wheel.advance()).containsExactly("b");
+	}
+
+}
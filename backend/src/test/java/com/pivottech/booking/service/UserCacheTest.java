@@ -0,0 +1,82 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class UserCacheTest {
+
+	@Mock
+	ClusterNotifier mockClusterNotifier;
+
+	SimpleMeterRegistry meterRegistry;
+
+	UserCache cache;
+
+	final AtomicInteger loads = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		cache = new UserCache(mockClusterNotifier, meterRegistry, 100, 60, 0);
+	}
+
+	@Test
+	void loadsOncePerUsernameAndRecordsHits() {
+		cache.get("alice", this::load);
+		cache.get("alice", this::load);
+
+		assertThat(loads.get()).isEqualTo(1);
+		assertThat(meterRegistry.get("cache.gets").tag("cache", "users").tag("result", "hit").functionCounter()
+				.count()).isEqualTo(1.0);
+	}
+
+	@Test
+	void unknownUsersAreNotCached() {
+		assertThat(cache.get("nobody", username -> {
+			loads.incrementAndGet();
+			return null;
+		})).isNull();
+		cache.get("nobody", this::load);
+
+		assertThat(loads.get()).isEqualTo(2);
+	}
+
+	@Test
+	void evictionIsBroadcastAndRemoteEvictionsApply() {
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<Consumer<String>> subscriber = ArgumentCaptor.forClass(Consumer.class);
+		verify(mockClusterNotifier).subscribe(eq(UserCache.INVALIDATION_CHANNEL), subscriber.capture());
+
+		cache.get("alice", this::load);
+		cache.evict("alice");
+		verify(mockClusterNotifier).publish(UserCache.INVALIDATION_CHANNEL, "alice");
+		cache.get("alice", this::load);
+
+		subscriber.getValue().accept("alice"); // another replica updated alice
+		cache.get("alice", this::load);
+
+		assertThat(loads.get()).isEqualTo(3);
+	}
+
+	User load(String username) {
+		loads.incrementAndGet();
+		User user = new User();
+		user.setUsername(username);
+		return user;
+	}
+
+}
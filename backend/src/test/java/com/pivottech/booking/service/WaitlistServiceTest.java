@@ -0,0 +1,176 @@
+package com.pivottech.booking.service;
+
+import com.pivottech.booking.model.Availability;
+import com.pivottech.booking.model.Instructor;
+import com.pivottech.booking.model.Reservation;
+import com.pivottech.booking.model.ReservationView;
+import com.pivottech.booking.model.Student;
+import com.pivottech.booking.model.User;
+import com.pivottech.booking.model.WaitlistEntry;
+import com.pivottech.booking.repository.WaitlistRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class WaitlistServiceTest {
+
+	// tomorrow, the service drops entries whose window has passed
+	static final LocalDateTime NINE = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).plusDays(1)
+			.withHour(9);
+
+	@Mock
+	WaitlistRepository mockWaitlistRepository;
+
+	@Mock
+	BookingService mockBookingService;
+
+	@Mock
+	BookingEngine mockBookingEngine;
+
+	@Mock
+	AvailabilityIndex mockAvailabilityIndex;
+
+	@Mock
+	ClusterNotifier mockClusterNotifier;
+
+	@Mock
+	ApplicationEventPublisher mockEventPublisher;
+
+	@Mock
+	PlatformTransactionManager mockTransactionManager;
+
+	WaitlistService service;
+
+	Instructor instructor = new Instructor();
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(instructor, "id", 7L);
+		User user = new User();
+		user.setUsername("teacher");
+		instructor.setUser(user);
+		service = new WaitlistService(mockWaitlistRepository, mockBookingService, mockBookingEngine,
+				mockAvailabilityIndex, mockClusterNotifier, mockEventPublisher, mockTransactionManager);
+	}
+
+	@AfterEach
+	void tearDown() {
+		service.stop();
+	}
+
+	@Test
+	void givesAFreedSlotToTheFirstWaiterItFits() {
+		WaitlistEntry evening = entry(1L, student(1L, "early"), NINE.plusHours(9), NINE.plusHours(12));
+		WaitlistEntry morning = entry(2L, student(2L, "late"), NINE, NINE.plusHours(3));
+		Availability slot = Availability.builder().id(42L).instructor(instructor).utcStartTime(NINE)
+				.utcEndTime(NINE.plusMinutes(30)).build();
+		Reservation reservation = Reservation.builder().id(3L).description("lesson").student(morning.getStudent())
+				.utcStartTime(NINE).utcEndTime(NINE.plusMinutes(30)).build();
+		when(mockWaitlistRepository.findByInstructor(7L)).thenReturn(List.of(evening, morning));
+		when(mockAvailabilityIndex.findAvailableBetween(instructor, evening.getUtcFrom(), evening.getUtcTo()))
+				.thenReturn(List.of());
+		when(mockAvailabilityIndex.findAvailableBetween(instructor, morning.getUtcFrom(), morning.getUtcTo()))
+				.thenReturn(List.of(slot));
+		when(mockWaitlistRepository.deleteEntry(2L)).thenReturn(1);
+		when(mockBookingEngine.reserve(morning.getStudent(), slot, "lesson")).thenReturn(reservation);
+
+		service.match(7L);
+
+		verify(mockWaitlistRepository, never()).deleteEntry(1L);
+		verify(mockEventPublisher).publishEvent(new WaitlistFulfilledEvent("late",
+				new ReservationView(3L, "lesson", NINE, NINE.plusMinutes(30), "late", "teacher")));
+		verify(mockClusterNotifier).publish(eq(WaitlistService.CHANNEL), eq("7"));
+		verify(mockBookingEngine, never()).reserve(eq(evening.getStudent()), any(), any());
+		verify(mockBookingService, never()).createReservation(any(), any(), any());
+	}
+
+	@Test
+	void aLostSlotLeavesTheWaiterQueued() {
+		WaitlistEntry entry = entry(1L, student(1L, "early"), NINE, NINE.plusHours(3));
+		Availability slot = Availability.builder().id(42L).instructor(instructor).utcStartTime(NINE)
+				.utcEndTime(NINE.plusMinutes(30)).build();
+		when(mockWaitlistRepository.findByInstructor(7L)).thenReturn(List.of(entry));
+		when(mockAvailabilityIndex.findAvailableBetween(instructor, entry.getUtcFrom(), entry.getUtcTo()))
+				.thenReturn(List.of(slot));
+		when(mockWaitlistRepository.deleteEntry(1L)).thenReturn(1);
+		when(mockBookingEngine.reserve(entry.getStudent(), slot, "lesson"))
+				.thenThrow(new SlotUnavailableException(42L));
+
+		service.match(7L);
+
+		verify(mockTransactionManager).rollback(any());
+		verify(mockEventPublisher, never()).publishEvent(any());
+	}
+
+	@Test
+	void aQueueIsReadOnceUntilItChanges() {
+		when(mockWaitlistRepository.findByInstructor(7L)).thenReturn(List.of());
+
+		service.queueOf(7L);
+		service.queueOf(7L);
+		subscriber().accept("7");
+		service.queueOf(7L);
+
+		verify(mockWaitlistRepository, times(2)).findByInstructor(7L);
+	}
+
+	@Test
+	void aQueueDroppedWhileBeingReadIsNotKept() {
+		WaitlistEntry entry = entry(1L, student(1L, "early"), NINE, NINE.plusHours(3));
+		Consumer<String> subscriber = subscriber();
+		when(mockWaitlistRepository.findByInstructor(7L)).thenAnswer(invocation -> {
+			// another replica changes the queue after this one read it
+			subscriber.accept("7");
+			return List.of();
+		}).thenReturn(List.of(entry));
+
+		assertThat(service.queueOf(7L)).isEmpty();
+		assertThat(service.queueOf(7L)).containsExactly(entry);
+	}
+
+	@SuppressWarnings("unchecked")
+	Consumer<String> subscriber() {
+		ArgumentCaptor<Consumer<String>> subscriber = ArgumentCaptor.forClass(Consumer.class);
+		verify(mockClusterNotifier).subscribe(eq(WaitlistService.CHANNEL), subscriber.capture());
+		return subscriber.getValue();
+	}
+
+	WaitlistEntry entry(Long id, Student student, LocalDateTime from, LocalDateTime to) {
+		WaitlistEntry entry = WaitlistEntry.builder().instructor(instructor).student(student).utcFrom(from)
+				.utcTo(to).description("lesson").build();
+		ReflectionTestUtils.setField(entry, "id", id); // id has no setter
+		return entry;
+	}
+
+	static Student student(Long id, String username) {
+		User user = new User();
+		user.setUsername(username);
+		Student student = new Student();
+		ReflectionTestUtils.setField(student, "id", id);
+		student.setUser(user);
+		return student;
+	}
+
+}
@@ -4,7 +4,9 @@ import { DateLocalizer, momentLocalizer, View } from "react-big-calendar";
 import { useParams } from "react-router";
 import BookingSystemContext from "../context/BookingSystemContext";
 import BookingSystemRequest from "../utils/BookingSystemRequest";
-import { availabilityToEvents, DATE_FORMAT, Event, EventType, reservationToEvents } from '../utils/CalendarUtils';
+import {
+    Availability, availabilityToEvents, DATE_FORMAT, Event, EventType, Reservation, reservationToEvents,
+} from '../utils/CalendarUtils';
 import { RouteParams } from "../views/InstructorView";
 
 interface CalendarState {
@@ -37,7 +39,7 @@ export default function useCalendar(includeAvailability: boolean): CalendarState
     const { username: routeUsername } = useParams<RouteParams>();
 
     // 从context中读取viewerUserName
-    const {username: viewerUserName} = useContext(BookingSystemContext);
+    const {username: viewerUserName, role} = useContext(BookingSystemContext);
 
     const [rangeStart, setRangeStart] = useState(moment().startOf('week').toDate()); // Start Date of current week
     const [rangeEnd, setRangeEnd] = useState(moment().endOf('week').toDate()); // End Date of current week
@@ -45,6 +47,45 @@ export default function useCalendar(includeAvailability: boolean): CalendarState
     const rangeStartString = moment(rangeStart).format(DATE_FORMAT); // string: yyyy-MM-DD HH:mm
     const rangeEndString = moment(rangeEnd).format(DATE_FORMAT); // string: yyyy-MM-DD HH:mm
 
+    // bumped when the backend pushes a change without its slots (too many, or a recurring rule), which refetches the events
+    const [calendarVersion, setCalendarVersion] = useState(0);
+    useEffect(() => {
+        if (!includeAvailability) {
+            return;
+        }
+        // server-sent events: 'created', 'reserved', 'held' or 'released', EventSource reconnects by itself
+        const source = new EventSource(`/api/${routeUsername}/availabilities/events`);
+        const apply = (e: globalThis.Event) => {
+            const slots: Availability[] = JSON.parse((e as MessageEvent).data).slots;
+            if (slots.length === 0) {
+                setCalendarVersion((version) => version + 1);
+                return;
+            }
+            const ids = new Set(slots.map((slot) => slot.id));
+            // reserved and held slots are no longer bookable, created and released ones are (again)
+            const bookable = e.type === 'created' || e.type === 'released' ? availabilityToEvents(slots) : [];
+            setEvents((events) => [
+                ...events.filter((event) => event.type !== 'Availability' || !ids.has(event.id as number)),
+                ...bookable,
+            ]);
+        };
+        ['created', 'reserved', 'held', 'released'].forEach((name) => source.addEventListener(name, apply));
+        return () => source.close();
+    }, [routeUsername, includeAvailability]);
+
+    // a student's waitlist entry turned into a reservation, the backend pushes it once it is made
+    useEffect(() => {
+        if (role !== 'Student' || !viewerUserName) {
+            return;
+        }
+        const source = new EventSource(`/api/${viewerUserName}/waitlist/events`);
+        source.addEventListener('fulfilled', (e) => {
+            const reservation: Reservation = JSON.parse((e as MessageEvent).data);
+            setEvents((events) => [...events, ...reservationToEvents([reservation])]);
+        });
+        return () => source.close();
+    }, [viewerUserName, role]);
+
     /**
      * useEffect(): fetch events (availability / reservation) for use in <MyCalendar /> and <BookingCalendar />
      * 没有define在一个component内，useEffect()实际执行在什么时候？渲染完成之前还是之后？
@@ -96,7 +137,7 @@ export default function useCalendar(includeAvailability: boolean): CalendarState
                 .send();
         }
         // eslint-disable-next-line react-hooks/exhaustive-deps
-    }, [rangeStartString, rangeEndString, includeAvailability]); // 只有view range发生改变的时候才重新 fetch events（刷新页面不会重新fetch？）
+    }, [rangeStartString, rangeEndString, includeAvailability, calendarVersion]); // 只有view range发生改变的时候才重新 fetch events（刷新页面不会重新fetch？）
 
     // 当用户点击"Back"/"Next"以切换view range的时候，重新设定rangeStart & rangeEnd
     const onRangeChange = useCallback((dates, view) => {